@@ -16,9 +16,22 @@
 package com.github.jlarder.javafx.oauth.config;
 
 
+import com.github.jlarder.javafx.oauth.oauth2.CachingTokenRepository;
+import com.github.jlarder.javafx.oauth.oauth2.EncryptingTokenRepository;
+import com.github.jlarder.javafx.oauth.oauth2.ExpiryIndexedTokenRepository;
+import com.github.jlarder.javafx.oauth.oauth2.FileTokenRepository;
+import com.github.jlarder.javafx.oauth.oauth2.JdbcTokenRepository;
+import com.github.jlarder.javafx.oauth.oauth2.LogStructuredTokenRepository;
+import com.github.jlarder.javafx.oauth.oauth2.MappedTokenRepository;
+import com.github.jlarder.javafx.oauth.oauth2.PersistentCookieStore;
+import com.github.jlarder.javafx.oauth.oauth2.TokenRepository;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import javax.crypto.SecretKey;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.core.env.ConfigurableEnvironment;
 import org.springframework.core.env.Environment;
 import org.springframework.core.env.MutablePropertySources;
@@ -40,5 +53,111 @@ public class SpringConfig {
         propertySources.addFirst(resourcePropertySource);
         return environment;
     }
+    
+    
+    /**
+     * The repository and its delegates are closed with the context, which
+     * flushes the cache and stops the background threads.
+     */
+    @Bean(destroyMethod = "close")
+    @Primary
+    public TokenRepository tokenRepository(FileTokenRepository fileTokenRepository,
+            Environment environment) {
+        TokenRepository repository = storageRepository(fileTokenRepository, environment);
+        boolean watched = repository == fileTokenRepository && fileTokenRepository.isWatchEnabled();
+        if(watched) fileTokenRepository.startWatching();
+        if(environment.getProperty("token.encryption.enabled", Boolean.class, false)) {
+            repository = new EncryptingTokenRepository(repository, encryptionKey(environment));
+        }
+        if(!environment.getProperty("token.cache.enabled", Boolean.class, false)) {
+            return expiryIndexed(repository, environment);
+        }
+        CachingTokenRepository cache = new CachingTokenRepository(repository,
+                environment.getProperty("token.cache.flush-interval", Long.class,
+                        CachingTokenRepository.DEFAULT_FLUSH_INTERVAL),
+                environment.getProperty("token.cache.max-size", Integer.class,
+                        CachingTokenRepository.DEFAULT_MAX_SIZE),
+                environment.getProperty("token.cache.max-idle-time", Long.class,
+                        CachingTokenRepository.DEFAULT_MAX_IDLE_TIME));
+        if(watched) fileTokenRepository.addChangeListener(cache::invalidate);
+        return expiryIndexed(cache, environment);
+    }
+    
+    
+    /**
+     * Wraps the repository with an expiry index of the tokens stored for 
+     * token.expiry-index.providers if token.expiry-index.enabled is set.
+     */
+    private TokenRepository expiryIndexed(TokenRepository repository, Environment environment) {
+        if(!environment.getProperty("token.expiry-index.enabled", Boolean.class, false)) return repository;
+        String[] providers = environment.getProperty("token.expiry-index.providers", String[].class,
+                new String[] {"google", "facebook", "vkontakte"});
+        return new ExpiryIndexedTokenRepository(repository, Arrays.asList(providers));
+    }
+    
+    
+    /**
+     * Installs the persistent cookie store of the authentication pages if
+     * token.cookies.enabled is set. The cookies are encrypted with the token
+     * key when token encryption is enabled.
+     */
+    @Bean(destroyMethod = "close")
+    public PersistentCookieStore cookieStore(Environment environment) {
+        if(!environment.getProperty("token.cookies.enabled", Boolean.class, false)) return null;
+        SecretKey key = environment.getProperty("token.encryption.enabled", Boolean.class, false) ?
+                encryptionKey(environment) : null;
+        PersistentCookieStore store = new PersistentCookieStore(
+                Paths.get(environment.getProperty("token.cookies.directory", "tokens/cookies")), key,
+                environment.getProperty("token.cookies.write-delay", Long.class,
+                        PersistentCookieStore.DEFAULT_WRITE_DELAY));
+        store.install();
+        return store;
+    }
+    
+    
+    private SecretKey encryptionKey(Environment environment) {
+        String password = environment.getProperty("token.encryption.password");
+        if(password == null) {
+            return EncryptingTokenRepository.readKeyFile(
+                    Paths.get(environment.getProperty("token.encryption.key-file", "tokens/.token-key")));
+        }
+        byte[] salt = EncryptingTokenRepository.readOrCreateRandom(
+                Paths.get(environment.getProperty("token.encryption.salt-file", "tokens/.token-salt")), 16);
+        return EncryptingTokenRepository.deriveKey(password.toCharArray(), salt);
+    }
+    
+    
+    private TokenRepository storageRepository(FileTokenRepository fileTokenRepository,
+            Environment environment) {
+        String type = environment.getProperty("token.repository.type", "file");
+        switch(type) {
+            case "file":
+                return fileTokenRepository;
+            case "log":
+                LogStructuredTokenRepository repository = new LogStructuredTokenRepository(
+                        Paths.get(environment.getProperty("token.log.file", "tokens/tokens.log")));
+                repository.setGarbageRatio(environment.getProperty("token.log.garbage-ratio", Double.class,
+                        LogStructuredTokenRepository.DEFAULT_GARBAGE_RATIO));
+                repository.setSync(environment.getProperty("token.log.sync", Boolean.class, false));
+                return repository;
+            case "mapped":
+                MappedTokenRepository table = new MappedTokenRepository(
+                        Paths.get(environment.getProperty("token.mapped.file", "tokens/tokens.tbl")),
+                        environment.getProperty("token.mapped.slot-size", Integer.class,
+                                MappedTokenRepository.DEFAULT_SLOT_SIZE),
+                        MappedTokenRepository.DEFAULT_SLOT_COUNT);
+                table.setSync(environment.getProperty("token.mapped.sync", Boolean.class, false));
+                return table;
+            case "jdbc":
+                return new JdbcTokenRepository(
+                        environment.getProperty("token.jdbc.url", "jdbc:h2:./tokens/tokens"),
+                        environment.getProperty("token.jdbc.user"),
+                        environment.getProperty("token.jdbc.password"),
+                        environment.getProperty("token.jdbc.pool-size", Integer.class,
+                                JdbcTokenRepository.DEFAULT_POOL_SIZE));
+            default:
+                throw new IllegalStateException("Unknown token.repository.type " + type);
+        }
+    }
             
 }
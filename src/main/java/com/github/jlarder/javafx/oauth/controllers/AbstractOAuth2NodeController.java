@@ -24,6 +24,7 @@ import javax.inject.Inject;
 import com.github.jlarder.javafx.oauth.oauth2.OAuth2Service;
 import com.github.jlarder.javafx.oauth.oauth2.Token;
 import com.github.jlarder.javafx.oauth.oauth2.TokenError;
+import com.github.jlarder.javafx.oauth.oauth2.TokenKey;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -50,7 +51,7 @@ public abstract class AbstractOAuth2NodeController implements Initializable {
     
     public void getToken() {
         if(getNode() != null) getNode().setDisable(true);              
-        oauth2Service.getToken(getProvider(), getOAuth2Properties(),
+        oauth2Service.getToken(getTokenKey(), getOAuth2Properties(),
                 (Token t, TokenError error) -> {                             
             if(error == null) {
                 if(getNode() != null) getNode().setDisable(false);
@@ -65,7 +66,7 @@ public abstract class AbstractOAuth2NodeController implements Initializable {
     
     public void refreshToken() {
         if(getNode() != null) getNode().setDisable(true);
-        oauth2Service.refreshToken(token, getProvider(), getOAuth2Properties(),
+        oauth2Service.refreshToken(token, getTokenKey(), getOAuth2Properties(),
                 (Token t, TokenError error) -> {
              if(error == null) {
                 if(getNode() != null) getNode().setDisable(false);
@@ -79,7 +80,7 @@ public abstract class AbstractOAuth2NodeController implements Initializable {
     
     
     public void removeToken() {
-        oauth2Service.removeToken(getProvider());
+        oauth2Service.removeTokenAsync(getTokenKey());
     }
     
     
@@ -94,4 +95,17 @@ public abstract class AbstractOAuth2NodeController implements Initializable {
     
     protected abstract void onGetToken(Token token);
     
+    
+    /**
+     * @return the account of the user, null for the default account of the provider
+     */
+    protected String getAccount() {
+        return null;
+    }
+    
+    
+    protected TokenKey getTokenKey() {
+        return TokenKey.of(getProvider(), getAccount());
+    }
+    
 }
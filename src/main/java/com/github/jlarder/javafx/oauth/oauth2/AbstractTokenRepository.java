@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.util.Set;
+
+/**
+ * Base of repositories keyed by {@link TokenKey}, the provider-name methods
+ * address the default account of the provider.
+ *
+ * @author Andrey Kazakov
+ */
+public abstract class AbstractTokenRepository implements TokenRepository {
+    
+    @Override
+    public abstract void saveToken(TokenKey key, Token token);
+    
+    @Override
+    public abstract Token getToken(TokenKey key);
+    
+    @Override
+    public abstract void removeToken(TokenKey key);
+    
+    @Override
+    public abstract Set<TokenKey> getKeys(String provider);
+    
+    
+    @Override
+    public void saveToken(String provider, Token token) {
+        saveToken(TokenKey.of(provider), token);
+    }
+    
+    
+    @Override
+    public Token getToken(String provider) {
+        return getToken(TokenKey.of(provider));
+    }
+    
+    
+    @Override
+    public void removeToken(String provider) {
+        removeToken(TokenKey.of(provider));
+    }
+    
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Replaces files atomically: the data is written to a temporary file in the
+ * same directory, forced to the disk and renamed over the target, so a crash
+ * leaves either the old or the new file. Temporary files are named
+ * {@code .<target>.<random>.tmp}.
+ * <p>
+ * In group commit mode the writes that arrive while a batch is being
+ * committed form the next batch, which is committed by the first of its
+ * writers. Repeated writes of one file are written once and each directory
+ * is synced once per batch, but the data of every file in the batch is
+ * still forced on its own, as Java has no call that syncs several files at
+ * once. A batch of n files in one directory costs n + 1 syncs instead of
+ * 2n. Callers still return only after their data is durable.
+ *
+ * @author Andrey Kazakov
+ */
+class AtomicFileWriter {
+
+    private static final Log LOG = LogFactory.getLog(AtomicFileWriter.class);
+
+    static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Age after which a temporary file of another process is considered abandoned.
+     */
+    static final long STALE_TEMP_AGE = TimeUnit.MINUTES.toMillis(5);
+
+    private static final Set<PosixFilePermission> OWNER_ONLY_FILE = PosixFilePermissions.fromString("rw-------");
+
+    private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY = PosixFilePermissions.fromString("rwx------");
+
+    private static final Set<Path> IN_FLIGHT = ConcurrentHashMap.newKeySet();
+
+    private final boolean fsync;
+
+    private final boolean groupCommit;
+
+    private final Object lock = new Object();
+
+    private Map<Path, PendingWrite> pending = new LinkedHashMap<>();
+
+    private boolean committing;
+
+
+    /**
+     * @param fsync whether the data and the directory are forced to the disk
+     * @param groupCommit whether concurrent writes are synced together
+     */
+    AtomicFileWriter(boolean fsync, boolean groupCommit) {
+        this.fsync = fsync;
+        this.groupCommit = groupCommit;
+    }
+
+
+    void write(Path target, byte[] data) throws IOException {
+        if(!groupCommit || !fsync) {
+            replace(target, data);
+            if(fsync) syncDirectory(target.toAbsolutePath().getParent());
+            return;
+        }
+
+        CompletableFuture<Void> done;
+        Map<Path, PendingWrite> batch = null;
+        boolean interrupted = false;
+        synchronized(lock) {
+            PendingWrite write = pending.get(target);
+            if(write == null) {
+                write = new PendingWrite();
+                pending.put(target, write);
+            }
+            write.data = data;
+            done = write.done;
+            while(committing && !done.isDone()) {
+                try {
+                    lock.wait();
+                } catch(InterruptedException ex) {
+                    // the write is queued already, leaving now could strand it
+                    interrupted = true;
+                }
+            }
+            if(!done.isDone()) {
+                committing = true;
+                batch = pending;
+                pending = new LinkedHashMap<>();
+            }
+        }
+        if(interrupted) Thread.currentThread().interrupt();
+        if(batch != null) {
+            try {
+                commit(batch);
+            } finally {
+                batch.forEach((Path path, PendingWrite write) -> 
+                        write.done.completeExceptionally(new IOException("Group commit of " + path + " failed")));
+                synchronized(lock) {
+                    committing = false;
+                    lock.notifyAll();
+                }
+            }
+        }
+        try {
+            done.join();
+        } catch(CompletionException ex) {
+            if(ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+            throw ex;
+        }
+    }
+
+
+    /**
+     * Removes temporary files an interrupted write left for targets with one
+     * of the given name suffixes. Files of writes still in progress in this
+     * process and files younger than {@link #STALE_TEMP_AGE} are kept.
+     */
+    static void deleteTemporaryFiles(Path dir, String... targetSuffixes) {
+        long staleBefore = System.currentTimeMillis() - STALE_TEMP_AGE;
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(dir, ".*" + TEMP_SUFFIX)) {
+            for(Path file : files) {
+                if(!isTemporaryFile(file.getFileName().toString(), targetSuffixes)) continue;
+                if(IN_FLIGHT.contains(file.toAbsolutePath())) continue;
+                try {
+                    if(Files.getLastModifiedTime(file).toMillis() >= staleBefore) continue;
+                    Files.deleteIfExists(file);
+                    LOG.debug("Deleted stale temporary file " + file);
+                } catch(IOException ex) {
+                    LOG.debug("Unable to delete temporary file " + file, ex);
+                }
+            }
+        } catch(IOException ex) {
+            LOG.warn("Unable to clean temporary files in " + dir, ex);
+        }
+    }
+
+
+    static boolean isTemporaryFile(String name, String... targetSuffixes) {
+        if(!name.startsWith(".") || !name.endsWith(TEMP_SUFFIX)) return false;
+        String base = name.substring(0, name.length() - TEMP_SUFFIX.length());
+        int dot = base.lastIndexOf('.');
+        if(dot <= 1 || dot == base.length() - 1) return false;
+        for(int i = dot + 1; i < base.length(); i++) {
+            if(!Character.isDigit(base.charAt(i))) return false;
+        }
+        String target = base.substring(1, dot);
+        for(String suffix : targetSuffixes) {
+            if(target.endsWith(suffix)) return true;
+        }
+        return false;
+    }
+
+
+    private void commit(Map<Path, PendingWrite> batch) {
+        Set<Path> directories = new HashSet<>();
+        List<PendingWrite> written = new ArrayList<>();
+        for(Map.Entry<Path, PendingWrite> entry : batch.entrySet()) {
+            try {
+                replace(entry.getKey(), entry.getValue().data);
+                directories.add(entry.getKey().toAbsolutePath().getParent());
+                written.add(entry.getValue());
+            } catch(IOException ex) {
+                entry.getValue().done.completeExceptionally(ex);
+            }
+        }
+        for(Path dir : directories) syncDirectory(dir);
+        written.forEach((PendingWrite write) -> write.done.complete(null));
+    }
+
+
+    private void replace(Path target, byte[] data) throws IOException {
+        Path dir = target.toAbsolutePath().getParent();
+        Path temp = createTempFile(dir, target).toAbsolutePath();
+        IN_FLIGHT.add(temp);
+        try {
+            try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while(buffer.hasRemaining()) channel.write(buffer);
+                if(fsync) channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch(IOException ex) {
+            Files.deleteIfExists(temp);
+            throw ex;
+        } finally {
+            IN_FLIGHT.remove(temp);
+        }
+    }
+
+
+    /**
+     * Creates a temporary file for the target in the directory, readable
+     * and writable by the owner only, so that the target has these
+     * permissions once the file is moved or linked to it.
+     */
+    static Path createTempFile(Path dir, Path target) throws IOException {
+        String prefix = "." + target.getFileName() + ".";
+        try {
+            return Files.createTempFile(dir, prefix, TEMP_SUFFIX, PosixFilePermissions.asFileAttribute(OWNER_ONLY_FILE));
+        } catch(UnsupportedOperationException ex) {
+            // not a POSIX file system
+            return Files.createTempFile(dir, prefix, TEMP_SUFFIX);
+        }
+    }
+
+
+    /**
+     * Creates the directory and its missing parents accessible by the owner
+     * only. An existing directory is left as it is.
+     */
+    static void createPrivateDirectories(Path dir) throws IOException {
+        try {
+            Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(OWNER_ONLY_DIRECTORY));
+        } catch(UnsupportedOperationException ex) {
+            // not a POSIX file system
+            Files.createDirectories(dir);
+        }
+    }
+
+
+    /**
+     * Takes an exclusive lock on the file, creating it if needed, for as 
+     * long as the returned channel is open.
+     *
+     * @throws IOException if another process or another channel of this 
+     * process holds the lock
+     */
+    static FileChannel lockExclusively(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if(channel.tryLock() != null) return channel;
+        } catch(OverlappingFileLockException ex) {
+            // held by another channel of this process
+        } catch(IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        channel.close();
+        throw new IOException(file + " is locked by another user of the same files");
+    }
+
+
+    static void syncDirectory(Path dir) {
+        try(FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch(IOException ex) {
+            // not supported on every platform, the rename is durable there anyway
+        }
+    }
+
+
+    private static final class PendingWrite {
+
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private byte[] data;
+    }
+
+}
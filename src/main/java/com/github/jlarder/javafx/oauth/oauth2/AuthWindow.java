@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.util.ArrayList;
+import java.util.List;
+import javafx.event.Event;
+import javafx.event.EventHandler;
+import javafx.event.EventType;
+import javafx.stage.Stage;
+
+/**
+ * An authentication window: the modal stage with its web view controller.
+ * Event handlers added for one authentication are removed by
+ * {@link #reset()}, so that the window can be used again, or by
+ * {@link #dispose()} when it is closed for good.
+ *
+ * @author Andrey Kazakov
+ */
+class AuthWindow {
+
+    private final Stage stage;
+
+    private final OAuth2Controller controller;
+
+    private final List<Runnable> handlerRemovals = new ArrayList<>();
+
+
+    AuthWindow(Stage stage, OAuth2Controller controller) {
+        this.stage = stage;
+        this.controller = controller;
+    }
+
+
+    <T extends Event> void addEventHandler(EventType<T> type, EventHandler<? super T> handler) {
+        stage.addEventHandler(type, handler);
+        handlerRemovals.add(() -> stage.removeEventHandler(type, handler));
+    }
+
+
+    /**
+     * Removes the handlers of the last authentication and blanks the web view.
+     */
+    void reset() {
+        handlerRemovals.forEach(Runnable::run);
+        handlerRemovals.clear();
+        stage.setOnHidden(null);
+        controller.reset();
+    }
+
+
+    /**
+     * Releases the window for good: the web engine listeners are removed
+     * and the view is detached from the stage.
+     */
+    void dispose() {
+        reset();
+        controller.dispose();
+        stage.setOnCloseRequest(null);
+        stage.setScene(null);
+    }
+
+
+    Stage getStage() {
+        return stage;
+    }
+
+
+    OAuth2Controller getController() {
+        return controller;
+    }
+
+}
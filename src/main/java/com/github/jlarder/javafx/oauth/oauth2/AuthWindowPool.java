@@ -0,0 +1,135 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Supplier;
+import javafx.application.Platform;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps authentication windows created in advance, as creating the web
+ * engine is the slowest part of opening one. Windows are created one per
+ * pulse of the JavaFX Application Thread, so that the user interface stays
+ * responsive. Windows in use count toward the size: a closed window is reset
+ * and used again instead of a new one being created. All methods are called
+ * on the JavaFX Application Thread.
+ *
+ * @author Andrey Kazakov
+ */
+class AuthWindowPool {
+
+    private static final Log LOG = LogFactory.getLog(AuthWindowPool.class);
+
+    private final Supplier<AuthWindow> factory;
+
+    private final int size;
+
+    private final Deque<AuthWindow> idle = new ArrayDeque<>();
+
+    private int inUse;
+
+    private boolean filling;
+
+    private boolean cleared;
+
+
+    /**
+     * @param factory creates a window or returns null if it fails
+     * @param size number of windows kept ready
+     */
+    AuthWindowPool(Supplier<AuthWindow> factory, int size) {
+        this.factory = factory;
+        this.size = size;
+    }
+
+
+    /**
+     * @return a ready window, a new one if none is ready, or null if it can not be created
+     */
+    AuthWindow acquire() {
+        AuthWindow window = idle.poll();
+        if(window == null) {
+            window = factory.get();
+        } else {
+            LOG.debug("Using a pre-created authentication window");
+        }
+        if(window != null) inUse++;
+        fill();
+        return window;
+    }
+
+
+    void release(AuthWindow window) {
+        inUse--;
+        if(!cleared && idle.size() + inUse < size) {
+            window.reset();
+            idle.push(window);
+        } else {
+            window.dispose();
+        }
+    }
+
+
+    /**
+     * Creates the missing windows at idle time of the JavaFX Application Thread.
+     */
+    void fill() {
+        if(filling || cleared || idle.size() + inUse >= size) return;
+        filling = true;
+        Platform.runLater(this::createNext);
+    }
+
+
+    /**
+     * Disposes the idle windows, windows in use are disposed when they are
+     * released.
+     */
+    void clear() {
+        cleared = true;
+        idle.forEach(AuthWindow::dispose);
+        idle.clear();
+    }
+
+
+    int getSize() {
+        return size;
+    }
+
+
+
+    int getIdleCount() {
+        return idle.size();
+    }
+
+
+    private void createNext() {
+        if(cleared || idle.size() + inUse >= size) {
+            filling = false;
+            return;
+        }
+        AuthWindow window = factory.get();
+        if(window == null) {
+            filling = false;
+            return;
+        }
+        idle.add(window);
+        Platform.runLater(this::createNext);
+    }
+
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Compact binary codec. After the four byte header (0xB7, 'T', 'K',
+ * version) every parameter is a tag byte followed by its value: the
+ * standard string parameters and the extra ones as length-prefixed UTF-8,
+ * {@code expires_in} and {@code creation_timestamp} as numbers. Lengths
+ * and numbers are unsigned variable-length integers.
+ *
+ * @author Andrey Kazakov
+ */
+public class BinaryTokenCodec implements TokenCodec {
+    
+    public static final String NAME = "binary";
+    
+    private static final byte MAGIC_0 = (byte) 0xB7;
+    private static final byte MAGIC_1 = 'T';
+    private static final byte MAGIC_2 = 'K';
+    private static final byte VERSION = 1;
+    
+    private static final byte EXTRA = 0;
+    private static final byte ACCESS_TOKEN = 1;
+    private static final byte REFRESH_TOKEN = 2;
+    private static final byte SCOPE = 3;
+    private static final byte EXPIRES_IN = 4;
+    private static final byte CREATION_TIMESTAMP = 5;
+    
+    
+    @Override
+    public String getName() {
+        return NAME;
+    }
+    
+    
+    @Override
+    public ByteBuffer encode(Token token) {
+        Map<String, String> extras = token.getExtras();
+        byte[] accessToken = utf8(token.getAccessToken());
+        byte[] refreshToken = utf8(token.getRefreshToken());
+        byte[] scope = utf8(token.getScope());
+        byte[][] extraBytes = new byte[extras.size() * 2][];
+        int size = 4 + stringSize(accessToken) + stringSize(refreshToken) + stringSize(scope) + 2 * 11;
+        int i = 0;
+        for(Map.Entry<String, String> extra : extras.entrySet()) {
+            extraBytes[i] = utf8(extra.getKey());
+            extraBytes[i + 1] = utf8(extra.getValue());
+            size += stringSize(extraBytes[i]) + stringSize(extraBytes[i + 1]) - 1;
+            i += 2;
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(MAGIC_0).put(MAGIC_1).put(MAGIC_2).put(VERSION);
+        putString(buffer, ACCESS_TOKEN, accessToken);
+        putString(buffer, REFRESH_TOKEN, refreshToken);
+        putString(buffer, SCOPE, scope);
+        if(token.getExpiresIn() != null) {
+            buffer.put(EXPIRES_IN);
+            putVarLong(buffer, token.getExpiresIn());
+        }
+        if(token.getCreationTimestamp() != null) {
+            buffer.put(CREATION_TIMESTAMP);
+            putVarLong(buffer, token.getCreationTimestamp());
+        }
+        for(i = 0; i < extraBytes.length; i += 2) {
+            buffer.put(EXTRA);
+            putBytes(buffer, extraBytes[i]);
+            putBytes(buffer, extraBytes[i + 1]);
+        }
+        buffer.flip();
+        return buffer;
+    }
+    
+    
+    @Override
+    public Token decode(ByteBuffer data) {
+        if(!canDecode(data)) throw new TokenRepositoryException("Not a binary token");
+        int version = data.get(data.position() + 3);
+        if(version != VERSION) throw new TokenRepositoryException("Unsupported binary token version " + version);
+        data.position(data.position() + 4);
+        try {
+            Token.Builder builder = new Token.Builder(null);
+            while(data.hasRemaining()) {
+                byte tag = data.get();
+                switch(tag) {
+                    case ACCESS_TOKEN: builder.accessToken(getString(data)); break;
+                    case REFRESH_TOKEN: builder.refreshToken(getString(data)); break;
+                    case SCOPE: builder.scope(getString(data)); break;
+                    case EXPIRES_IN: builder.expiresIn((int) getVarLong(data)); break;
+                    case CREATION_TIMESTAMP: builder.creationTimestamp(getVarLong(data)); break;
+                    case EXTRA: builder.parameter(getString(data), getString(data)); break;
+                    default: throw new TokenRepositoryException("Unknown binary token tag " + tag);
+                }
+            }
+            return builder.build();
+        } catch(BufferUnderflowException | IllegalArgumentException ex) {
+            throw new TokenRepositoryException("Corrupt binary token", ex);
+        }
+    }
+    
+    
+    @Override
+    public boolean canDecode(ByteBuffer data) {
+        int p = data.position();
+        return data.remaining() >= 4 && data.get(p) == MAGIC_0 
+                && data.get(p + 1) == MAGIC_1 && data.get(p + 2) == MAGIC_2;
+    }
+    
+    
+    private static byte[] utf8(String s) {
+        return s != null ? s.getBytes(StandardCharsets.UTF_8) : null;
+    }
+    
+    
+    private static int stringSize(byte[] bytes) {
+        return bytes != null ? 1 + 5 + bytes.length : 0;
+    }
+    
+    
+    private static void putString(ByteBuffer buffer, byte tag, byte[] bytes) {
+        if(bytes == null) return;
+        buffer.put(tag);
+        putBytes(buffer, bytes);
+    }
+    
+    
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        putVarLong(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+    
+    
+    private static String getString(ByteBuffer buffer) {
+        long length = getVarLong(buffer);
+        if(length < 0 || length > buffer.remaining()) throw new BufferUnderflowException();
+        String s;
+        if(buffer.hasArray()) {
+            s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), (int) length, 
+                    StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + (int) length);
+        } else {
+            byte[] bytes = new byte[(int) length];
+            buffer.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+    
+    
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        while((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+    
+    
+    private static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if((b & 0x80) == 0) return value;
+        }
+        throw new IllegalArgumentException("Malformed variable-length integer");
+    }
+    
+}
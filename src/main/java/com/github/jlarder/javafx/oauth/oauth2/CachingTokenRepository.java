@@ -0,0 +1,397 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps tokens of the delegate repository in memory. Saves and removals
+ * are applied to the cache immediately and written to the delegate in the
+ * background, repeated writes of one token between two flushes are
+ * coalesced into one. A flush interval of zero makes writes synchronous.
+ * <p>
+ * When the cache is full the least recently used token is evicted with a
+ * second-chance queue: reads only mark the entry, so the read path takes
+ * no lock, and an eviction moves marked entries to the tail until it
+ * finds an unmarked one.
+ *
+ * @author Andrey Kazakov
+ */
+public class CachingTokenRepository extends AbstractTokenRepository {
+
+    private static final Log LOG = LogFactory.getLog(CachingTokenRepository.class);
+
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    public static final long DEFAULT_MAX_IDLE_TIME = TimeUnit.HOURS.toMillis(1);
+
+    private static final int LOCK_STRIPES = 32;
+
+    private static final Token REMOVED = new Token("");
+
+    private final TokenRepository delegate;
+
+    private final long flushInterval;
+
+    private final int maxSize;
+
+    private final long maxIdleTime;
+
+    private final Map<TokenKey, Entry> cache = new ConcurrentHashMap<>();
+
+    /** Entries in the order they were loaded or given a second chance, guarded by itself. */
+    private final Map<TokenKey, Entry> evictionQueue = new LinkedHashMap<>();
+
+    private final Map<TokenKey, Token> pendingWrites = new ConcurrentHashMap<>();
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final ScheduledExecutorService executor;
+
+    private final Thread shutdownHook;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+
+
+    public CachingTokenRepository(TokenRepository delegate) {
+        this(delegate, DEFAULT_FLUSH_INTERVAL, DEFAULT_MAX_SIZE, DEFAULT_MAX_IDLE_TIME);
+    }
+
+
+    /**
+     * @param delegate the repository the tokens are persisted to
+     * @param flushInterval milliseconds between background flushes, 0 for write-through
+     * @param maxSize maximum number of cached tokens
+     * @param maxIdleTime milliseconds after the last access when a token is evicted, 0 for never
+     */
+    public CachingTokenRepository(TokenRepository delegate, long flushInterval,
+            int maxSize, long maxIdleTime) {
+        if(delegate == null) throw new IllegalArgumentException("delegate is null");
+        if(maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive");
+        this.delegate = delegate;
+        this.flushInterval = Math.max(flushInterval, 0);
+        this.maxSize = maxSize;
+        this.maxIdleTime = Math.max(maxIdleTime, 0);
+        for(int i = 0; i < LOCK_STRIPES; i++) locks[i] = new Object();
+
+        executor = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+            Thread thread = new Thread(r, "token-cache-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = this.flushInterval > 0 ? this.flushInterval : DEFAULT_FLUSH_INTERVAL;
+        executor.scheduleWithFixedDelay(this::maintain, period, period, TimeUnit.MILLISECONDS);
+
+        shutdownHook = new Thread(this::flush, "token-cache-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+
+    @Override
+    public void saveToken(TokenKey key, Token token) {
+        synchronized(lock(key)) {
+            put(key, token);
+            if(flushInterval == 0) {
+                delegate.saveToken(key, token);
+                writes.increment();
+            } else {
+                pendingWrites.put(key, token);
+            }
+        }
+    }
+
+
+    /**
+     * Writes the token through to the delegate, replacing a pending write
+     * of it. If the write fails the token stays pending.
+     */
+    @Override
+    public void saveTokenNow(TokenKey key, Token token) {
+        synchronized(lock(key)) {
+            put(key, token);
+            try {
+                delegate.saveTokenNow(key, token);
+            } catch(RuntimeException ex) {
+                if(flushInterval > 0) pendingWrites.put(key, token);
+                throw ex;
+            }
+            pendingWrites.remove(key);
+            writes.increment();
+        }
+    }
+
+
+    @Override
+    public Token getToken(TokenKey key) {
+        Entry entry = cache.get(key);
+        if(entry != null) {
+            hits.increment();
+            entry.touch();
+            return entry.token;
+        }
+
+        misses.increment();
+        synchronized(lock(key)) {
+            entry = cache.get(key);
+            if(entry == null) {
+                Token token = pendingWrites.get(key);
+                if(token == REMOVED) {
+                    throw new TokenNotFoundException(key, "Token for " + key + " not found");
+                }
+                entry = put(key, token != null ? token : delegate.getToken(key));
+            }
+        }
+        return entry.token;
+    }
+
+
+    @Override
+    public void removeToken(TokenKey key) {
+        synchronized(lock(key)) {
+            discard(key);
+            if(flushInterval == 0) {
+                delegate.removeToken(key);
+                writes.increment();
+            } else {
+                pendingWrites.put(key, REMOVED);
+            }
+        }
+    }
+
+
+    /**
+     * Drops the cached token and loads it again unless this cache has a
+     * pending write of it.
+     */
+    @Override
+    public Token reloadToken(TokenKey key) {
+        synchronized(lock(key)) {
+            if(!pendingWrites.containsKey(key)) discard(key);
+        }
+        return getToken(key);
+    }
+
+
+    /**
+     * Writes all pending changes to the delegate repository.
+     */
+    public void flush() {
+        for(Map.Entry<TokenKey, Token> pending : new ArrayList<>(pendingWrites.entrySet())) {
+            TokenKey key = pending.getKey();
+            Token token = pending.getValue();
+            synchronized(lock(key)) {
+                if(pendingWrites.get(key) != token) continue;
+                try {
+                    if(token == REMOVED) {
+                        delegate.removeToken(key);
+                    } else {
+                        delegate.saveToken(key, token);
+                    }
+                    pendingWrites.remove(key);
+                    writes.increment();
+                } catch(TokenRepositoryException ex) {
+                    LOG.error("Error flushing token " + key + ", will retry", ex);
+                }
+            }
+        }
+    }
+
+
+    @Override
+    public Set<TokenKey> getKeys(String provider) {
+        Set<TokenKey> keys = new HashSet<>(delegate.getKeys(provider));
+        pendingWrites.forEach((TokenKey key, Token token) -> {
+            if(!key.getProvider().equals(provider)) return;
+            if(token == REMOVED) {
+                keys.remove(key);
+            } else {
+                keys.add(key);
+            }
+        });
+        return keys;
+    }
+    
+    
+    public void invalidate(TokenKey key) {
+        discard(key);
+    }
+
+
+    public void invalidateAll() {
+        synchronized(evictionQueue) {
+            cache.clear();
+            evictionQueue.clear();
+        }
+    }
+
+
+    @Override
+    public void close() {
+        if(executor.isShutdown()) return;
+        executor.shutdownNow();
+        flush();
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch(IllegalStateException ex) {
+            // the JVM is already shutting down
+        }
+        delegate.close();
+    }
+
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+
+    public long getWriteCount() {
+        return writes.sum();
+    }
+
+
+    public int getPendingWriteCount() {
+        return pendingWrites.size();
+    }
+
+
+    public int size() {
+        return cache.size();
+    }
+
+
+    public TokenRepository getDelegate() {
+        return delegate;
+    }
+
+
+    private Entry put(TokenKey key, Token token) {
+        Entry entry = new Entry(token);
+        synchronized(evictionQueue) {
+            cache.put(key, entry);
+            evictionQueue.remove(key);
+            evictionQueue.put(key, entry);
+            while(evictionQueue.size() > maxSize) evictEldest();
+        }
+        return entry;
+    }
+
+
+    private void discard(TokenKey key) {
+        synchronized(evictionQueue) {
+            cache.remove(key);
+            evictionQueue.remove(key);
+        }
+    }
+
+
+    private void maintain() {
+        try {
+            flush();
+            if(maxIdleTime > 0) evictIdle(System.currentTimeMillis() - maxIdleTime);
+        } catch(RuntimeException ex) {
+            LOG.error("Token cache maintenance failed", ex);
+        }
+    }
+
+
+    private void evictIdle(long accessedBefore) {
+        synchronized(evictionQueue) {
+            Iterator<Map.Entry<TokenKey, Entry>> iterator = evictionQueue.entrySet().iterator();
+            while(iterator.hasNext()) {
+                Map.Entry<TokenKey, Entry> queued = iterator.next();
+                if(queued.getValue().lastAccess < accessedBefore) {
+                    iterator.remove();
+                    if(cache.remove(queued.getKey(), queued.getValue())) evictions.increment();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Evicts the eldest entry not read since it was queued, entries read in
+     * the meantime move to the tail. Called holding the eviction queue.
+     */
+    private void evictEldest() {
+        while(!evictionQueue.isEmpty()) {
+            Iterator<Map.Entry<TokenKey, Entry>> iterator = evictionQueue.entrySet().iterator();
+            Map.Entry<TokenKey, Entry> eldest = iterator.next();
+            TokenKey key = eldest.getKey();
+            Entry entry = eldest.getValue();
+            iterator.remove();
+            if(entry.referenced) {
+                entry.referenced = false;
+                evictionQueue.put(key, entry);
+            } else {
+                if(cache.remove(key, entry)) evictions.increment();
+                return;
+            }
+        }
+    }
+
+
+    private Object lock(TokenKey key) {
+        return locks[(key.hashCode() & 0x7fffffff) % LOCK_STRIPES];
+    }
+
+
+    private static final class Entry {
+
+        private final Token token;
+
+        private volatile long lastAccess;
+
+        private volatile boolean referenced;
+
+        private Entry(Token token) {
+            this.token = token;
+            this.lastAccess = System.currentTimeMillis();
+        }
+
+        private void touch() {
+            lastAccess = System.currentTimeMillis();
+            if(!referenced) referenced = true;
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+/**
+ * Consecutive failure circuit breaker of one token endpoint.
+ *
+ * @author Andrey Kazakov
+ */
+public class CircuitBreaker {
+    
+    public enum State {
+        
+        CLOSED,
+        
+        OPEN,
+        
+        HALF_OPEN
+    }
+    
+    private State state = State.CLOSED;
+    
+    private int failures;
+    
+    private long openedAt;
+    
+    private boolean trialInFlight;
+    
+    
+    /**
+     * @return false if the request has to fail fast
+     */
+    synchronized boolean tryAcquire(ResiliencePolicy policy, long now) {
+        if(policy.getFailureThreshold() == 0) return true;
+        switch(state) {
+            case OPEN:
+                if(now - openedAt < policy.getOpenDuration().toMillis()) return false;
+                state = State.HALF_OPEN;
+                trialInFlight = true;
+                return true;
+            case HALF_OPEN:
+                if(trialInFlight) return false;
+                trialInFlight = true;
+                return true;
+            default:
+                return true;
+        }
+    }
+    
+    
+    synchronized void onSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        trialInFlight = false;
+    }
+    
+    
+    /**
+     * The request ended with an error which says nothing about the
+     * availability of the endpoint.
+     */
+    synchronized void onIgnored() {
+        trialInFlight = false;
+    }
+    
+    
+    synchronized void onFailure(ResiliencePolicy policy, long now) {
+        trialInFlight = false;
+        failures++;
+        if(policy.getFailureThreshold() > 0 
+                && (state == State.HALF_OPEN || failures >= policy.getFailureThreshold())) {
+            state = State.OPEN;
+            openedAt = now;
+        }
+    }
+    
+    
+    public synchronized State getState() {
+        return state;
+    }
+    
+    
+    public synchronized int getFailures() {
+        return failures;
+    }
+    
+}
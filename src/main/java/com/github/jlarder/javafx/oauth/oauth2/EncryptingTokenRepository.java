@@ -0,0 +1,280 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Encrypts tokens with AES-GCM before they reach the delegate repository.
+ * The key is derived or read once and kept in memory, each thread reuses
+ * its own {@link Cipher}. The stored token carries the ciphertext in place
+ * of the access token, only the expiry parameters stay readable so that
+ * expiry indexes of the delegate keep working. The key id is authenticated
+ * with the ciphertext, so a token copied under another key fails to load.
+ * <p>
+ * Tokens stored before encryption was enabled are returned as they are and
+ * encrypted on their next save. Put a {@link CachingTokenRepository} in
+ * front of this repository to keep decryption off the read path.
+ *
+ * @author Andrey Kazakov
+ */
+public class EncryptingTokenRepository extends AbstractTokenRepository {
+    
+    private static final Log LOG = LogFactory.getLog(EncryptingTokenRepository.class);
+    
+    public static final String ENCRYPTION = "encryption";
+    
+    public static final int PBKDF2_ITERATIONS = 310000;
+    
+    private static final String ALGORITHM = "AES-GCM-1";
+    
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    
+    private static final int KEY_SIZE = 32;
+    
+    private static final int IV_SIZE = 12;
+    
+    private static final int TAG_BITS = 128;
+    
+    private static final SecureRandom RANDOM = new SecureRandom();
+    
+    private final TokenRepository delegate;
+    
+    private final SecretKey key;
+    
+    private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch(GeneralSecurityException ex) {
+            throw new IllegalStateException(TRANSFORMATION + " is not available", ex);
+        }
+    });
+    
+    
+    public EncryptingTokenRepository(TokenRepository delegate, SecretKey key) {
+        if(delegate == null) throw new IllegalArgumentException("delegate is null");
+        if(key == null) throw new IllegalArgumentException("key is null");
+        this.delegate = delegate;
+        this.key = key;
+    }
+    
+    
+    @Override
+    public void saveToken(TokenKey tokenKey, Token token) {
+        delegate.saveToken(tokenKey, encrypt(tokenKey, token));
+    }
+    
+    
+    @Override
+    public void saveTokenNow(TokenKey tokenKey, Token token) {
+        delegate.saveTokenNow(tokenKey, encrypt(tokenKey, token));
+    }
+    
+    
+    @Override
+    public void saveTokens(Map<TokenKey, Token> tokens) {
+        Map<TokenKey, Token> encrypted = new HashMap<>(tokens.size() * 2);
+        tokens.forEach((TokenKey tokenKey, Token token) -> encrypted.put(tokenKey, encrypt(tokenKey, token)));
+        delegate.saveTokens(encrypted);
+    }
+    
+    
+    @Override
+    public Token getToken(TokenKey tokenKey) {
+        return decrypt(tokenKey, delegate.getToken(tokenKey));
+    }
+    
+    
+    @Override
+    public Token reloadToken(TokenKey tokenKey) {
+        return decrypt(tokenKey, delegate.reloadToken(tokenKey));
+    }
+    
+    
+    @Override
+    public void removeToken(TokenKey tokenKey) {
+        delegate.removeToken(tokenKey);
+    }
+    
+    
+    @Override
+    public Set<TokenKey> getKeys(String provider) {
+        return delegate.getKeys(provider);
+    }
+    
+    
+    @Override
+    public void close() {
+        delegate.close();
+    }
+    
+    
+    public TokenRepository getDelegate() {
+        return delegate;
+    }
+    
+    
+    /**
+     * Derives a 256 bit AES key from the password with PBKDF2-HMAC-SHA256.
+     */
+    public static SecretKey deriveKey(char[] password, byte[] salt) {
+        try {
+            PBEKeySpec spec = new PBEKeySpec(password, salt, PBKDF2_ITERATIONS, KEY_SIZE * 8);
+            try {
+                byte[] encoded = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+                return new SecretKeySpec(encoded, "AES");
+            } finally {
+                spec.clearPassword();
+            }
+        } catch(GeneralSecurityException ex) {
+            throw new IllegalStateException("Unable to derive the token key", ex);
+        }
+    }
+    
+    
+    /**
+     * Reads a 256 bit AES key from the file, generating it first if the file
+     * does not exist.
+     */
+    public static SecretKey readKeyFile(Path file) {
+        return new SecretKeySpec(readOrCreateRandom(file, KEY_SIZE), "AES");
+    }
+    
+    
+    /**
+     * Reads random bytes from the file, e.g. a salt, generating them first if
+     * the file does not exist. New files are readable by the owner only 
+     * where the file system supports it.
+     */
+    public static byte[] readOrCreateRandom(Path file, int length) {
+        try {
+            if(!Files.exists(file)) {
+                byte[] bytes = new byte[length];
+                RANDOM.nextBytes(bytes);
+                if(createFile(file, bytes)) return bytes;
+            }
+            byte[] bytes = Files.readAllBytes(file);
+            if(bytes.length != length) {
+                throw new TokenRepositoryException("Key file " + file + " must hold " + length + " bytes");
+            }
+            return bytes;
+        } catch(IOException ex) {
+            throw new TokenRepositoryException("Error reading key file " + file, ex);
+        }
+    }
+    
+    
+    /**
+     * Writes the bytes to an owner only temporary file, forces it to the disk
+     * and links it to the target, which fails rather than replaces a file
+     * another process created in the meantime.
+     * 
+     * @return false if the file exists already
+     */
+    private static boolean createFile(Path file, byte[] bytes) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path temp = AtomicFileWriter.createTempFile(dir, file);
+        try {
+            try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while(buffer.hasRemaining()) channel.write(buffer);
+                channel.force(true);
+            }
+            try {
+                Files.createLink(file, temp);
+            } catch(FileAlreadyExistsException ex) {
+                throw ex;
+            } catch(UnsupportedOperationException | FileSystemException ex) {
+                // no hard links here, a plain move still refuses an existing target
+                Files.move(temp, file);
+            }
+            AtomicFileWriter.syncDirectory(dir);
+            return true;
+        } catch(FileAlreadyExistsException ex) {
+            return false;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    
+    private Token encrypt(TokenKey tokenKey, Token token) {
+        byte[] plaintext = TokenBinaryFormat.encodeToken(tokenKey, token);
+        byte[] iv = new byte[IV_SIZE];
+        RANDOM.nextBytes(iv);
+        try {
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(tokenKey.getId().getBytes(StandardCharsets.UTF_8));
+            ByteBuffer sealed = ByteBuffer.allocate(IV_SIZE + cipher.getOutputSize(plaintext.length));
+            sealed.put(iv);
+            cipher.doFinal(ByteBuffer.wrap(plaintext), sealed);
+            
+            Token.Builder builder = new Token.Builder(Base64.getEncoder().encodeToString(sealed.array()))
+                    .parameter(ENCRYPTION, ALGORITHM);
+            Integer expiresIn = token.getExpiresIn();
+            if(expiresIn != null) builder.expiresIn(expiresIn);
+            Long creationTimestamp = token.getCreationTimestamp();
+            if(creationTimestamp != null) builder.creationTimestamp(creationTimestamp);
+            return builder.build();
+        } catch(GeneralSecurityException ex) {
+            throw new TokenRepositoryException("Error encrypting token " + tokenKey, ex);
+        }
+    }
+    
+    
+    private Token decrypt(TokenKey tokenKey, Token stored) {
+        String algorithm = stored.get(ENCRYPTION);
+        if(algorithm == null) return stored;
+        if(!ALGORITHM.equals(algorithm)) {
+            throw new TokenRepositoryException("Unsupported encryption " + algorithm + " of token " + tokenKey);
+        }
+        try {
+            byte[] sealed = Base64.getDecoder().decode(stored.getAccessToken());
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, sealed, 0, IV_SIZE));
+            cipher.updateAAD(tokenKey.getId().getBytes(StandardCharsets.UTF_8));
+            byte[] plaintext = cipher.doFinal(sealed, IV_SIZE, sealed.length - IV_SIZE);
+            return TokenBinaryFormat.decodeToken(ByteBuffer.wrap(plaintext));
+        } catch(GeneralSecurityException | IllegalArgumentException ex) {
+            throw new TokenRepositoryException("Error decrypting token " + tokenKey, ex);
+        }
+    }
+    
+}
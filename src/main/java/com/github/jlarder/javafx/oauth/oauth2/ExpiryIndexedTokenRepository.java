@@ -0,0 +1,199 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps a {@link TokenExpiryIndex} in step with the tokens saved to and
+ * removed from the delegate repository. The index is seeded with the 
+ * tokens already stored for the given providers, a write and the matching
+ * index update are made under one lock per key so concurrent saves and 
+ * removals can not leave a stale entry. Reads go straight to the delegate.
+ *
+ * @author Andrey Kazakov
+ */
+public class ExpiryIndexedTokenRepository extends AbstractTokenRepository {
+    
+    private static final Log LOG = LogFactory.getLog(ExpiryIndexedTokenRepository.class);
+    
+    private static final int LOCK_STRIPES = 32;
+    
+    private final TokenRepository delegate;
+    
+    private final TokenExpiryIndex index;
+    
+    private final boolean ownIndex;
+    
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    
+    
+    public ExpiryIndexedTokenRepository(TokenRepository delegate, Collection<String> providers) {
+        this(delegate, new TokenExpiryIndex(), providers, true);
+    }
+    
+    
+    /**
+     * The index is left open when the repository is closed.
+     */
+    public ExpiryIndexedTokenRepository(TokenRepository delegate, TokenExpiryIndex index, 
+            Collection<String> providers) {
+        this(delegate, index, providers, false);
+    }
+    
+    
+    private ExpiryIndexedTokenRepository(TokenRepository delegate, TokenExpiryIndex index, 
+            Collection<String> providers, boolean ownIndex) {
+        if(delegate == null) throw new IllegalArgumentException("delegate is null");
+        this.delegate = delegate;
+        this.index = index;
+        this.ownIndex = ownIndex;
+        for(int i = 0; i < LOCK_STRIPES; i++) locks[i] = new ReentrantLock();
+        providers.forEach(this::seed);
+    }
+    
+    
+    @Override
+    public void saveToken(TokenKey key, Token token) {
+        Lock lock = lockFor(key);
+        lock.lock();
+        try {
+            delegate.saveToken(key, token);
+            index.update(key, token);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    
+    @Override
+    public void saveTokenNow(TokenKey key, Token token) {
+        Lock lock = lockFor(key);
+        lock.lock();
+        try {
+            delegate.saveTokenNow(key, token);
+            index.update(key, token);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    
+    /**
+     * Saves the tokens in one batch of the delegate, holding the locks of 
+     * all their keys.
+     */
+    @Override
+    public void saveTokens(Map<TokenKey, Token> tokens) {
+        BitSet stripes = new BitSet(LOCK_STRIPES);
+        for(TokenKey key : tokens.keySet()) stripes.set(stripeOf(key));
+        int locked = -1;
+        try {
+            for(int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) {
+                locks[i].lock();
+                locked = i;
+            }
+            delegate.saveTokens(tokens);
+            tokens.forEach(index::update);
+        } finally {
+            for(int i = stripes.nextSetBit(0); i >= 0 && i <= locked; i = stripes.nextSetBit(i + 1)) {
+                locks[i].unlock();
+            }
+        }
+    }
+    
+    
+    @Override
+    public Token getToken(TokenKey key) {
+        return delegate.getToken(key);
+    }
+    
+    
+    @Override
+    public Token reloadToken(TokenKey key) {
+        return delegate.reloadToken(key);
+    }
+    
+    
+    @Override
+    public void removeToken(TokenKey key) {
+        Lock lock = lockFor(key);
+        lock.lock();
+        try {
+            delegate.removeToken(key);
+            index.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    
+    @Override
+    public Set<TokenKey> getKeys(String provider) {
+        return delegate.getKeys(provider);
+    }
+    
+    
+    /**
+     * Closes the delegate and the index this repository created.
+     */
+    @Override
+    public void close() {
+        if(ownIndex) index.close();
+        delegate.close();
+    }
+    
+    
+    public TokenExpiryIndex getIndex() {
+        return index;
+    }
+    
+    
+    public TokenRepository getDelegate() {
+        return delegate;
+    }
+    
+    
+    private void seed(String provider) {
+        for(TokenKey key : delegate.getKeys(provider)) {
+            try {
+                index.update(key, delegate.getToken(key));
+            } catch(TokenNotFoundException ex) {
+                index.remove(key);
+            } catch(RuntimeException ex) {
+                LOG.warn("Token " + key + " can not be added to the expiry index", ex);
+            }
+        }
+    }
+    
+    
+    private Lock lockFor(TokenKey key) {
+        return locks[stripeOf(key)];
+    }
+    
+    
+    private static int stripeOf(TokenKey key) {
+        return (key.hashCode() & 0x7fffffff) % LOCK_STRIPES;
+    }
+    
+}
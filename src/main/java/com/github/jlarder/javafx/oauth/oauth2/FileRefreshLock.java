@@ -0,0 +1,149 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Advisory refresh lock held on a lock file per provider with
+ * {@link FileChannel#tryLock()}. Threads of one process are serialized by
+ * an in-memory lock first, as file locks are held by the whole process.
+ *
+ * @author Andrey Kazakov
+ */
+public class FileRefreshLock implements RefreshLock {
+    
+    private static final Log LOG = LogFactory.getLog(FileRefreshLock.class);
+    
+    public static final long DEFAULT_TIMEOUT = 30000;
+    
+    private static final long MIN_RETRY_INTERVAL = 10;
+    
+    private static final long MAX_RETRY_INTERVAL = 200;
+    
+    private final Path directory;
+    
+    private final long timeout;
+    
+    private final Map<String, ReentrantLock> localLocks = new ConcurrentHashMap<>();
+    
+    
+    public FileRefreshLock(Path directory) {
+        this(directory, DEFAULT_TIMEOUT);
+    }
+    
+    
+    /**
+     * @param directory where the lock files are created, usually the token directory
+     * @param timeout milliseconds to wait for the lock
+     */
+    public FileRefreshLock(Path directory, long timeout) {
+        this.directory = directory;
+        this.timeout = Math.max(timeout, 0);
+    }
+    
+    
+    @Override
+    public Handle acquire(TokenKey key) {
+        String provider = key.getProvider();
+        long deadline = System.currentTimeMillis() + timeout;
+        ReentrantLock localLock = localLocks.computeIfAbsent(provider, (String p) -> new ReentrantLock());
+        try {
+            if(!localLock.tryLock(timeout, TimeUnit.MILLISECONDS)) return null;
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        
+        Path file = directory.resolve(TokenKey.of(provider).getId() + ".lock");
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(directory);
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            long interval = MIN_RETRY_INTERVAL;
+            while(true) {
+                FileLock fileLock = channel.tryLock();
+                if(fileLock != null) {
+                    LOG.debug("Refresh lock " + file + " acquired");
+                    return new FileHandle(channel, localLock);
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if(remaining <= 0) break;
+                Thread.sleep(Math.min(interval, remaining));
+                interval = Math.min(interval * 2, MAX_RETRY_INTERVAL);
+            }
+            LOG.warn("Timed out waiting " + timeout + " ms for refresh lock " + file);
+        } catch(IOException ex) {
+            LOG.error("Unable to lock " + file, ex);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        close(channel);
+        localLock.unlock();
+        return null;
+    }
+    
+    
+    public Path getDirectory() {
+        return directory;
+    }
+    
+    
+    public long getTimeout() {
+        return timeout;
+    }
+    
+    
+    private static void close(FileChannel channel) {
+        if(channel == null) return;
+        try {
+            channel.close();
+        } catch(IOException ex) {
+            LOG.warn("Error closing lock file", ex);
+        }
+    }
+    
+    
+    private static final class FileHandle implements Handle {
+        
+        private final FileChannel channel;
+        
+        private final ReentrantLock localLock;
+        
+        private FileHandle(FileChannel channel, ReentrantLock localLock) {
+            this.channel = channel;
+            this.localLock = localLock;
+        }
+        
+        @Override
+        public void close() {
+            FileRefreshLock.close(channel);
+            localLock.unlock();
+        }
+    }
+    
+}
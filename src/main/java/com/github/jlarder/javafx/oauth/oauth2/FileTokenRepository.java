@@ -16,15 +16,22 @@
 package com.github.jlarder.javafx.oauth.oauth2;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
 import javax.inject.Inject;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -32,11 +39,24 @@ import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Repository;
 
 /**
+ * Stores each token in its own file, encoded by the configured 
+ * {@link TokenCodec}. Files are replaced atomically, see 
+ * {@link AtomicFileWriter}.
+ * <p>
+ * In the sharded layout the files are spread over 256 subdirectories named
+ * after the hash of the key and the ids are listed in a {@link TokenManifest},
+ * so missing tokens are answered from memory and the directory is never
+ * scanned. Files of a flat directory are moved to their shards in the
+ * background while they stay readable.
+ * <p>
+ * Once {@link #startWatching()} is called changes made by other processes
+ * sharing the directory are detected and reported to the change listeners,
+ * changes made by this repository are recognized by their checksum.
  *
  * @author Andrey Kazakov
  */
 @Repository
-public class FileTokenRepository implements TokenRepository {
+public class FileTokenRepository extends AbstractTokenRepository {
     
     private static final Log LOG = LogFactory.getLog(FileTokenRepository.class);
     
@@ -44,73 +64,474 @@ public class FileTokenRepository implements TokenRepository {
     
     private static final String DEFAULT_LOCATION = "tokens";
     
+    
+    private static final int SHARDS = 256;
+    
+    private static final long DEFAULT_WATCH_DEBOUNCE = 50;
+    
     private String location;
     
     private String fileSuffix; 
     
+    private Boolean sync;
+    
+    private Boolean groupCommit;
+    
+    private Boolean sharded;
+    
+    private TokenCodec codec;
+    
+    private Long watchDebounce;
+    
+    private volatile AtomicFileWriter writer;
+    
     @Inject
     private Environment environment;
+    
+    private final Map<String, Set<TokenKey>> keys = new ConcurrentHashMap<>();
+    
+    private volatile boolean keysLoaded;
+    
+    private final Set<File> createdDirectories = ConcurrentHashMap.newKeySet();
+    
+    private final Map<TokenKey, File> flatFiles = new ConcurrentHashMap<>();
+    
+    private TokenManifest manifest;
+    
+    private final List<TokenChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    
+    private final Map<TokenKey, Long> checksums = new ConcurrentHashMap<>();
+    
+    private volatile TokenDirectoryWatcher watcher;
+    
+    private Thread migration;
 
            
     @Override
-    public void saveToken(String provider, Token token) {
-        Properties properties = new Properties();
-        properties.putAll(token.getAll());
-        saveProperties(provider, properties);
+    public void saveToken(TokenKey key, Token token) {
+        byte[] data = encode(token);
+        if(isSharded()) {
+            if(!contains(key)) appendManifest(key, true);
+            boolean[] saved = {false};
+            flatFiles.computeIfPresent(key, (TokenKey k, File flat) -> {
+                write(k, data);
+                saved[0] = true;
+                flat.delete();
+                return null;
+            });
+            if(saved[0]) {
+                addKey(key);
+                return;
+            }
+        }
+        write(key, data);
+        addKey(key);
+        File legacy = getLegacyFile(key);
+        if(legacy != null) legacy.delete();
     }
     
     
     @Override
-    public Token getToken(String provider) {
-        Properties properties = loadProperties(provider);
-        if(properties == null || !properties.containsKey("access_token")) {
-            throw new TokenRepositoryException("Invalid token " + properties);
+    public Token getToken(TokenKey key) {
+        if(isSharded() && !contains(key)) {
+            // another process may have added it since the manifest was loaded
+            File file = locate(key);
+            if(!file.isFile()) throw new TokenNotFoundException(key, "Token for " + key + " not found");
+            addKey(key);
+            return read(key, file);
+        }
+        File flat = flatFiles.get(key);
+        if(flat != null) {
+            try {
+                return read(key, flat);
+            } catch(TokenNotFoundException ex) {
+                // moved to its shard in the meantime
+            }
+        }
+        try {
+            return read(key, getFile(key));
+        } catch(TokenNotFoundException ex) {
+            File legacy = getLegacyFile(key);
+            if(legacy == null || !legacy.isFile()) throw ex;
+            return read(key, legacy);
         }
-        Map<String, String> params = new HashMap<>();
-        properties.entrySet().forEach((entry) -> {
-            params.put((String) entry.getKey(), (String) entry.getValue());
-        });  
-        return Token.fromMap(params);
     }
     
     
     @Override
-    public void removeToken(String provider) {
-        File file = new File(provider + fileSuffix);
-        if(file.delete()) {
+    public void removeToken(TokenKey key) {
+        File file = getFile(key);
+        boolean deleted = file.delete();
+        File flat = flatFiles.remove(key);
+        if(flat != null) deleted |= flat.delete();
+        File legacy = getLegacyFile(key);
+        if(legacy != null) deleted |= legacy.delete();
+        checksums.remove(key);
+        if(deleted) {
             LOG.debug("File " + file + " deleted" );
         } else {
             LOG.error("Error deleting file " + file);
         }
+        synchronized(this) {
+            Set<TokenKey> providerKeys = keys.get(key.getProvider());
+            if(providerKeys != null && providerKeys.remove(key) && isSharded()) {
+                appendManifest(key, false);
+            }
+        }
     }
     
     
-    private Properties loadProperties(String provider) {
-        File file = getFile(provider);
-        try(InputStream in = new FileInputStream(file)){
-            Properties properties = new Properties();
-            properties.load(in);     
-            LOG.debug("Saved the token file " + file);
-            return properties;
-        } catch (FileNotFoundException ex) {
-            throw new TokenNotFoundException(provider, "Token for " + provider + " not found", ex);
+    /**
+     * The token directory is listed once, later the keys are tracked in 
+     * memory. In the sharded layout the manifest is read again once another
+     * process has changed it.
+     */
+    @Override
+    public Set<TokenKey> getKeys(String provider) {
+        if(!keysLoaded) loadKeys();
+        if(isSharded()) reloadManifest();
+        Set<TokenKey> providerKeys = keys.get(provider);
+        return providerKeys != null ? new HashSet<>(providerKeys) : new HashSet<>();
+    }
+    
+    
+    /**
+     * Starts watching the token directory for changes made by other processes.
+     */
+    public synchronized void startWatching() {
+        if(watcher != null) return;
+        if(!keysLoaded) loadKeys();
+        File dir = getDirectory();
+        try {
+            if(dir.mkdirs()) createdDirectories.add(dir);
+            watcher = new TokenDirectoryWatcher(this::isTokenFile, this::isShardDirectory,
+                    this::handleChanges, getWatchDebounce());
+            watcher.register(dir.toPath());
+            if(isSharded()) {
+                for(int shard = 0; shard < SHARDS; shard++) {
+                    File shardDir = new File(dir, shardName(shard));
+                    if(shardDir.isDirectory()) watcher.register(shardDir.toPath());
+                }
+            }
+            watcher.start();
+        } catch(IOException ex) {
+            watcher = null;
+            throw new TokenRepositoryException("Unable to watch the token directory " + dir, ex);
+        }
+    }
+    
+    
+    public synchronized void stopWatching() {
+        if(watcher == null) return;
+        watcher.close();
+        watcher = null;
+        checksums.clear();
+    }
+    
+    
+    /**
+     * Stops watching and closes the manifest, the repository can be used
+     * again afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        stopWatching();
+        if(migration != null) {
+            migration.interrupt();
+            try {
+                migration.join();
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            migration = null;
+        }
+        if(manifest != null) {
+            try {
+                manifest.close();
+            } catch(IOException ex) {
+                LOG.error("Error closing the token manifest", ex);
+            }
+        }
+    }
+    
+    
+    public void addChangeListener(TokenChangeListener listener) {
+        changeListeners.add(listener);
+    }
+    
+    
+    public void removeChangeListener(TokenChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+    
+    
+    private boolean isTokenFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(getFileSuffix()) && !name.startsWith(".");
+    }
+    
+    
+    private boolean isShardDirectory(Path path) {
+        return isSharded() && path.getFileName().toString().matches("[0-9a-f]{2}");
+    }
+    
+    
+    /**
+     * Applies changed token files to the known keys and notifies the 
+     * listeners of the changes not made by this repository.
+     */
+    private void handleChanges(Set<Path> files) {
+        if(files.isEmpty()) {
+            LOG.warn("Token directory events were lost, reporting all tokens as changed");
+            checksums.clear();
+            keys.values().forEach((Set<TokenKey> providerKeys) -> providerKeys.forEach(this::fireChanged));
+            return;
+        }
+        String suffix = getFileSuffix();
+        for(Path path : files) {
+            String name = path.getFileName().toString();
+            TokenKey key;
+            try {
+                key = TokenKey.parse(name.substring(0, name.length() - suffix.length()));
+            } catch(IllegalArgumentException ex) {
+                continue;
+            }
+            File file = getFile(key);
+            byte[] data;
+            try {
+                data = Files.readAllBytes(file.toPath());
+            } catch(NoSuchFileException ex) {
+                data = null;
+            } catch(IOException ex) {
+                LOG.warn("Unable to read changed token file " + file, ex);
+                continue;
+            }
+            if(data != null) {
+                Long checksum = checksum(data);
+                if(checksum.equals(checksums.put(key, checksum))) continue;
+                addKey(key);
+                fireChanged(key);
+            } else if(!flatFiles.containsKey(key)) {
+                checksums.remove(key);
+                Set<TokenKey> providerKeys = keys.get(key.getProvider());
+                if(providerKeys != null && providerKeys.remove(key)) fireChanged(key);
+            }
+        }
+    }
+    
+    
+    private void fireChanged(TokenKey key) {
+        LOG.debug("Token " + key + " changed by another process");
+        for(TokenChangeListener listener : changeListeners) {
+            try {
+                listener.changed(key);
+            } catch(RuntimeException ex) {
+                LOG.error("Error notifying about token " + key + " change", ex);
+            }
+        }
+    }
+    
+    
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+    
+    
+    private boolean contains(TokenKey key) {
+        if(!keysLoaded) loadKeys();
+        Set<TokenKey> providerKeys = keys.get(key.getProvider());
+        return providerKeys != null && providerKeys.contains(key);
+    }
+    
+    
+    private void addKey(TokenKey key) {
+        keys.computeIfAbsent(key.getProvider(), (String p) -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+    
+    
+    private synchronized void loadKeys() {
+        if(keysLoaded) return;
+        File dir = getDirectory();
+        if(dir.isDirectory()) AtomicFileWriter.deleteTemporaryFiles(dir.toPath(), getFileSuffix(), TokenManifest.FILE_NAME);
+        if(isSharded()) {
+            loadManifest(dir);
+        } else {
+            listFiles(dir).keySet().forEach(this::addKey);
+        }
+        keysLoaded = true;
+    }
+    
+    
+    private void loadManifest(File dir) {
+        try {
+            manifest = new TokenManifest(new File(dir, TokenManifest.FILE_NAME).toPath(), isSync());
+            Set<String> ids = manifest.load();
+            if(ids != null) {
+                for(String id : ids) addKey(TokenKey.parse(id));
+            } else {
+                for(int shard = 0; shard < SHARDS; shard++) {
+                    File shardDir = new File(dir, shardName(shard));
+                    if(shardDir.isDirectory()) {
+                        AtomicFileWriter.deleteTemporaryFiles(shardDir.toPath(), getFileSuffix());
+                        listFiles(shardDir).keySet().forEach(this::addKey);
+                    }
+                }
+            }
+            Map<TokenKey, File> flat = listFiles(dir);
+            flat.keySet().forEach(this::addKey);
+            if(ids == null || !flat.isEmpty()) {
+                if(dir.mkdirs()) createdDirectories.add(dir);
+                manifest.rewrite(getAllIds(), getWriter());
+            }
+            if(!flat.isEmpty()) migrate(flat);
+        } catch(IOException | IllegalArgumentException ex) {
+            throw new TokenRepositoryException("Error loading the token manifest in " + dir, ex);
+        }
+    }
+    
+    
+    private synchronized void reloadManifest() {
+        try {
+            if(manifest == null || !manifest.isChangedOnDisk()) return;
+            Set<String> ids = manifest.load();
+            Set<TokenKey> listed = new HashSet<>(flatFiles.keySet());
+            if(ids != null) ids.forEach((String id) -> listed.add(TokenKey.parse(id)));
+            keys.values().forEach((Set<TokenKey> providerKeys) -> providerKeys.retainAll(listed));
+            listed.forEach(this::addKey);
+        } catch(IOException | IllegalArgumentException ex) {
+            throw new TokenRepositoryException("Error reloading the token manifest in " + getDirectory(), ex);
+        }
+    }
+    
+    
+    private Map<TokenKey, File> listFiles(File dir) {
+        Map<TokenKey, File> found = new HashMap<>();
+        String suffix = getFileSuffix();
+        File[] files = dir.listFiles((File d, String name) -> name.endsWith(suffix) 
+                && !name.equals(TokenManifest.FILE_NAME));
+        if(files != null) {
+            for(File file : files) {
+                if(!file.isFile()) continue;
+                String id = file.getName().substring(0, file.getName().length() - suffix.length());
+                try {
+                    found.put(TokenKey.parse(id), file);
+                } catch(IllegalArgumentException ex) {
+                    LOG.warn("Skipping token file with invalid name " + file);
+                }
+            }
+        }
+        return found;
+    }
+    
+    
+    /**
+     * Moves the files of a flat directory to their shards in the background,
+     * until then they are read from the old place. Closing the repository 
+     * stops the move, the next repository opened on the directory resumes it.
+     */
+    private void migrate(Map<TokenKey, File> flat) {
+        flat.forEach((TokenKey key, File file) -> {
+            // a save that crashed before deleting the flat copy left the newer one in the shard
+            if(locate(key).isFile()) {
+                file.delete();
+            } else {
+                flatFiles.put(key, file);
+            }
+        });
+        migration = new Thread(() -> {
+            int moved = 0;
+            for(TokenKey key : new ArrayList<>(flatFiles.keySet())) {
+                if(Thread.currentThread().isInterrupted()) {
+                    LOG.info("Token files migration stopped after " + moved + " files");
+                    return;
+                }
+                boolean[] done = {false};
+                flatFiles.computeIfPresent(key, (TokenKey k, File file) -> {
+                    try {
+                        Files.move(file.toPath(), getFile(k).toPath(), StandardCopyOption.ATOMIC_MOVE);
+                        done[0] = true;
+                    } catch(FileAlreadyExistsException ex) {
+                        file.delete();
+                    } catch(NoSuchFileException ex) {
+                        // removed in the meantime
+                    } catch(IOException | TokenRepositoryException ex) {
+                        LOG.warn("Unable to move token file " + file + " to its shard", ex);
+                        return file;
+                    }
+                    return null;
+                });
+                if(done[0]) moved++;
+            }
+            LOG.info("Moved " + moved + " token files to the sharded layout");
+        }, "token-files-migration");
+        migration.setDaemon(true);
+        migration.start();
+    }
+    
+    
+    private void appendManifest(TokenKey key, boolean add) {
+        try {
+            if(add) {
+                manifest.add(key.getId());
+            } else {
+                manifest.remove(key.getId());
+            }
+            int live = keys.values().stream().mapToInt(Set::size).sum();
+            if(manifest.needsCompaction(live)) manifest.rewrite(getAllIds(), getWriter());
+        } catch(IOException ex) {
+            throw new TokenRepositoryException("Error writing the token manifest for " + key, ex);
+        }
+    }
+    
+    
+    private List<String> getAllIds() {
+        List<String> ids = new ArrayList<>();
+        keys.values().forEach((Set<TokenKey> providerKeys) -> {
+            providerKeys.forEach((TokenKey key) -> ids.add(key.getId()));
+        });
+        return ids;
+    }
+    
+    
+    private Token read(TokenKey key, File file) {
+        try {
+            Token token = TokenCodecs.decode(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+            LOG.debug("Loaded the token file " + file);
+            return token;
+        } catch (NoSuchFileException ex) {
+            throw new TokenNotFoundException(key, "Token for " + key + " not found", ex);
         } catch (IOException ex) {
             throw new TokenRepositoryException("Error loading token from file " + file, ex);
         } 
     }
     
     
-    private void saveProperties(String provider, Properties properties) {
-        File file = getFile(provider);
-        try(OutputStream out = new FileOutputStream(file)){
-            properties.store(out, provider + " token");
-            LOG.debug("Loaded the token file " + file);
+    private void write(TokenKey key, byte[] data) {
+        File file = getFile(key);
+        try {
+            if(watcher != null) checksums.put(key, checksum(data));
+            getWriter().write(file.toPath(), data);
+            LOG.debug("Saved the token file " + file);
         } catch (IOException ex) {
             throw new TokenRepositoryException("Error saving token file " + file, ex);
         }
     }
     
     
+    private byte[] encode(Token token) {
+        ByteBuffer encoded = getCodec().encode(token);
+        if(encoded.hasArray() && encoded.arrayOffset() == 0 && encoded.position() == 0
+                && encoded.remaining() == encoded.array().length) {
+            return encoded.array();
+        }
+        byte[] data = new byte[encoded.remaining()];
+        encoded.get(data);
+        return data;
+    }
+    
+    
     public String getLocation() {
         if(location == null) {
             location = (environment != null) ? 
@@ -141,15 +562,167 @@ public class FileTokenRepository implements TokenRepository {
     }
     
     
-    private File getFile(String provider) {
-        String loc = getLocation();
-        if(loc.isBlank()) return new File(provider + getFileSuffix());
-        
-        File dir = new File(loc);
-        if(!dir.exists() && !dir.mkdirs()) {
-            throw new TokenRepositoryException("Unable to create a folder " + loc);
+    /**
+     * Whether token files are forced to the disk before a save returns.
+     */
+    public boolean isSync() {
+        if(sync == null) {
+            sync = (environment != null) ? 
+                    environment.getProperty("token.files.sync", Boolean.class, true) 
+                    : true;
+        }
+        return sync;
+    }
+    
+    
+    public void setSync(boolean sync) {
+        this.sync = sync;
+        writer = null;
+    }
+    
+    
+    /**
+     * Whether concurrent saves share their directory syncs, each token file
+     * is still synced on its own. See {@link AtomicFileWriter}.
+     */
+    public boolean isGroupCommit() {
+        if(groupCommit == null) {
+            groupCommit = (environment != null) 
+                    && environment.getProperty("token.files.group-commit", Boolean.class, false);
+        }
+        return groupCommit;
+    }
+    
+    
+    public void setGroupCommit(boolean groupCommit) {
+        this.groupCommit = groupCommit;
+        writer = null;
+    }
+    
+    
+    /**
+     * The codec new token files are written with, files of any known codec
+     * are read. Defaults to {@link TokenCodecs#PROPERTIES} for files readable
+     * by earlier versions.
+     */
+    public TokenCodec getCodec() {
+        if(codec == null) {
+            codec = (environment != null) ? 
+                    TokenCodecs.forName(environment.getProperty("token.files.codec", PropertiesTokenCodec.NAME)) 
+                    : TokenCodecs.PROPERTIES;
+        }
+        return codec;
+    }
+    
+    
+    public void setCodec(TokenCodec codec) {
+        this.codec = codec;
+    }
+    
+    
+    /**
+     * Whether tokens are kept in hash-prefixed subdirectories.
+     */
+    public boolean isSharded() {
+        if(sharded == null) {
+            sharded = (environment != null) ? 
+                    environment.getProperty("token.files.sharded", Boolean.class, false) 
+                    : false;
+        }
+        return sharded;
+    }
+    
+    
+    public void setSharded(boolean sharded) {
+        this.sharded = sharded;
+    }
+    
+    
+    /**
+     * Whether the token directory should be watched for changes of other processes.
+     */
+    public boolean isWatchEnabled() {
+        return (environment != null) && environment.getProperty("token.files.watch", Boolean.class, false);
+    }
+    
+    
+    /**
+     * Milliseconds without file events before the collected changes are reported.
+     */
+    public long getWatchDebounce() {
+        if(watchDebounce == null) {
+            watchDebounce = (environment != null) ? 
+                    environment.getProperty("token.files.watch-debounce", Long.class, DEFAULT_WATCH_DEBOUNCE) 
+                    : DEFAULT_WATCH_DEBOUNCE;
+        }
+        return watchDebounce;
+    }
+    
+    
+    public void setWatchDebounce(long watchDebounce) {
+        this.watchDebounce = watchDebounce;
+    }
+    
+    
+    private AtomicFileWriter getWriter() {
+        AtomicFileWriter w = writer;
+        if(w == null) {
+            synchronized(this) {
+                w = writer;
+                if(w == null) {
+                    w = new AtomicFileWriter(isSync(), isGroupCommit());
+                    writer = w;
+                }
+            }
+        }
+        return w;
+    }
+    
+    
+    private File getFile(TokenKey key) {
+        File file = locate(key);
+        File dir = file.getParentFile();
+        if(!createdDirectories.contains(dir)) {
+            if(!dir.isDirectory() && !dir.mkdirs()) {
+                throw new TokenRepositoryException("Unable to create a folder " + dir);
+            }
+            createdDirectories.add(dir);
+        }
+        return file;
+    }
+    
+    
+    /**
+     * @return the file of the token, without creating its directory
+     */
+    private File locate(TokenKey key) {
+        File dir = getDirectory();
+        if(isSharded()) dir = new File(dir, shardName(key.getId().hashCode() & (SHARDS - 1)));
+        return new File(dir, key.getId() + getFileSuffix());
+    }
+    
+    
+    /**
+     * @return the file a provider-only key was stored in before provider 
+     * names were encoded, or null if the name did not change
+     */
+    private File getLegacyFile(TokenKey key) {
+        String provider = key.getProvider();
+        if(!key.getAccount().isEmpty() || !key.getScopes().isEmpty() || provider.equals(key.getId())) {
+            return null;
         }
-        return new File(dir, provider + getFileSuffix());
+        return new File(getDirectory(), provider + getFileSuffix());
+    }
+    
+    
+    private File getDirectory() {
+        String loc = getLocation();
+        return loc.isBlank() ? new File(".") : new File(loc);
+    }
+    
+    
+    private static String shardName(int shard) {
+        return String.format("%02x", shard);
     }
      
     
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link TokenEndpointClient} on top of the JDK {@link HttpClient}. The
+ * client negotiates HTTP/2 where the endpoint supports it and keeps
+ * connections alive between requests to the same endpoint.
+ *
+ * @author Andrey Kazakov
+ */
+public class HttpClientTokenEndpointClient implements TokenEndpointClient {
+    
+    private static final Log LOG = LogFactory.getLog(HttpClientTokenEndpointClient.class);
+    
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    
+    public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    
+    private final HttpClient httpClient;
+    
+    private final Duration requestTimeout;
+    
+    private final TokenResponseParser parser = new TokenResponseParser();
+    
+    
+    public HttpClientTokenEndpointClient() {
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT, null);
+    }
+    
+    
+    /**
+     * @param connectTimeout timeout of establishing a connection
+     * @param requestTimeout timeout of the whole request
+     * @param executor executor of the client, null for the default one
+     */
+    public HttpClientTokenEndpointClient(Duration connectTimeout, Duration requestTimeout,
+            Executor executor) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(connectTimeout);
+        if(executor != null) builder.executor(executor);
+        this.httpClient = builder.build();
+        this.requestTimeout = requestTimeout;
+    }
+    
+    
+    public HttpClientTokenEndpointClient(HttpClient httpClient, Duration requestTimeout) {
+        this.httpClient = httpClient;
+        this.requestTimeout = requestTimeout;
+    }
+    
+    
+    @Override
+    public Map<String, String> requestToken(String endpoint, Map<String, String> params) {
+        return send(endpoint, params, parser::parse);
+    }
+    
+    
+    @Override
+    public Token requestAccessToken(String endpoint, Map<String, String> params) {
+        return send(endpoint, params, parser::parseToken);
+    }
+    
+    
+    private <T> T send(String endpoint, Map<String, String> params, ResponseReader<T> reader) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(endpoint))
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .header("Accept", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(encodeForm(params)))
+                .build();
+        
+        HttpResponse<InputStream> response;
+        try {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch(IOException ex) {
+            LOG.error("Error requesting token from " + endpoint, ex);
+            throw new TokenEndpointException(0, null, "Error requesting token from " + endpoint, ex);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TokenErrorException(new TokenError(), ex);
+        }
+        
+        try(InputStream body = response.body()) {
+            int status = response.statusCode();
+            if(status != 200 && status != 400) {
+                LOG.error("Response Error: status code " + status);
+                throw new TokenEndpointException(status, 
+                        TokenEndpointException.parseRetryAfter(
+                                response.headers().firstValue("Retry-After").orElse(null)),
+                        "Response Error: status code " + status);
+            }
+            return reader.read(body, response.headers().firstValueAsLong("Content-Length").orElse(-1));
+        } catch(IOException ex) {
+            throw new TokenEndpointException(0, null, "Error reading token response", ex);
+        }
+    }
+    
+    
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+    
+    
+    private interface ResponseReader<T> {
+        
+        T read(InputStream body, long contentLength);
+    }
+    
+    
+    private static String encodeForm(Map<String, String> params) {
+        StringBuilder builder = new StringBuilder();
+        Iterator<Map.Entry<String, String>> iterator = params.entrySet().iterator();
+        while(iterator.hasNext()) {
+            Map.Entry<String, String> entry = iterator.next();
+            builder.append(URLEncoder.encode(entry.getKey(), StandardCharsets.UTF_8));
+            builder.append("=");
+            builder.append(URLEncoder.encode(entry.getValue(), StandardCharsets.UTF_8));
+            if(iterator.hasNext()) builder.append("&");
+        }
+        return builder.toString();
+    }
+    
+}
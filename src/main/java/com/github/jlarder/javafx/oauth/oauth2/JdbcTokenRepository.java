@@ -0,0 +1,433 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Stores tokens in a table of an embedded database such as H2 or SQLite in
+ * file mode. Connections are kept in a small pool, each connection prepares
+ * its statements once and reuses them. Parameters of a token are stored as
+ * a JSON object, the expiry instant has its own indexed column.
+ *
+ * @author Andrey Kazakov
+ */
+public class JdbcTokenRepository extends AbstractTokenRepository {
+
+    private static final Log LOG = LogFactory.getLog(JdbcTokenRepository.class);
+
+    public static final int DEFAULT_POOL_SIZE = 4;
+
+    public static final long DEFAULT_CONNECTION_TIMEOUT = 30000;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final TypeReference<Map<String, String>> PARAMETERS_TYPE =
+            new TypeReference<Map<String, String>>() {};
+
+    private static final String TABLE = "oauth_tokens";
+
+    private static final String SELECT = "SELECT parameters FROM " + TABLE + " WHERE token_id = ?";
+    private static final String SELECT_KEYS = "SELECT token_id FROM " + TABLE + " WHERE provider = ?";
+    private static final String SELECT_EXPIRING =
+            "SELECT token_id FROM " + TABLE + " WHERE expires_at < ? ORDER BY expires_at";
+    private static final String UPDATE =
+            "UPDATE " + TABLE + " SET provider = ?, expires_at = ?, parameters = ? WHERE token_id = ?";
+    private static final String INSERT =
+            "INSERT INTO " + TABLE + " (provider, expires_at, parameters, token_id) VALUES (?, ?, ?, ?)";
+    private static final String DELETE = "DELETE FROM " + TABLE + " WHERE token_id = ?";
+
+    private final String url;
+
+    private final String user;
+
+    private final String password;
+
+    private final String upsert;
+
+    private final BlockingQueue<PooledConnection> pool;
+
+    private final List<PooledConnection> connections = new ArrayList<>();
+
+    private final int poolSize;
+
+    private volatile long connectionTimeout = DEFAULT_CONNECTION_TIMEOUT;
+
+    private volatile boolean closed;
+
+
+    public JdbcTokenRepository(String url) {
+        this(url, null, null, DEFAULT_POOL_SIZE);
+    }
+
+
+    /**
+     * Creates the token table and its indexes if they do not exist.
+     *
+     * @param url JDBC URL of the database, e.g. {@code jdbc:h2:./tokens/tokens}
+     * @param user the database user or null
+     * @param password the password of the user or null
+     * @param poolSize maximum number of open connections
+     */
+    public JdbcTokenRepository(String url, String user, String password, int poolSize) {
+        if(poolSize <= 0) throw new IllegalArgumentException("poolSize must be positive");
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.poolSize = poolSize;
+        this.pool = new ArrayBlockingQueue<>(poolSize);
+        this.upsert = upsertStatement(url);
+        createSchema();
+    }
+
+
+    @Override
+    public void saveToken(TokenKey key, Token token) {
+        Map<TokenKey, Token> tokens = new HashMap<>(1);
+        tokens.put(key, token);
+        saveTokens(tokens);
+    }
+
+
+    /**
+     * Saves the tokens in one transaction with batched statements.
+     */
+    @Override
+    public void saveTokens(Map<TokenKey, Token> tokens) {
+        if(tokens.isEmpty()) return;
+        PooledConnection connection = acquire();
+        try {
+            connection.connection.setAutoCommit(false);
+            try {
+                if(upsert != null) {
+                    PreparedStatement statement = connection.prepare(upsert);
+                    for(Map.Entry<TokenKey, Token> entry : tokens.entrySet()) {
+                        bind(statement, entry.getKey(), entry.getValue());
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                } else {
+                    updateOrInsert(connection, tokens);
+                }
+                connection.connection.commit();
+            } catch(SQLException | RuntimeException ex) {
+                connection.connection.rollback();
+                throw ex;
+            } finally {
+                connection.connection.setAutoCommit(true);
+            }
+        } catch(SQLException ex) {
+            connection.broken = true;
+            throw new TokenRepositoryException("Error saving " + tokens.size() + " tokens to " + url, ex);
+        } finally {
+            release(connection);
+        }
+    }
+
+
+    @Override
+    public Token getToken(TokenKey key) {
+        PooledConnection connection = acquire();
+        try {
+            PreparedStatement statement = connection.prepare(SELECT);
+            statement.setString(1, key.getId());
+            try(ResultSet result = statement.executeQuery()) {
+                if(!result.next()) throw new TokenNotFoundException(key, "Token for " + key + " not found");
+                return Token.fromMap(OBJECT_MAPPER.readValue(result.getString(1), PARAMETERS_TYPE));
+            }
+        } catch(SQLException ex) {
+            connection.broken = true;
+            throw new TokenRepositoryException("Error loading token " + key + " from " + url, ex);
+        } catch(JsonProcessingException ex) {
+            throw new TokenRepositoryException("Invalid token " + key + " in " + url, ex);
+        } finally {
+            release(connection);
+        }
+    }
+
+
+    @Override
+    public void removeToken(TokenKey key) {
+        PooledConnection connection = acquire();
+        try {
+            PreparedStatement statement = connection.prepare(DELETE);
+            statement.setString(1, key.getId());
+            statement.executeUpdate();
+        } catch(SQLException ex) {
+            connection.broken = true;
+            throw new TokenRepositoryException("Error removing token " + key + " from " + url, ex);
+        } finally {
+            release(connection);
+        }
+    }
+
+
+    @Override
+    public Set<TokenKey> getKeys(String provider) {
+        PooledConnection connection = acquire();
+        try {
+            PreparedStatement statement = connection.prepare(SELECT_KEYS);
+            statement.setString(1, provider);
+            return readKeys(statement, new HashSet<>());
+        } catch(SQLException ex) {
+            connection.broken = true;
+            throw new TokenRepositoryException("Error listing tokens of " + provider + " in " + url, ex);
+        } finally {
+            release(connection);
+        }
+    }
+
+
+    /**
+     * @return keys of the tokens expiring before the instant, soonest first
+     */
+    public List<TokenKey> getExpiringBefore(long time) {
+        PooledConnection connection = acquire();
+        try {
+            PreparedStatement statement = connection.prepare(SELECT_EXPIRING);
+            statement.setLong(1, time);
+            return readKeys(statement, new ArrayList<>());
+        } catch(SQLException ex) {
+            connection.broken = true;
+            throw new TokenRepositoryException("Error querying expiring tokens in " + url, ex);
+        } finally {
+            release(connection);
+        }
+    }
+
+
+    public List<TokenKey> getExpiringWithin(long millis) {
+        return getExpiringBefore(System.currentTimeMillis() + millis);
+    }
+
+
+    @Override
+    public void close() {
+        closed = true;
+        synchronized(connections) {
+            connections.forEach(PooledConnection::close);
+            connections.clear();
+        }
+        pool.clear();
+    }
+
+
+    public long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+
+    /**
+     * @param connectionTimeout milliseconds to wait for a free connection
+     */
+    public void setConnectionTimeout(long connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+
+    public String getUrl() {
+        return url;
+    }
+
+
+    private void createSchema() {
+        PooledConnection connection = acquire();
+        try(Statement statement = connection.connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + TABLE + " ("
+                    + "token_id VARCHAR(2048) NOT NULL PRIMARY KEY, "
+                    + "provider VARCHAR(255) NOT NULL, "
+                    + "expires_at BIGINT, "
+                    + "parameters VARCHAR(65536) NOT NULL)");
+            statement.executeUpdate("CREATE INDEX IF NOT EXISTS " + TABLE + "_provider ON " + TABLE + " (provider)");
+            statement.executeUpdate("CREATE INDEX IF NOT EXISTS " + TABLE + "_expires_at ON " + TABLE + " (expires_at)");
+        } catch(SQLException ex) {
+            connection.broken = true;
+            throw new TokenRepositoryException("Error creating token table in " + url, ex);
+        } finally {
+            release(connection);
+        }
+    }
+
+
+    private void updateOrInsert(PooledConnection connection, Map<TokenKey, Token> tokens) throws SQLException {
+        PreparedStatement update = connection.prepare(UPDATE);
+        List<Map.Entry<TokenKey, Token>> entries = new ArrayList<>(tokens.entrySet());
+        for(Map.Entry<TokenKey, Token> entry : entries) {
+            bind(update, entry.getKey(), entry.getValue());
+            update.addBatch();
+        }
+        int[] counts = update.executeBatch();
+
+        PreparedStatement insert = connection.prepare(INSERT);
+        boolean inserts = false;
+        for(int i = 0; i < entries.size(); i++) {
+            if(counts[i] > 0) continue;
+            if(counts[i] == Statement.SUCCESS_NO_INFO) {
+                // the driver did not report whether the row exists, ask again for this one
+                bind(update, entries.get(i).getKey(), entries.get(i).getValue());
+                if(update.executeUpdate() > 0) continue;
+            }
+            bind(insert, entries.get(i).getKey(), entries.get(i).getValue());
+            insert.addBatch();
+            inserts = true;
+        }
+        if(inserts) insert.executeBatch();
+    }
+
+
+    private void bind(PreparedStatement statement, TokenKey key, Token token) throws SQLException {
+        statement.setString(1, key.getProvider());
+        Long expirationTime = token.getExpirationTime();
+        if(expirationTime != null) {
+            statement.setLong(2, expirationTime);
+        } else {
+            statement.setNull(2, Types.BIGINT);
+        }
+        try {
+            statement.setString(3, OBJECT_MAPPER.writeValueAsString(token.getAll()));
+        } catch(JsonProcessingException ex) {
+            throw new TokenRepositoryException("Error serializing token " + key, ex);
+        }
+        statement.setString(4, key.getId());
+    }
+
+
+    private <C extends Collection<TokenKey>> C readKeys(PreparedStatement statement, C keys)
+            throws SQLException {
+        try(ResultSet result = statement.executeQuery()) {
+            while(result.next()) {
+                try {
+                    keys.add(TokenKey.parse(result.getString(1)));
+                } catch(IllegalArgumentException ex) {
+                    LOG.warn("Skipping token with invalid id " + result.getString(1));
+                }
+            }
+        }
+        return keys;
+    }
+
+
+    private PooledConnection acquire() {
+        if(closed) throw new TokenRepositoryException("Repository " + url + " is closed");
+        PooledConnection connection = pool.poll();
+        if(connection == null) {
+            synchronized(connections) {
+                if(connections.size() < poolSize) {
+                    connection = open();
+                    connections.add(connection);
+                }
+            }
+        }
+        try {
+            if(connection == null) connection = pool.poll(connectionTimeout, TimeUnit.MILLISECONDS);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if(connection == null) {
+            throw new TokenRepositoryException("No free connection to " + url + " in " + connectionTimeout + " ms");
+        }
+        return connection;
+    }
+
+
+    private void release(PooledConnection connection) {
+        if(connection.broken || closed) {
+            synchronized(connections) {
+                connections.remove(connection);
+            }
+            connection.close();
+        } else {
+            pool.offer(connection);
+        }
+    }
+
+
+    private PooledConnection open() {
+        try {
+            return new PooledConnection(DriverManager.getConnection(url, user, password));
+        } catch(SQLException ex) {
+            throw new TokenRepositoryException("Error connecting to " + url, ex);
+        }
+    }
+
+
+    /**
+     * @return a single statement inserting or replacing a row for the known
+     *         embedded databases, otherwise null
+     */
+    private static String upsertStatement(String url) {
+        if(url.startsWith("jdbc:h2:")) {
+            return "MERGE INTO " + TABLE + " (provider, expires_at, parameters, token_id) KEY (token_id) VALUES (?, ?, ?, ?)";
+        }
+        if(url.startsWith("jdbc:sqlite:")) {
+            return "INSERT OR REPLACE INTO " + TABLE + " (provider, expires_at, parameters, token_id) VALUES (?, ?, ?, ?)";
+        }
+        return null;
+    }
+
+
+    private static final class PooledConnection {
+
+        private final Connection connection;
+
+        private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+        private boolean broken;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        private PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if(statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            }
+            return statement;
+        }
+
+        private void close() {
+            try {
+                connection.close();
+            } catch(SQLException ex) {
+                LOG.warn("Error closing connection", ex);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Codec writing a token as a JSON object. The first member {@code "v"}
+ * holds the format version, {@code expires_in} and
+ * {@code creation_timestamp} are numbers and the other standard parameters
+ * strings. Provider specific parameters are kept in the nested object
+ * {@code "extras"}, so their names can not collide with the standard ones;
+ * version 1 tokens with the parameters next to the standard ones are read
+ * as well.
+ *
+ * @author Andrey Kazakov
+ */
+public class JsonTokenCodec implements TokenCodec {
+    
+    public static final String NAME = "json";
+    
+    private static final String VERSION_FIELD = "v";
+    
+    private static final String EXTRAS_FIELD = "extras";
+    
+    private static final int VERSION = 2;
+    
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    
+    
+    @Override
+    public String getName() {
+        return NAME;
+    }
+    
+    
+    @Override
+    public ByteBuffer encode(Token token) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try(JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeNumberField(VERSION_FIELD, VERSION);
+            generator.writeStringField(Token.ACCESS_TOKEN, token.getAccessToken());
+            if(token.getRefreshToken() != null) generator.writeStringField(Token.REFRESH_TOKEN, token.getRefreshToken());
+            if(token.getScope() != null) generator.writeStringField(Token.SCOPE, token.getScope());
+            if(token.getExpiresIn() != null) generator.writeNumberField(Token.EXPIRES_IN, token.getExpiresIn());
+            if(token.getCreationTimestamp() != null) {
+                generator.writeNumberField(Token.CREATION_TIMESTAMP, token.getCreationTimestamp());
+            }
+            if(!token.getExtras().isEmpty()) {
+                generator.writeObjectFieldStart(EXTRAS_FIELD);
+                for(Map.Entry<String, String> extra : token.getExtras().entrySet()) {
+                    generator.writeStringField(extra.getKey(), extra.getValue());
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+        } catch(IOException ex) {
+            throw new TokenRepositoryException("Error encoding token as JSON", ex);
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+    
+    
+    @Override
+    public Token decode(ByteBuffer data) {
+        byte[] bytes;
+        int offset;
+        int length = data.remaining();
+        if(data.hasArray()) {
+            bytes = data.array();
+            offset = data.arrayOffset() + data.position();
+        } else {
+            bytes = new byte[length];
+            data.duplicate().get(bytes);
+            offset = 0;
+        }
+        try(JsonParser parser = JSON_FACTORY.createParser(bytes, offset, length)) {
+            if(parser.nextToken() != JsonToken.START_OBJECT) throw new TokenRepositoryException("Not a JSON token");
+            Token.Builder builder = new Token.Builder(null);
+            boolean versioned = false;
+            while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if(VERSION_FIELD.equals(name)) {
+                    int version = parser.getValueAsInt();
+                    if(version < 1 || version > VERSION) {
+                        throw new TokenRepositoryException("Unsupported JSON token version " + parser.getText());
+                    }
+                    versioned = true;
+                } else if(EXTRAS_FIELD.equals(name) && value == JsonToken.START_OBJECT) {
+                    readExtras(parser, builder);
+                } else if(value.isStructStart()) {
+                    parser.skipChildren();
+                } else if(value != JsonToken.VALUE_NULL) {
+                    builder.parameter(name, parser.getText());
+                }
+            }
+            if(!versioned) throw new TokenRepositoryException("JSON token has no version");
+            data.position(data.limit());
+            return builder.build();
+        } catch(IOException | IllegalArgumentException ex) {
+            throw new TokenRepositoryException("Corrupt JSON token", ex);
+        }
+    }
+    
+    
+    private static void readExtras(JsonParser parser, Token.Builder builder) throws IOException {
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if(value.isStructStart()) {
+                parser.skipChildren();
+            } else if(value != JsonToken.VALUE_NULL) {
+                builder.parameter(name, parser.getText());
+            }
+        }
+    }
+    
+    
+    @Override
+    public boolean canDecode(ByteBuffer data) {
+        for(int i = data.position(); i < data.limit(); i++) {
+            byte b = data.get(i);
+            if(b == '{') return true;
+            if(b != ' ' && b != '\t' && b != '\r' && b != '\n') return false;
+        }
+        return false;
+    }
+    
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps all tokens in one append-only file. Every save or removal appends a
+ * CRC-checked record, an in-memory index maps each key to the offset of its
+ * latest record. On open the log is replayed, a corrupt record is skipped up
+ * to the next valid one and only a torn record at its end is cut off. A 
+ * {@code .lock} file next to the log keeps a second process or repository
+ * from opening it. Once the share of superseded records exceeds the garbage ratio
+ * the log is rewritten in the background with only the live records.
+ * <p>
+ * Record layout: payload length (int), CRC32 of type and payload (int),
+ * type (byte), payload. The payload of a save is the token in the
+ * {@link TokenBinaryFormat}, a removal only has the key id.
+ *
+ * @author Andrey Kazakov
+ */
+public class LogStructuredTokenRepository extends AbstractTokenRepository {
+    
+    private static final Log LOG = LogFactory.getLog(LogStructuredTokenRepository.class);
+    
+    public static final double DEFAULT_GARBAGE_RATIO = 0.5;
+    
+    public static final long DEFAULT_MIN_COMPACTION_SIZE = 1024 * 1024;
+    
+    private static final int HEADER_SIZE = 9;
+    
+    private static final byte SAVE = 1;
+    private static final byte REMOVE = 2;
+    
+    private final Path file;
+    
+    private final Map<TokenKey, Location> index = new ConcurrentHashMap<>();
+    
+    private final Map<String, Set<TokenKey>> keys = new ConcurrentHashMap<>();
+    
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    
+    private final ExecutorService compactor;
+    
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+    
+    private final FileChannel lockChannel;
+    
+    private FileChannel channel;
+    
+    private long size;
+    
+    private long garbage;
+    
+    private volatile double garbageRatio = DEFAULT_GARBAGE_RATIO;
+    
+    private volatile long minCompactionSize = DEFAULT_MIN_COMPACTION_SIZE;
+    
+    private volatile boolean sync;
+    
+    
+    public LogStructuredTokenRepository(Path file) {
+        this.file = file;
+        try {
+            if(file.getParent() != null) Files.createDirectories(file.getParent());
+            lockChannel = AtomicFileWriter.lockExclusively(file.resolveSibling(file.getFileName() + ".lock"));
+        } catch(IOException ex) {
+            throw new TokenRepositoryException("Error locking token log " + file, ex);
+        }
+        try {
+            channel = open(file);
+            recover();
+        } catch(IOException ex) {
+            closeQuietly(lockChannel);
+            if(channel != null) closeQuietly(channel);
+            throw new TokenRepositoryException("Error opening token log " + file, ex);
+        }
+        compactor = Executors.newSingleThreadExecutor((Runnable r) -> {
+            Thread thread = new Thread(r, "token-log-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    
+    @Override
+    public void saveToken(TokenKey key, Token token) {
+        append(SAVE, key, TokenBinaryFormat.encodeToken(key, token));
+    }
+    
+    
+    @Override
+    public Token getToken(TokenKey key) {
+        lock.readLock().lock();
+        try {
+            Location location = index.get(key);
+            if(location == null) {
+                throw new TokenNotFoundException(key, "Token for " + key + " not found");
+            }
+            ByteBuffer record = ByteBuffer.allocate(location.length);
+            readFully(record, location.offset);
+            record.flip();
+            record.position(HEADER_SIZE);
+            return TokenBinaryFormat.decodeToken(record);
+        } catch(IOException ex) {
+            throw new TokenRepositoryException("Error reading token " + key + " from " + file, ex);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    
+    @Override
+    public void removeToken(TokenKey key) {
+        append(REMOVE, key, TokenBinaryFormat.encodeString(key.getId()));
+    }
+    
+    
+    @Override
+    public Set<TokenKey> getKeys(String provider) {
+        Set<TokenKey> providerKeys = keys.get(provider);
+        return providerKeys != null ? new HashSet<>(providerKeys) : new HashSet<>();
+    }
+    
+    
+    /**
+     * Rewrites the log with the live records only.
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+            Map<TokenKey, Location> newIndex = new HashMap<>();
+            FileChannel out = open(compacted);
+            try {
+                out.truncate(0);
+                long position = 0;
+                for(Map.Entry<TokenKey, Location> entry : index.entrySet()) {
+                    Location location = entry.getValue();
+                    ByteBuffer record = ByteBuffer.allocate(location.length);
+                    readFully(record, location.offset);
+                    record.flip();
+                    while(record.hasRemaining()) out.write(record);
+                    newIndex.put(entry.getKey(), new Location(position, location.length));
+                    position += location.length;
+                }
+                out.force(true);
+                // the channel follows the file through the rename, the old log stays usable until then
+                Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch(IOException | RuntimeException ex) {
+                closeQuietly(out);
+                try {
+                    Files.deleteIfExists(compacted);
+                } catch(IOException e) {
+                    ex.addSuppressed(e);
+                }
+                throw ex;
+            }
+            AtomicFileWriter.syncDirectory(file.toAbsolutePath().getParent());
+            closeQuietly(channel);
+            channel = out;
+            index.clear();
+            index.putAll(newIndex);
+            LOG.debug("Token log " + file + " compacted from " + size + " to " + channel.size() + " bytes");
+            size = channel.size();
+            garbage = 0;
+        } catch(IOException ex) {
+            throw new TokenRepositoryException("Error compacting token log " + file, ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    
+    @Override
+    public void close() {
+        compactor.shutdown();
+        lock.writeLock().lock();
+        try {
+            if(!channel.isOpen()) return;
+            channel.force(true);
+            channel.close();
+        } catch(IOException ex) {
+            LOG.error("Error closing token log " + file, ex);
+        } finally {
+            closeQuietly(lockChannel);
+            lock.writeLock().unlock();
+        }
+    }
+    
+    
+    public Path getFile() {
+        return file;
+    }
+    
+    
+    public double getGarbageRatio() {
+        return garbageRatio;
+    }
+    
+    
+    /**
+     * Sets the share of superseded bytes that triggers a compaction.
+     */
+    public void setGarbageRatio(double garbageRatio) {
+        if(garbageRatio <= 0 || garbageRatio >= 1) throw new IllegalArgumentException("garbageRatio must be in (0, 1)");
+        this.garbageRatio = garbageRatio;
+    }
+    
+    
+    public long getMinCompactionSize() {
+        return minCompactionSize;
+    }
+    
+    
+    /**
+     * Sets the log size in bytes below which the log is never compacted.
+     */
+    public void setMinCompactionSize(long minCompactionSize) {
+        this.minCompactionSize = minCompactionSize;
+    }
+    
+    
+    public boolean isSync() {
+        return sync;
+    }
+    
+    
+    /**
+     * If set, every write is forced to the disk before it returns.
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+    
+    
+    private void append(byte type, TokenKey key, byte[] payload) {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length);
+        record.putInt(crc(type, payload));
+        record.put(type);
+        record.put(payload);
+        record.flip();
+        
+        lock.writeLock().lock();
+        try {
+            if(type == REMOVE && !index.containsKey(key)) return;
+            long offset = size;
+            while(record.hasRemaining()) channel.write(record, offset + record.position());
+            if(sync) channel.force(false);
+            size += record.capacity();
+            
+            Location previous = (type == SAVE) ? 
+                    index.put(key, new Location(offset, record.capacity())) : index.remove(key);
+            if(previous != null) garbage += previous.length;
+            if(type == REMOVE) garbage += record.capacity();
+            updateKeys(type, key);
+        } catch(IOException ex) {
+            throw new TokenRepositoryException("Error writing token " + key + " to " + file, ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        maybeCompact();
+    }
+    
+    
+    private void maybeCompact() {
+        lock.readLock().lock();
+        try {
+            if(size < minCompactionSize || garbage < size * garbageRatio) return;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if(compactionScheduled.compareAndSet(false, true)) {
+            compactor.execute(() -> {
+                try {
+                    compact();
+                } catch(TokenRepositoryException ex) {
+                    LOG.error(ex.getMessage(), ex);
+                } finally {
+                    compactionScheduled.set(false);
+                }
+            });
+        }
+    }
+    
+    
+    private void recover() throws IOException {
+        long fileSize = channel.size();
+        long position = 0;
+        long skipped = 0;
+        while(position + HEADER_SIZE <= fileSize) {
+            int recordLength = replay(position, fileSize);
+            if(recordLength > 0) {
+                position += recordLength;
+                continue;
+            }
+            long next = findRecord(position + 1, fileSize);
+            if(next < 0) break;
+            LOG.warn("Token log " + file + " has a corrupt record at " + position 
+                    + ", skipping " + (next - position) + " bytes");
+            garbage += next - position;
+            skipped += next - position;
+            position = next;
+        }
+        if(position < fileSize) {
+            LOG.warn("Token log " + file + " has a torn record at " + position
+                    + ", truncating " + (fileSize - position) + " bytes");
+            channel.truncate(position);
+            channel.force(true);
+        }
+        if(skipped > 0) LOG.warn("Skipped " + skipped + " corrupt bytes of token log " + file);
+        size = position;
+    }
+    
+    
+    /**
+     * Applies the record at the position to the index.
+     *
+     * @return the length of the record or -1 if it is torn or corrupt
+     */
+    private int replay(long position, long fileSize) throws IOException {
+        ByteBuffer payload = readRecord(position, fileSize);
+        if(payload == null) return -1;
+        byte type = payload.get();
+        TokenKey key;
+        try {
+            key = TokenKey.parse(TokenBinaryFormat.decodeString(payload));
+        } catch(RuntimeException ex) {
+            return -1;
+        }
+        int recordLength = HEADER_SIZE + payload.limit() - 1;
+        Location previous = (type == SAVE) ? 
+                index.put(key, new Location(position, recordLength)) : index.remove(key);
+        if(previous != null) garbage += previous.length;
+        if(type == REMOVE) garbage += recordLength;
+        updateKeys(type, key);
+        return recordLength;
+    }
+    
+    
+    /**
+     * @return the position of the first record with a valid CRC at or 
+     * after the start, or -1 if there is none
+     */
+    private long findRecord(long start, long fileSize) throws IOException {
+        for(long position = start; position + HEADER_SIZE <= fileSize; position++) {
+            if(readRecord(position, fileSize) != null) return position;
+        }
+        return -1;
+    }
+    
+    
+    /**
+     * @return the type followed by the payload of a record with a valid 
+     * CRC at the position, or null
+     */
+    private ByteBuffer readRecord(long position, long fileSize) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, position);
+        header.flip();
+        int length = header.getInt();
+        int crc = header.getInt();
+        byte type = header.get();
+        if(length < 0 || (type != SAVE && type != REMOVE) || position + HEADER_SIZE + length > fileSize) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(payload, position + HEADER_SIZE);
+        if(crc(type, payload.array()) != crc) return null;
+        ByteBuffer record = ByteBuffer.allocate(1 + length);
+        record.put(type).put(payload.array()).flip();
+        return record;
+    }
+    
+    
+    private void updateKeys(byte type, TokenKey key) {
+        if(type == SAVE) {
+            keys.computeIfAbsent(key.getProvider(), (String p) -> ConcurrentHashMap.newKeySet()).add(key);
+        } else {
+            Set<TokenKey> providerKeys = keys.get(key.getProvider());
+            if(providerKeys != null) providerKeys.remove(key);
+        }
+    }
+    
+    
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if(n < 0) throw new IOException("Unexpected end of token log " + file);
+        }
+    }
+    
+    
+    private void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch(IOException ex) {
+            LOG.warn("Error closing token log channel of " + file, ex);
+        }
+    }
+    
+    
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+    
+    
+    private static int crc(byte type, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+    
+    
+    private static final class Location {
+        
+        private final long offset;
+        
+        private final int length;
+        
+        private Location(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+    
+}
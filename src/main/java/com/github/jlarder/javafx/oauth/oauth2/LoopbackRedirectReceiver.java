@@ -0,0 +1,512 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javafx.application.HostServices;
+import javafx.application.Platform;
+import javafx.event.EventHandler;
+import javafx.event.EventType;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Receives authorization redirects on a loopback HTTP listener while the
+ * authorization page is shown in the user's browser, an alternative to the
+ * embedded web view. Any number of authorizations may be pending, a redirect
+ * is matched to its authorization by the state parameter, or by the path
+ * of the redirect URI if the state is not used. The listener is started on
+ * demand and stopped when nothing has been pending for the idle timeout.
+ * A connection which does not complete its request within the connection
+ * timeout is closed. The results are passed to the event handler on the
+ * JavaFX Application Thread as {@link ReceiverEvent}s.
+ *
+ * @author Andrey Kazakov
+ */
+public class LoopbackRedirectReceiver implements AutoCloseable {
+
+    private static final Log LOG = LogFactory.getLog(LoopbackRedirectReceiver.class);
+
+    public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+    public static final long DEFAULT_AUTHORIZATION_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
+    public static final long DEFAULT_CONNECTION_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    private static final String LOOPBACK_ADDRESS = "127.0.0.1";
+
+    private static final int MAX_REQUEST_SIZE = 8192;
+
+    private static final long SELECT_TIMEOUT = 1000;
+
+    private static final String COMPLETED_PAGE = "<html><body>Authentication completed, "
+            + "you can close this window.</body></html>";
+
+    private static final String UNKNOWN_PAGE = "<html><body>Unknown or expired authentication."
+            + "</body></html>";
+
+    /** Sends parameters of an implicit grant, which come in the fragment, back as a query. */
+    private static final String FRAGMENT_PAGE = "<html><body><script>"
+            + "if(location.hash.length > 1) location.replace(location.pathname + '?' + location.hash.substring(1));"
+            + "</script></body></html>";
+
+    private final Consumer<String> browser;
+
+    private final long idleTimeout;
+
+    private final long authorizationTimeout;
+
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+
+    private volatile EventHandler<ReceiverEvent> eventHandler;
+
+    private volatile long connectionTimeout = DEFAULT_CONNECTION_TIMEOUT;
+
+    private volatile long lastActivity;
+
+    private int port;
+
+    private Selector selector;
+
+    private ServerSocketChannel server;
+
+
+    public LoopbackRedirectReceiver(HostServices hostServices) {
+        this(hostServices::showDocument, 0, DEFAULT_IDLE_TIMEOUT, DEFAULT_AUTHORIZATION_TIMEOUT);
+    }
+
+
+    /**
+     * @param browser opens authorization pages, usually {@link HostServices#showDocument(String)}
+     * @param port the port to listen on, 0 for an ephemeral one which is kept after idle stops
+     * @param idleTimeout milliseconds without pending authorizations before the listener stops
+     * @param authorizationTimeout milliseconds after which a pending authorization fails
+     */
+    public LoopbackRedirectReceiver(Consumer<String> browser, int port, long idleTimeout,
+            long authorizationTimeout) {
+        if(browser == null) throw new IllegalArgumentException("browser is null");
+        if(port < 0 || port > 0xffff) throw new IllegalArgumentException("invalid port " + port);
+        this.browser = browser;
+        this.port = port;
+        this.idleTimeout = Math.max(idleTimeout, 0);
+        this.authorizationTimeout = authorizationTimeout > 0 ? authorizationTimeout : DEFAULT_AUTHORIZATION_TIMEOUT;
+    }
+
+
+    /**
+     * Starts the listener if it is not running.
+     *
+     * @return the port the listener is bound to
+     */
+    public synchronized int start() throws IOException {
+        if(server != null) return port;
+        Selector newSelector = Selector.open();
+        ServerSocketChannel newServer = ServerSocketChannel.open();
+        try {
+            newServer.bind(new InetSocketAddress(InetAddress.getByName(LOOPBACK_ADDRESS), port));
+            newServer.configureBlocking(false);
+            newServer.register(newSelector, SelectionKey.OP_ACCEPT);
+        } catch(IOException ex) {
+            newServer.close();
+            newSelector.close();
+            throw ex;
+        }
+        selector = newSelector;
+        server = newServer;
+        port = newServer.socket().getLocalPort();
+        lastActivity = System.currentTimeMillis();
+
+        Thread thread = new Thread(() -> run(newSelector, newServer), "oauth2-loopback-receiver");
+        thread.setDaemon(true);
+        thread.start();
+        LOG.debug("Loopback redirect receiver listens on port " + port);
+        return port;
+    }
+
+
+    /**
+     * Starts the listener if needed, so that the port is known when the
+     * properties are built.
+     *
+     * @return the redirect URI with the given path, which has to start with a slash
+     */
+    public String getRedirectUri(String path) throws IOException {
+        return "http://" + LOOPBACK_ADDRESS + ":" + start() + path;
+    }
+
+
+    /**
+     * Opens the authorization page in the browser and waits for the redirect.
+     * The redirect URI of the properties must point to this listener.
+     */
+    public void authorize(TokenKey key, OAuth2Properties props, TokenHandler tokenHandler) {
+        URI redirectUri = URI.create(props.getRedirectUri());
+        String id = props.isUseState() ? "state:" + props.getState() : "path:" + pathOf(redirectUri);
+        Pending previous;
+        synchronized(this) {
+            try {
+                start();
+            } catch(IOException ex) {
+                LOG.error("Error starting the loopback redirect receiver", ex);
+                fireReceivedEvent(ReceiverEvent.ERROR_RECEIVED_EVENT_TYPE, null,
+                        new Pending(key, props, tokenHandler, 0));
+                return;
+            }
+            if(redirectUri.getPort() != port) {
+                throw new IllegalArgumentException("Redirect URI " + redirectUri
+                        + " does not point to port " + port);
+            }
+            previous = pending.put(id, new Pending(key, props, tokenHandler,
+                    System.currentTimeMillis() + authorizationTimeout));
+            lastActivity = System.currentTimeMillis();
+        }
+        if(previous != null) {
+            LOG.warn("Authentication " + previous.key + " replaced by " + key);
+            fireReceivedEvent(ReceiverEvent.ERROR_RECEIVED_EVENT_TYPE, null, previous);
+        }
+        String request = props.getAuthorizationRequestUrl();
+        LOG.debug("opening authorization page in the browser ..." + request);
+        browser.accept(request);
+    }
+
+
+    public void setEventHandler(EventHandler<ReceiverEvent> eventHandler) {
+        this.eventHandler = eventHandler;
+    }
+
+
+    public EventHandler<ReceiverEvent> getEventHandler() {
+        return eventHandler;
+    }
+
+
+    /**
+     * @param connectionTimeout milliseconds a connection may take to send its
+     * request and read the response before it is closed
+     */
+    public void setConnectionTimeout(long connectionTimeout) {
+        this.connectionTimeout = connectionTimeout > 0 ? connectionTimeout : DEFAULT_CONNECTION_TIMEOUT;
+    }
+
+
+    public long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+
+    public synchronized boolean isRunning() {
+        return server != null;
+    }
+
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+
+    /**
+     * Stops the listener, pending authorizations fail.
+     */
+    @Override
+    public void close() {
+        synchronized(this) {
+            stop();
+        }
+        List<Pending> failed = new ArrayList<>(pending.values());
+        pending.clear();
+        failed.forEach((Pending p) -> fireReceivedEvent(ReceiverEvent.ERROR_RECEIVED_EVENT_TYPE, null, p));
+    }
+
+
+    private void run(Selector selector, ServerSocketChannel server) {
+        try {
+            while(selector.isOpen()) {
+                selector.select(SELECT_TIMEOUT);
+                if(!selector.isOpen()) break;
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if(!key.isValid()) continue;
+                        if(key.isAcceptable()) {
+                            accept(selector, server);
+                        } else if(key.isReadable()) {
+                            read(key);
+                        } else if(key.isWritable()) {
+                            write(key);
+                        }
+                    } catch(IOException ex) {
+                        LOG.debug("Error handling loopback connection", ex);
+                        key.channel().close();
+                    }
+                }
+                long now = System.currentTimeMillis();
+                expirePending(now);
+                closeStaleConnections(selector, now);
+                if(stopIfIdle(selector, now)) return;
+            }
+        } catch(ClosedSelectorException ex) {
+            // closed by close()
+        } catch(IOException ex) {
+            LOG.error("Loopback redirect receiver failed", ex);
+            synchronized(this) {
+                if(this.selector == selector) stop();
+            }
+        }
+    }
+
+
+    private void accept(Selector selector, ServerSocketChannel server) throws IOException {
+        SocketChannel channel = server.accept();
+        if(channel == null) return;
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, new Connection(System.currentTimeMillis() + connectionTimeout));
+    }
+
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        if(channel.read(connection.request) < 0) {
+            channel.close();
+            return;
+        }
+        if(!connection.isRequestComplete()) return;
+        connection.response = ByteBuffer.wrap(handle(connection.getRequestLine()));
+        key.interestOps(SelectionKey.OP_WRITE);
+    }
+
+
+    private void write(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        channel.write(connection.response);
+        if(!connection.response.hasRemaining()) channel.close();
+    }
+
+
+    private byte[] handle(String requestLine) {
+        String[] parts = requestLine.split(" ");
+        if(parts.length < 2 || !"GET".equals(parts[0])) return response(405, "Method Not Allowed", "");
+
+        String target = parts[1];
+        int queryStart = target.indexOf('?');
+        String path = queryStart < 0 ? target : target.substring(0, queryStart);
+        String query = queryStart < 0 ? "" : target.substring(queryStart + 1);
+        if(query.isEmpty()) return response(200, "OK", FRAGMENT_PAGE);
+
+        Map<String, String> params = parseQuery(query);
+        String state = params.remove("state");
+        Pending p = pending.remove(state != null ? "state:" + state : "path:" + path);
+        if(p == null) {
+            LOG.warn("Redirect to " + path + " does not match any pending authentication");
+            return response(400, "Bad Request", UNKNOWN_PAGE);
+        }
+        lastActivity = System.currentTimeMillis();
+
+        if(params.containsKey("access_token")) {
+            LOG.debug("a token was received");
+            fireReceivedEvent(ReceiverEvent.TOKEN_RECEIVED_EVENT_TYPE, params, p);
+        } else if(params.containsKey("code")) {
+            LOG.debug("a code was received");
+            fireReceivedEvent(ReceiverEvent.CODE_RECEIVED_EVENT_TYPE, params, p);
+        } else if(params.containsKey("error")) {
+            LOG.debug("an error was received " + params);
+            fireReceivedEvent(ReceiverEvent.ERROR_RECEIVED_EVENT_TYPE, params, p);
+        } else {
+            LOG.error("Unknown data" + target);
+            fireReceivedEvent(ReceiverEvent.ERROR_RECEIVED_EVENT_TYPE, null, p);
+        }
+        return response(200, "OK", COMPLETED_PAGE);
+    }
+
+
+    private void expirePending(long now) {
+        pending.forEach((String id, Pending p) -> {
+            if(p.deadline < now && pending.remove(id, p)) {
+                LOG.warn("Authentication " + p.key + " timed out");
+                fireReceivedEvent(ReceiverEvent.ERROR_RECEIVED_EVENT_TYPE, null, p);
+            }
+        });
+    }
+
+
+    /**
+     * Closes the connections past their deadline, a client which connects
+     * and never sends a request would keep the listener from stopping.
+     */
+    private void closeStaleConnections(Selector selector, long now) {
+        for(SelectionKey key : selector.keys()) {
+            Connection connection = (Connection) key.attachment();
+            if(connection == null || connection.deadline >= now) continue;
+            LOG.debug("Closing a loopback connection which timed out");
+            try {
+                key.channel().close();
+            } catch(IOException ex) {
+                LOG.debug("Error closing loopback connection", ex);
+            }
+        }
+    }
+
+
+    private synchronized boolean stopIfIdle(Selector selector, long now) {
+        if(this.selector != selector) return true;
+        if(!pending.isEmpty() || now - lastActivity < idleTimeout) return false;
+        if(selector.keys().size() > 1) return false;
+        LOG.debug("Loopback redirect receiver stopped after being idle");
+        stop();
+        return true;
+    }
+
+
+    private void stop() {
+        if(server == null) return;
+        try {
+            server.close();
+        } catch(IOException ex) {
+            LOG.debug("Error closing loopback listener", ex);
+        }
+        try {
+            for(SelectionKey key : selector.keys()) key.channel().close();
+            selector.close();
+        } catch(IOException ex) {
+            LOG.debug("Error closing loopback selector", ex);
+        }
+        server = null;
+        selector = null;
+    }
+
+
+    private void fireReceivedEvent(EventType<ReceiverEvent> type, Map<String, String> params, Pending p) {
+        ReceiverEvent event = new ReceiverEvent(type, params, p.key, p.props, p.tokenHandler);
+        Platform.runLater(() -> {
+            EventHandler<ReceiverEvent> handler = eventHandler;
+            if(handler != null) {
+                handler.handle(event);
+            } else {
+                LOG.warn("No handler of " + type + " of " + p.key);
+            }
+        });
+    }
+
+
+    private static String pathOf(URI uri) {
+        String path = uri.getRawPath();
+        return (path == null || path.isEmpty()) ? "/" : path;
+    }
+
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        for(String p : query.split("&")) {
+            String[] kv = p.split("=");
+            if(kv.length == 2 && !kv[0].isEmpty()) {
+                params.put(URLDecoder.decode(kv[0], StandardCharsets.UTF_8),
+                        URLDecoder.decode(kv[1], StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+
+    private static byte[] response(int status, String reason, String body) {
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + status + " " + reason + "\r\n"
+                + "Content-Type: text/html; charset=utf-8\r\n"
+                + "Content-Length: " + content.length + "\r\n"
+                + "Cache-Control: no-store\r\n"
+                + "Connection: close\r\n\r\n";
+        byte[] headBytes = head.getBytes(StandardCharsets.US_ASCII);
+        byte[] result = new byte[headBytes.length + content.length];
+        System.arraycopy(headBytes, 0, result, 0, headBytes.length);
+        System.arraycopy(content, 0, result, headBytes.length, content.length);
+        return result;
+    }
+
+
+    private static final class Pending {
+
+        private final TokenKey key;
+
+        private final OAuth2Properties props;
+
+        private final TokenHandler tokenHandler;
+
+        private final long deadline;
+
+        private Pending(TokenKey key, OAuth2Properties props, TokenHandler tokenHandler, long deadline) {
+            this.key = key;
+            this.props = props;
+            this.tokenHandler = tokenHandler;
+            this.deadline = deadline;
+        }
+    }
+
+
+    private static final class Connection {
+
+        private final ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_SIZE);
+
+        private final long deadline;
+
+        private ByteBuffer response;
+
+        private Connection(long deadline) {
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return true once the headers are read or the buffer is full
+         */
+        private boolean isRequestComplete() {
+            if(!request.hasRemaining()) return true;
+            byte[] bytes = request.array();
+            for(int i = 3; i < request.position(); i++) {
+                if(bytes[i - 3] == '\r' && bytes[i - 2] == '\n' && bytes[i - 1] == '\r' && bytes[i] == '\n') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private String getRequestLine() {
+            String head = new String(request.array(), 0, request.position(), StandardCharsets.ISO_8859_1);
+            int end = head.indexOf("\r\n");
+            return end < 0 ? head : head.substring(0, end);
+        }
+    }
+
+}
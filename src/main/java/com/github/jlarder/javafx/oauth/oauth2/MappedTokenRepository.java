@@ -0,0 +1,578 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps tokens in a memory-mapped table of fixed-size slots. Opening maps
+ * the file once and builds the index by scanning the slots in memory, reads
+ * decode tokens straight from the mapping. Tokens not fitting a slot are
+ * stored in an overflow region after the table, their slot only refers to
+ * it.
+ * <p>
+ * A save writes a new slot with the next sequence number and then clears
+ * the previous slot of the key, so a torn write fails its CRC and the old
+ * slot is kept. When the table is full or the overflow region holds more
+ * superseded than live bytes the file is rebuilt and atomically replaced.
+ * <p>
+ * Only one repository may use a table at a time, it holds an exclusive lock
+ * on a {@code .lock} file next to the table while open. Other processes
+ * fail to open it instead of writing through a stale mapping.
+ * <p>
+ * File layout: a 64 byte header with magic, version, slot size and slot
+ * count, the slots, the overflow region. Slot layout: payload length (int,
+ * 0 for a free slot), CRC32 of the rest (int), sequence (long), type (byte),
+ * payload. An inline payload is the token in the {@link TokenBinaryFormat},
+ * an overflow payload is the key id, offset (long) and length (int) of an
+ * overflow record. Overflow record: length (int), CRC32 (int), the token.
+ *
+ * @author Andrey Kazakov
+ */
+public class MappedTokenRepository extends AbstractTokenRepository {
+
+    private static final Log LOG = LogFactory.getLog(MappedTokenRepository.class);
+
+    public static final int DEFAULT_SLOT_SIZE = 512;
+
+    public static final int DEFAULT_SLOT_COUNT = 1024;
+
+    public static final long DEFAULT_MIN_COMPACTION_SIZE = 1024 * 1024;
+
+    private static final int MAGIC = 0x544b4d50;
+
+    private static final int VERSION = 1;
+
+    private static final int FILE_HEADER_SIZE = 64;
+
+    private static final int SLOT_HEADER_SIZE = 17;
+
+    private static final int OVERFLOW_HEADER_SIZE = 8;
+
+    private static final int MIN_SLOT_SIZE = 64;
+
+    private static final byte INLINE = 1;
+    private static final byte OVERFLOW = 2;
+
+    private final Path file;
+
+    private final Map<TokenKey, Integer> index = new ConcurrentHashMap<>();
+
+    private final Map<String, Set<TokenKey>> keys = new ConcurrentHashMap<>();
+
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final FileChannel lockChannel;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer buffer;
+
+    private int slotSize;
+
+    private int slotCount;
+
+    private long overflowStart;
+
+    private long overflowEnd;
+
+    private long overflowLive;
+
+    private long sequence;
+
+    private volatile long minCompactionSize = DEFAULT_MIN_COMPACTION_SIZE;
+
+    private volatile boolean sync;
+
+
+    public MappedTokenRepository(Path file) {
+        this(file, DEFAULT_SLOT_SIZE, DEFAULT_SLOT_COUNT);
+    }
+
+
+    /**
+     * @param file the table file, created if it does not exist
+     * @param slotSize slot size in bytes of a new table, an existing table keeps its own
+     * @param slotCount initial number of slots of a new table
+     */
+    public MappedTokenRepository(Path file, int slotSize, int slotCount) {
+        if(slotSize < MIN_SLOT_SIZE) throw new IllegalArgumentException("slotSize must be at least " + MIN_SLOT_SIZE);
+        if(slotCount <= 0) throw new IllegalArgumentException("slotCount must be positive");
+        this.file = file;
+        try {
+            if(file.getParent() != null) Files.createDirectories(file.getParent());
+            lockChannel = AtomicFileWriter.lockExclusively(file.resolveSibling(file.getFileName() + ".lock"));
+        } catch(IOException ex) {
+            throw new TokenRepositoryException("Error locking token table " + file, ex);
+        }
+        try {
+            if(!Files.exists(file) || Files.size(file) < FILE_HEADER_SIZE) {
+                writeTable(file, slotSize, slotCount, new HashSet<>());
+            }
+            open();
+        } catch(IOException ex) {
+            closeQuietly(lockChannel);
+            throw new TokenRepositoryException("Error opening token table " + file, ex);
+        } catch(RuntimeException ex) {
+            closeQuietly(lockChannel);
+            throw ex;
+        }
+    }
+
+
+    @Override
+    public void saveToken(TokenKey key, Token token) {
+        byte[] data = TokenBinaryFormat.encodeToken(key, token);
+        lock.writeLock().lock();
+        try {
+            int slot = allocateSlot();
+            Integer previous = index.get(key);
+            if(data.length <= slotSize - SLOT_HEADER_SIZE) {
+                writeSlot(slot, ++sequence, INLINE, data);
+            } else {
+                long offset = appendOverflow(data);
+                byte[] id = TokenBinaryFormat.encodeString(key.getId());
+                ByteBuffer reference = ByteBuffer.allocate(id.length + 12);
+                reference.put(id).putLong(offset).putInt(data.length);
+                writeSlot(slot, ++sequence, OVERFLOW, reference.array());
+            }
+            if(sync) buffer.force();
+            index.put(key, slot);
+            if(previous != null) releaseSlot(previous);
+            keys.computeIfAbsent(key.getProvider(), (String p) -> ConcurrentHashMap.newKeySet()).add(key);
+            maybeCompact();
+        } catch(IOException ex) {
+            throw new TokenRepositoryException("Error writing token " + key + " to " + file, ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    @Override
+    public Token getToken(TokenKey key) {
+        lock.readLock().lock();
+        try {
+            Integer slot = index.get(key);
+            if(slot == null) {
+                throw new TokenNotFoundException(key, "Token for " + key + " not found");
+            }
+            return TokenBinaryFormat.decodeToken(tokenData(slot));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    @Override
+    public void removeToken(TokenKey key) {
+        lock.writeLock().lock();
+        try {
+            Integer slot = index.remove(key);
+            if(slot == null) return;
+            releaseSlot(slot);
+            if(sync) buffer.force();
+            Set<TokenKey> providerKeys = keys.get(key.getProvider());
+            if(providerKeys != null) providerKeys.remove(key);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    @Override
+    public Set<TokenKey> getKeys(String provider) {
+        Set<TokenKey> providerKeys = keys.get(provider);
+        return providerKeys != null ? new HashSet<>(providerKeys) : new HashSet<>();
+    }
+
+
+    /**
+     * Rewrites the table without superseded overflow records.
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            rebuild(slotCount);
+        } catch(IOException ex) {
+            throw new TokenRepositoryException("Error compacting token table " + file, ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if(!channel.isOpen()) return;
+            buffer.force();
+            channel.close();
+        } catch(IOException ex) {
+            LOG.error("Error closing token table " + file, ex);
+        } finally {
+            closeQuietly(lockChannel);
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    public Path getFile() {
+        return file;
+    }
+
+
+    public int getSlotSize() {
+        return slotSize;
+    }
+
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+
+    public long getMinCompactionSize() {
+        return minCompactionSize;
+    }
+
+
+    /**
+     * Sets the overflow region size in bytes below which the table is never compacted.
+     */
+    public void setMinCompactionSize(long minCompactionSize) {
+        this.minCompactionSize = minCompactionSize;
+    }
+
+
+    public boolean isSync() {
+        return sync;
+    }
+
+
+    /**
+     * If set, every write is forced to the disk before it returns.
+     */
+    public void setSync(boolean sync) {
+        this.sync = sync;
+    }
+
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        map(channel.size());
+        if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            channel.close();
+            throw new TokenRepositoryException("File " + file + " is not a token table");
+        }
+        slotSize = buffer.getInt(8);
+        slotCount = buffer.getInt(12);
+        overflowStart = FILE_HEADER_SIZE + (long) slotSize * slotCount;
+        if(buffer.capacity() < overflowStart) map(overflowStart);
+        recover();
+    }
+
+
+    private void map(long size) throws IOException {
+        if(size > Integer.MAX_VALUE) throw new IOException("Token table " + file + " exceeds 2 GiB");
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+
+    private void recover() {
+        index.clear();
+        keys.clear();
+        freeSlots.clear();
+        overflowEnd = overflowStart;
+        overflowLive = 0;
+        sequence = 0;
+        int torn = 0;
+        for(int slot = 0; slot < slotCount; slot++) {
+            int position = slotOffset(slot);
+            if(buffer.getInt(position) == 0) {
+                freeSlots.add(slot);
+                continue;
+            }
+            TokenKey key = validateSlot(slot);
+            if(key == null) {
+                buffer.putInt(position, 0);
+                freeSlots.add(slot);
+                torn++;
+                continue;
+            }
+            long slotSequence = buffer.getLong(position + 8);
+            sequence = Math.max(sequence, slotSequence);
+            Integer other = index.get(key);
+            if(other != null) {
+                if(buffer.getLong(slotOffset(other) + 8) > slotSequence) {
+                    buffer.putInt(position, 0);
+                    freeSlots.add(slot);
+                    continue;
+                }
+                releaseSlot(other);
+            }
+            index.put(key, slot);
+            keys.computeIfAbsent(key.getProvider(), (String p) -> ConcurrentHashMap.newKeySet()).add(key);
+            if(buffer.get(position + 16) == OVERFLOW) {
+                ByteBuffer reference = slotPayload(slot);
+                TokenBinaryFormat.decodeString(reference);
+                long offset = reference.getLong();
+                int length = reference.getInt();
+                overflowLive += OVERFLOW_HEADER_SIZE + length;
+                overflowEnd = Math.max(overflowEnd, offset + OVERFLOW_HEADER_SIZE + length);
+            }
+        }
+        if(torn > 0) {
+            LOG.warn("Token table " + file + " had " + torn + " torn or corrupt slots, cleared them");
+            buffer.force();
+        }
+    }
+
+
+    /**
+     * @return the key of a consistent slot or null if the slot is torn
+     */
+    private TokenKey validateSlot(int slot) {
+        int position = slotOffset(slot);
+        int length = buffer.getInt(position);
+        if(length < 0 || length > slotSize - SLOT_HEADER_SIZE) return null;
+        if(crc(position + 8, length + SLOT_HEADER_SIZE - 8) != buffer.getInt(position + 4)) return null;
+        byte type = buffer.get(position + 16);
+        try {
+            ByteBuffer payload = slotPayload(slot);
+            TokenKey key = TokenKey.parse(TokenBinaryFormat.decodeString(payload));
+            if(type == INLINE) return key;
+            if(type != OVERFLOW) return null;
+            long offset = payload.getLong();
+            int dataLength = payload.getInt();
+            if(offset < overflowStart || dataLength < 0
+                    || offset + OVERFLOW_HEADER_SIZE + dataLength > buffer.capacity()) return null;
+            int recordOffset = (int) offset;
+            if(buffer.getInt(recordOffset) != dataLength) return null;
+            if(crc(recordOffset + OVERFLOW_HEADER_SIZE, dataLength) != buffer.getInt(recordOffset + 4)) return null;
+            return key;
+        } catch(IllegalArgumentException | BufferUnderflowException ex) {
+            return null;
+        }
+    }
+
+
+    private int allocateSlot() throws IOException {
+        if(freeSlots.isEmpty()) rebuild(slotCount * 2);
+        return freeSlots.poll();
+    }
+
+
+    private void writeSlot(int slot, long slotSequence, byte type, byte[] payload) {
+        int position = slotOffset(slot);
+        ByteBuffer target = buffer.duplicate();
+        target.position(position + SLOT_HEADER_SIZE);
+        target.put(payload);
+        buffer.put(position + 16, type);
+        buffer.putLong(position + 8, slotSequence);
+        buffer.putInt(position + 4, crc(position + 8, payload.length + SLOT_HEADER_SIZE - 8));
+        buffer.putInt(position, payload.length);
+    }
+
+
+    private void releaseSlot(int slot) {
+        int position = slotOffset(slot);
+        if(buffer.get(position + 16) == OVERFLOW) {
+            ByteBuffer reference = slotPayload(slot);
+            TokenBinaryFormat.decodeString(reference);
+            reference.getLong();
+            overflowLive -= OVERFLOW_HEADER_SIZE + reference.getInt();
+        }
+        buffer.putInt(position, 0);
+        freeSlots.add(slot);
+    }
+
+
+    private long appendOverflow(byte[] data) throws IOException {
+        long offset = overflowEnd;
+        long end = offset + OVERFLOW_HEADER_SIZE + data.length;
+        if(end > buffer.capacity()) {
+            if(sync) buffer.force();
+            map(Math.max(end, Math.min(2L * buffer.capacity(), Integer.MAX_VALUE)));
+        }
+        ByteBuffer target = buffer.duplicate();
+        target.position((int) offset + OVERFLOW_HEADER_SIZE);
+        target.put(data);
+        buffer.putInt((int) offset + 4, crc((int) offset + OVERFLOW_HEADER_SIZE, data.length));
+        buffer.putInt((int) offset, data.length);
+        overflowEnd = end;
+        overflowLive += OVERFLOW_HEADER_SIZE + data.length;
+        return offset;
+    }
+
+
+    private void maybeCompact() throws IOException {
+        long overflowSize = overflowEnd - overflowStart;
+        if(overflowSize >= minCompactionSize && overflowSize - overflowLive > overflowLive) {
+            rebuild(slotCount);
+        }
+    }
+
+
+    /**
+     * Writes the live tokens to a new table with the given slot count and
+     * replaces the file with it.
+     */
+    private void rebuild(int newSlotCount) throws IOException {
+        Path rebuilt = file.resolveSibling(file.getFileName() + ".rebuild");
+        Set<Integer> live = new HashSet<>(index.values());
+        writeTable(rebuilt, slotSize, newSlotCount, live);
+        buffer.force();
+        channel.close();
+        Files.move(rebuilt, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        AtomicFileWriter.syncDirectory(file.toAbsolutePath().getParent());
+        open();
+        LOG.debug("Token table " + file + " rebuilt with " + slotCount + " slots");
+    }
+
+
+    /**
+     * Writes a table holding the tokens of the given slots of the current table.
+     */
+    private void writeTable(Path target, int size, int count, Set<Integer> slots) throws IOException {
+        try(FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(count).flip();
+            writeFully(out, header, 0);
+
+            long overflow = FILE_HEADER_SIZE + (long) size * count;
+            out.truncate(overflow);
+            writeFully(out, ByteBuffer.allocate(1), overflow - 1);
+            int next = 0;
+            for(int slot : slots) {
+                ByteBuffer data = tokenData(slot);
+                int position = slotOffset(slot);
+                long slotSequence = buffer.getLong(position + 8);
+                byte type = buffer.get(position + 16);
+                ByteBuffer record;
+                if(type == INLINE) {
+                    record = ByteBuffer.allocate(SLOT_HEADER_SIZE + data.remaining());
+                    record.position(SLOT_HEADER_SIZE);
+                    record.put(data);
+                } else {
+                    ByteBuffer overflowRecord = ByteBuffer.allocate(OVERFLOW_HEADER_SIZE + data.remaining());
+                    overflowRecord.putInt(data.remaining());
+                    overflowRecord.putInt(crc(data.duplicate()));
+                    overflowRecord.put(data).flip();
+                    writeFully(out, overflowRecord, overflow);
+
+                    ByteBuffer reference = slotPayload(slot);
+                    String id = TokenBinaryFormat.decodeString(reference);
+                    byte[] encodedId = TokenBinaryFormat.encodeString(id);
+                    record = ByteBuffer.allocate(SLOT_HEADER_SIZE + encodedId.length + 12);
+                    record.position(SLOT_HEADER_SIZE);
+                    record.put(encodedId).putLong(overflow).putInt(overflowRecord.capacity() - OVERFLOW_HEADER_SIZE);
+                    overflow += overflowRecord.capacity();
+                }
+                record.putInt(0, record.capacity() - SLOT_HEADER_SIZE);
+                record.putLong(8, slotSequence);
+                record.put(16, type);
+                record.position(8);
+                record.putInt(4, crc(record.slice()));
+                record.position(0);
+                writeFully(out, record, FILE_HEADER_SIZE + (long) size * next++);
+            }
+            out.force(true);
+        }
+    }
+
+
+    /**
+     * @return the encoded token of the slot, read from the mapping
+     */
+    private ByteBuffer tokenData(int slot) {
+        ByteBuffer payload = slotPayload(slot);
+        if(buffer.get(slotOffset(slot) + 16) != OVERFLOW) return payload;
+        TokenBinaryFormat.decodeString(payload);
+        int offset = (int) payload.getLong();
+        int length = payload.getInt();
+        return region(offset + OVERFLOW_HEADER_SIZE, length);
+    }
+
+
+    private ByteBuffer slotPayload(int slot) {
+        int position = slotOffset(slot);
+        return region(position + SLOT_HEADER_SIZE, buffer.getInt(position));
+    }
+
+
+    private ByteBuffer region(int position, int length) {
+        ByteBuffer region = buffer.duplicate();
+        region.limit(position + length);
+        region.position(position);
+        return region;
+    }
+
+
+    private int slotOffset(int slot) {
+        return FILE_HEADER_SIZE + slot * slotSize;
+    }
+
+
+    private int crc(int position, int length) {
+        return crc(region(position, length));
+    }
+
+
+    private static int crc(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+
+
+    private void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch(IOException ex) {
+            LOG.warn("Error closing the lock file of " + file, ex);
+        }
+    }
+
+
+    private static void writeFully(FileChannel channel, ByteBuffer data, long position) throws IOException {
+        while(data.hasRemaining()) channel.write(data, position + data.position());
+    }
+
+}
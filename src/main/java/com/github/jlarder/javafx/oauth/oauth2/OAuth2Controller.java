@@ -25,10 +25,12 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
+import javafx.concurrent.Worker;
 import javafx.event.EventType;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
 import javafx.scene.web.WebEngine;
+import javafx.scene.web.WebHistory;
 import javafx.scene.web.WebView;
 import javafx.stage.WindowEvent;
 import org.apache.commons.logging.Log;
@@ -44,28 +46,52 @@ public class OAuth2Controller implements Initializable, ChangeListener<String> {
     
     private static final Log LOG = LogFactory.getLog(OAuth2Controller.class);
     
+    private static final String BLANK_PAGE = "about:blank";
+    
     @FXML
     private WebView webView;
     private WebEngine webEngine;
     
     private OAuth2Properties authProps;
     
-    private String provider;
+    private TokenKey key;
     private TokenHandler tokenHandler;
     
+    private Pattern redirectPattern;
+    
+    private RedirectGuard.Guard redirectGuard;
+    
+    private long authStart;
+    
+    private long redirectStart;
+    
+    private final ChangeListener<Worker.State> loadStateListener = 
+            (ObservableValue<? extends Worker.State> ov, Worker.State oldState, Worker.State state) -> {
+        if(state != Worker.State.SUCCEEDED) return;
+        redirectStart = System.nanoTime();
+        if(authStart != 0) {
+            LOG.debug("Authorization page loaded in " + (redirectStart - authStart) / 1000000 + " ms");
+            authStart = 0;
+        }
+    };
+    
     
     @Override
     public void initialize(URL url, ResourceBundle rb) {
         webEngine = webView.getEngine();
         webEngine.setUserAgent(USER_AGENT);
         webEngine.locationProperty().addListener(this);
+        webEngine.getLoadWorker().stateProperty().addListener(loadStateListener);
     }
     
     
-    public void auth(String provider, OAuth2Properties props, TokenHandler handler) { 
-        this.provider = provider;
+    public void auth(TokenKey key, OAuth2Properties props, TokenHandler handler) { 
+        this.key = key;
         this.authProps = props;
         this.tokenHandler = handler;
+        this.redirectPattern = Pattern.compile("^" + Pattern.quote(props.getRedirectUri()) + "[\\S]+");
+        if(redirectGuard != null) redirectGuard.close();
+        this.redirectGuard = RedirectGuard.guard(props.getRedirectUri());
         
         webView.getScene().getWindow().setOnCloseRequest((WindowEvent event) -> {
             LOG.debug("Close auth window");
@@ -74,13 +100,62 @@ public class OAuth2Controller implements Initializable, ChangeListener<String> {
         
         String request = authProps.getAuthorizationRequestUrl(); 
         LOG.debug("loading authorization page ..." + request );
+        authStart = System.nanoTime();
         webEngine.load(request);
     }
+    
+    
+    /**
+     * Forgets the last authentication, loads a blank page and clears the 
+     * history so that the view can be used for another one.
+     */
+    public void reset() {
+        key = null;
+        authProps = null;
+        tokenHandler = null;
+        redirectPattern = null;
+        authStart = 0;
+        if(redirectGuard != null) {
+            redirectGuard.close();
+            redirectGuard = null;
+        }
+        if(webView.getScene() != null && webView.getScene().getWindow() != null) {
+            webView.getScene().getWindow().setOnCloseRequest(null);
+        }
+        webEngine.load(BLANK_PAGE);
+        WebHistory history = webEngine.getHistory();
+        int maxSize = history.getMaxSize();
+        history.setMaxSize(0);
+        history.setMaxSize(maxSize);
+    }
+    
+    
+    /**
+     * Resets the view and removes the listeners from the web engine, the
+     * controller can not be used afterwards.
+     */
+    public void dispose() {
+        reset();
+        webEngine.locationProperty().removeListener(this);
+        webEngine.getLoadWorker().stateProperty().removeListener(loadStateListener);
+    }
 
     
+    /**
+     * The location changes before the web engine connects to the redirect
+     * URI, for a server-side redirect while it is being followed. Cancelling
+     * the load does not stop that request, the {@link RedirectGuard} refuses
+     * its connection.
+     */
     @Override
     public void changed(ObservableValue<? extends String> ov, String s1, String s2) {
-        if(s2.matches("^" + authProps.getRedirectUri() + "[\\S]+")) {
+        if(redirectPattern == null || s2 == null) return;
+        if(redirectPattern.matcher(s2).matches()) {
+            redirectGuard.received();
+            webEngine.getLoadWorker().cancel();
+            redirectPattern = null;
+            LOG.debug("Redirect received " + (System.nanoTime() - redirectStart) / 1000000
+                    + " ms after the last page was loaded");
             Map<String, String> params = parseRedirectUriParameters(s2); 
             if(authProps.isUseState() && ! validateStateParameter(params)) {
                 LOG.error("error getting the token: invalid state parameter");
@@ -106,7 +181,7 @@ public class OAuth2Controller implements Initializable, ChangeListener<String> {
 
     
     private void fireReceivedEvent(EventType<ReceiverEvent> type, Map<String, String> params) {
-        ReceiverEvent event = new ReceiverEvent(type, params, provider, authProps, tokenHandler);
+        ReceiverEvent event = new ReceiverEvent(type, params, key, authProps, tokenHandler);
         webView.getScene().getWindow().fireEvent(event);
     }
     
@@ -15,29 +15,34 @@
  */
 package com.github.jlarder.javafx.oauth.oauth2;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javafx.application.Platform;
+import javafx.event.Event;
+import javafx.event.EventHandler;
+import javafx.event.EventType;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
+import javafx.stage.WindowEvent;
 import javax.inject.Inject;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
-import org.springframework.http.client.ClientHttpResponse;
-import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.stereotype.Service;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
-import org.springframework.web.client.ResponseErrorHandler;
-import org.springframework.web.client.RestTemplate;
 
 /**
  *
@@ -48,6 +53,8 @@ public class OAuth2Service {
        
     private static final Log LOG = LogFactory.getLog(OAuth2Service.class);
     
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+    
     private static final String AUTH_FXML_FILE = "/com/github/jlarder/javafx/oauth/fxml/auth.fxml";
     
     @Inject
@@ -56,7 +63,27 @@ public class OAuth2Service {
     @Inject
     private FXMLLoader fxmlLoader;
     
-    private final RestTemplate restTemplate;
+    private volatile TokenEndpointClient tokenEndpointClient;
+    
+    private final SingleFlight<TokenKey, Token> refreshes = new SingleFlight<>();
+    
+    private TokenRefreshScheduler refreshScheduler;
+    
+    private volatile RefreshLock refreshLock;
+    
+    private final Map<TokenKey, CompletableFuture<Token>> warmTokens = new ConcurrentHashMap<>();
+    
+    private final AtomicLong timeToFirstToken = new AtomicLong(-1);
+    
+    private volatile long warmUpTime = -1;
+    
+    private volatile Executor executor;
+    
+    private volatile long clockSkew;
+    
+    private volatile AuthWindowPool authWindowPool;
+    
+    private volatile LoopbackRedirectReceiver redirectReceiver;
     
     private String authWindowTitle;
     private Integer authWindowWidth = 500;
@@ -64,112 +91,396 @@ public class OAuth2Service {
     
     
     public OAuth2Service() {
-        restTemplate = getConfiguredRestTemplate(); 
+        tokenEndpointClient = new ResilientTokenEndpointClient(new HttpClientTokenEndpointClient());
+        executor = Executors.newCachedThreadPool((Runnable r) -> {
+            Thread thread = new Thread(r, "oauth2-service-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
     
-       
+    
     public void getToken(String provider, OAuth2Properties props,
+            TokenHandler tokenHandler) {
+        getToken(TokenKey.of(provider), props, tokenHandler);
+    }
+    
+    
+    public void refreshToken(Token token, String provider, OAuth2Properties props,
+            TokenHandler tokenHandler) {
+        refreshToken(token, TokenKey.of(provider), props, tokenHandler);
+    }
+    
+    
+    public void removeToken(String provider) {
+        removeToken(TokenKey.of(provider));
+    }
+    
+    
+    /**
+     * @return keys of the accounts stored for the provider
+     */
+    public Set<TokenKey> getAccounts(String provider) {
+        return tokenRepository.getKeys(provider);
+    }
+    
+    
+    /**
+     * Callback variant of {@link #getTokenAsync(TokenKey, OAuth2Properties)},
+     * the handler is called on the JavaFX Application Thread.
+     */
+    public void getToken(TokenKey key, OAuth2Properties props,
             TokenHandler tokenHandler) {                                   
+        deliver(getTokenAsync(key, props), tokenHandler);
+    }
+    
+    
+    /**
+     * Callback variant of {@link #refreshTokenAsync(Token, TokenKey, OAuth2Properties)},
+     * the handler is called on the JavaFX Application Thread.
+     */
+    public void refreshToken(Token token, TokenKey key, OAuth2Properties props,
+            TokenHandler tokenHandler) {
+        deliver(refreshTokenAsync(token, key, props), tokenHandler);
+    }
+    
+    
+    /**
+     * Loads the token of the key, refreshes it if it has expired or
+     * opens the authentication window if there is no usable token. Repository
+     * and network work runs on the service executor. The future fails with
+     * {@link TokenErrorException} if the token could not be obtained.
+     */
+    public CompletableFuture<Token> getTokenAsync(TokenKey key, OAuth2Properties props) {
+        CompletableFuture<Token> warm = warmTokens.remove(key);
+        CompletableFuture<Token> loaded = (warm == null) ?
+                CompletableFuture.supplyAsync(() -> loadToken(key, props), executor) :
+                warm.handleAsync((Token token, Throwable ex) -> 
+                        (token != null && !token.isExpired(clockSkew)) ? token : loadToken(key, props), executor);
+        return loaded.thenCompose((Token token) -> token != null ? 
+                        CompletableFuture.completedFuture(token) : authenticate(key, props));
+    }
+    
+    
+    /**
+     * Loads the tokens of all accounts stored for the providers in parallel,
+     * see {@link #warmUp(Map)}.
+     *
+     * @param providers properties by provider name
+     */
+    public CompletableFuture<Map<TokenKey, Token>> warmUpProviders(Map<String, OAuth2Properties> providers) {
+        return CompletableFuture.supplyAsync(() -> {
+            Map<TokenKey, OAuth2Properties> tokens = new HashMap<>();
+            providers.forEach((String provider, OAuth2Properties props) -> {
+                getAccounts(provider).forEach((TokenKey key) -> tokens.put(key, props));
+            });
+            return tokens;
+        }, executor).thenCompose(this::warmUp);
+    }
+    
+    
+    /**
+     * Loads the tokens in parallel on the service executor and refreshes the
+     * expired ones, so that the first {@link #getTokenAsync} of each key is
+     * answered from memory or joins the load in flight. No authentication
+     * window is opened, keys without a usable token are left out of the
+     * result. The time to the first usable token is kept as
+     * {@link #getTimeToFirstToken()}.
+     *
+     * @return the usable tokens once all loads have finished
+     */
+    public CompletableFuture<Map<TokenKey, Token>> warmUp(Map<TokenKey, OAuth2Properties> tokens) {
+        long start = System.nanoTime();
+        timeToFirstToken.set(-1);
+        warmUpTime = -1;
+        List<CompletableFuture<Token>> loads = new ArrayList<>(tokens.size());
+        Map<TokenKey, Token> usable = new ConcurrentHashMap<>();
+        tokens.forEach((TokenKey key, OAuth2Properties props) -> {
+            CompletableFuture<Token> load = CompletableFuture.supplyAsync(() -> {
+                Token token = loadToken(key, props);
+                if(token != null) {
+                    usable.put(key, token);
+                    timeToFirstToken.compareAndSet(-1, (System.nanoTime() - start) / 1000000);
+                }
+                return token;
+            }, executor);
+            warmTokens.put(key, load);
+            loads.add(load);
+        });
+        return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).handle((Void v, Throwable ex) -> {
+            warmUpTime = (System.nanoTime() - start) / 1000000;
+            LOG.info("Warmed up " + usable.size() + " of " + tokens.size() + " tokens in " + warmUpTime 
+                    + " ms, first usable after " + timeToFirstToken.get() + " ms");
+            return usable;
+        });
+    }
+    
+    
+    public CompletableFuture<Token> refreshTokenAsync(Token token, TokenKey key,
+            OAuth2Properties props) {
+        if(token == null || token.getRefreshToken() == null) {
+            return authenticate(key, props);
+        }
+        return CompletableFuture.supplyAsync(() -> refresh(token, key, props), executor);
+    }
+    
+    
+    public CompletableFuture<Void> removeTokenAsync(TokenKey key) {
+        return CompletableFuture.runAsync(() -> removeToken(key), executor);
+    }
+    
+    
+    /**
+     * @return a usable token or null if the user has to authenticate
+     */
+    private Token loadToken(TokenKey key, OAuth2Properties props) {
         try { 
-            Token token = tokenRepository.getToken(provider);          
-            if(!token.isExpired()) {
-                tokenHandler.handle(token, null);                
+            Token token = tokenRepository.getToken(key);          
+            if(!token.isExpired(clockSkew)) {
+                scheduleRefresh(key, props, token);
+                return token;
             } else if(token.getRefreshToken() == null) {
-                showAuthenticationWindow(provider, props, tokenHandler);      
+                return null;
             } else {
-                refreshToken(token, provider, props, tokenHandler);      
+                return refresh(token, key, props);
             }
         } catch (TokenNotFoundException ex) {
             LOG.warn(ex.getMessage());
-            showAuthenticationWindow(provider, props, tokenHandler);
+            return null;
         } catch (TokenRepositoryException ex) {
             LOG.error(ex.getMessage(), ex);
-            showAuthenticationWindow(provider, props, tokenHandler);
+            return null;
         }
     }
     
     
-    public void refreshToken(Token token, String provider, OAuth2Properties props,
-            TokenHandler tokenHandler) {
-        if(token == null || token.getRefreshToken() == null) {
-            showAuthenticationWindow(provider, props, tokenHandler);
-        } else {
-            Map<String, String> params = props.getTokenRefreshParameters(token.getRefreshToken());
+    private CompletableFuture<Token> authenticate(TokenKey key, OAuth2Properties props) {
+        CompletableFuture<Token> future = new CompletableFuture<>();
+        runOnFxThread(() -> {
             try {
-                Map<String, String> response = requestToken(params, props.getTokenRequestEndpoint());
-                Token t = processingResponse(response);
-                token.update(t);
-                tokenRepository.saveToken(provider, token);
+                TokenHandler handler = (Token token, TokenError error) -> {
+                    if(error == null) {
+                        future.complete(token);
+                    } else {
+                        future.completeExceptionally(new TokenErrorException(error));
+                    }
+                };
+                LoopbackRedirectReceiver receiver = redirectReceiver;
+                if(receiver != null) {
+                    receiver.authorize(key, props, handler);
+                } else {
+                    showAuthenticationWindow(key, props, handler);
+                }
+            } catch(RuntimeException ex) {
+                future.completeExceptionally(ex);
+            }
+        });
+        return future;
+    }
+    
+    
+    private void deliver(CompletableFuture<Token> future, TokenHandler tokenHandler) {
+        future.whenComplete((Token token, Throwable ex) -> runOnFxThread(() -> {
+            if(ex == null) {
                 tokenHandler.handle(token, null);
-            } catch(TokenErrorException ex) {
-                tokenHandler.handle(null, ex.getError());
+            } else {
+                tokenHandler.handle(null, toTokenError(ex));
             }
+        }));
+    }
+    
+    
+    private TokenError toTokenError(Throwable ex) {
+        Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? 
+                ex.getCause() : ex;
+        if(cause instanceof TokenErrorException) {
+            return ((TokenErrorException) cause).getError();
         }
+        LOG.error("Error getting token", cause);
+        return new TokenError();
     }
     
     
-    public void removeToken(String provider) {
-        tokenRepository.removeToken(provider);
+    private static void runOnFxThread(Runnable runnable) {
+        if(Platform.isFxApplicationThread()) {
+            runnable.run();
+        } else {
+            Platform.runLater(runnable);
+        }
+    }
+    
+    
+    /**
+     * Removes the token on the calling thread, use {@link #removeTokenAsync(TokenKey)}
+     * on the JavaFX Application Thread.
+     */
+    public void removeToken(TokenKey key) {
+        warmTokens.remove(key);
+        if(refreshScheduler != null) refreshScheduler.cancel(key);
+        tokenRepository.removeToken(key);
+    }
+    
+    
+    /**
+     * Concurrent refreshes of the same token are coalesced into a single
+     * request, every caller gets its result. With a refresh lock the token
+     * is read again once the lock is held, so a refresh done by another
+     * process is picked up instead of repeated. The refreshed token is
+     * written through any write-behind cache before the lock is released,
+     * so the next process does not refresh with a rotated out token.
+     */
+    private Token refresh(Token token, TokenKey key, OAuth2Properties props) {
+        return refreshes.execute(key, () -> {
+            Token stored = findRefreshedToken(token, key, false);
+            if(stored != null) return stored;
+            RefreshLock lock = refreshLock;
+            if(lock == null) return requestRefresh(token, key, props);
+            
+            try(RefreshLock.Handle handle = lock.acquire(key)) {
+                if(handle == null) {
+                    LOG.warn("Refresh lock of " + key + " not acquired, refreshing without it");
+                } else {
+                    stored = findRefreshedToken(token, key, true);
+                    if(stored != null) return stored;
+                }
+                return requestRefresh(token, key, props);
+            }
+        });
+    }
+    
+    
+    /**
+     * @return the stored token if it has been refreshed since the given one was read
+     */
+    private Token findRefreshedToken(Token token, TokenKey key, boolean reload) {
+        Token stored;
+        try {
+            stored = reload ? tokenRepository.reloadToken(key) : tokenRepository.getToken(key);
+        } catch(TokenRepositoryException ex) {
+            return null;
+        }
+        if(!stored.isExpired(clockSkew) && !Objects.equals(stored.getAccessToken(), token.getAccessToken())) {
+            LOG.debug("Token " + key + " has already been refreshed");
+            return stored;
+        }
+        return null;
+    }
+    
+    
+    private Token requestRefresh(Token token, TokenKey key, OAuth2Properties props) {
+        Map<String, String> params = props.getTokenRefreshParameters(token.getRefreshToken());
+        Token refreshed = token.merge(requestToken(params, props.getTokenRequestEndpoint()));
+        tokenRepository.saveTokenNow(key, refreshed);
+        warmTokens.computeIfPresent(key, (TokenKey k, CompletableFuture<Token> warm) -> 
+                CompletableFuture.completedFuture(refreshed));
+        scheduleRefresh(key, props, refreshed);
+        return refreshed;
+    }
+    
+    
+    private void scheduleRefresh(TokenKey key, OAuth2Properties props, Token token) {
+        if(refreshScheduler == null || props.getTokenRequestEndpoint() == null) return;
+        refreshScheduler.schedule(key, token, () -> {
+            try {
+                refresh(tokenRepository.getToken(key), key, props);
+                LOG.debug("Token " + key + " refreshed in background");
+            } catch(TokenErrorException ex) {
+                LOG.warn("Background refresh of " + key + " token failed " + ex.getError());
+            } catch(TokenRepositoryException ex) {
+                LOG.warn("Background refresh of " + key + " token skipped: " + ex.getMessage());
+            }
+        }, executor);
     }
 
     
-    private void showAuthenticationWindow(String provider, OAuth2Properties props,
+    private void showAuthenticationWindow(TokenKey key, OAuth2Properties props,
             TokenHandler tokenHandler) {                                                
-        
-        if(fxmlLoader.getLocation() != null) fxmlLoader = getNewFXMLLoader(fxmlLoader);        
-        fxmlLoader.setLocation(getClass().getResource(AUTH_FXML_FILE));
-        Parent view;
-        try {
-            view = fxmlLoader.load();            
-        } catch (IOException ex) {
-            LOG.error("error load " + AUTH_FXML_FILE, ex);          
+        long start = System.nanoTime();
+        AuthWindowPool pool = authWindowPool;
+        AuthWindow window = (pool != null) ? pool.acquire() : createAuthWindow();
+        if(window == null) {
             tokenHandler.handle(null, new TokenError());
             return;
         }
         
-        Stage stage = new Stage();
-        stage.setScene(new Scene(view));
+        Stage stage = window.getStage();
         stage.setTitle(authWindowTitle != null ? authWindowTitle : "Authentication");
         stage.setWidth(authWindowWidth);
         stage.setHeight(authWindowHeight);
-        stage.setResizable(false);
-        stage.initModality(Modality.APPLICATION_MODAL);
-        stage.setAlwaysOnTop(true);
         
-        stage.addEventHandler(ReceiverEvent.TOKEN_RECEIVED_EVENT_TYPE, (ReceiverEvent event) -> {
-            Token token = Token.fromMap(event.getParameters(), System.currentTimeMillis());
-            tokenRepository.saveToken(provider, token);
-            event.getTokenHandler().handle(token, null);
+        EventHandler<ReceiverEvent> receiverHandler = (ReceiverEvent event) -> {
+            handleReceiverEvent(event);
             stage.close();
-        });
+        };
+        window.addEventHandler(ReceiverEvent.TOKEN_RECEIVED_EVENT_TYPE, receiverHandler);
+        window.addEventHandler(ReceiverEvent.CODE_RECEIVED_EVENT_TYPE, receiverHandler);
+        window.addEventHandler(ReceiverEvent.ERROR_RECEIVED_EVENT_TYPE, receiverHandler);
         
-        stage.addEventHandler(ReceiverEvent.CODE_RECEIVED_EVENT_TYPE, (ReceiverEvent event) -> {
-            exchangeCodeForToken(event.getParameters(), event.getProvider(),
-                    event.getOAuth2Properties(), event.getTokenHandler());
-            stage.close();
+        stage.setOnHidden((WindowEvent event) -> {
+            if(pool != null) {
+                pool.release(window);
+            } else {
+                window.dispose();
+            }
         });
         
-        stage.addEventHandler(ReceiverEvent.ERROR_RECEIVED_EVENT_TYPE, (ReceiverEvent event) -> {
+        stage.show();
+        LOG.debug("Authentication window shown in " + (System.nanoTime() - start) / 1000000 + " ms");
+        window.getController().auth(key, props, tokenHandler); 
+    }
+    
+    
+    private void handleReceiverEvent(ReceiverEvent event) {
+        EventType<? extends Event> type = event.getEventType();
+        if(type == ReceiverEvent.TOKEN_RECEIVED_EVENT_TYPE) {
+            Token token = Token.fromMap(event.getParameters(), System.currentTimeMillis());
+            executor.execute(() -> {
+                storeToken(event.getKey(), event.getOAuth2Properties(), token);
+                event.getTokenHandler().handle(token, null);
+            });
+        } else if(type == ReceiverEvent.CODE_RECEIVED_EVENT_TYPE) {
+            executor.execute(() -> exchangeCodeForToken(event.getParameters(), event.getKey(),
+                    event.getOAuth2Properties(), event.getTokenHandler()));
+        } else {
             event.getTokenHandler().handle(null, event.getParameters() != null ?
                     TokenError.fromMap(event.getParameters()) : new TokenError());
-            stage.close();
-        });
-        
-        stage.show();
+        }
+    }
+    
+    
+    /**
+     * The view is loaded by a new loader each time, so that no loader keeps
+     * the view or the controller of a closed window.
+     *
+     * @return a new authentication window or null if the view can not be loaded
+     */
+    private AuthWindow createAuthWindow() {
+        FXMLLoader loader = getNewFXMLLoader(fxmlLoader);
+        loader.setLocation(getClass().getResource(AUTH_FXML_FILE));
+        Parent view;
+        try {
+            view = loader.load();            
+        } catch (IOException ex) {
+            LOG.error("error load " + AUTH_FXML_FILE, ex);          
+            return null;
+        }
         
-        OAuth2Controller oauthController = fxmlLoader.getController();
-        oauthController.auth(provider, props, tokenHandler); 
+        Stage stage = new Stage();
+        stage.setScene(new Scene(view));
+        stage.setResizable(false);
+        stage.initModality(Modality.APPLICATION_MODAL);
+        stage.setAlwaysOnTop(true);
+        return new AuthWindow(stage, loader.getController());
     }
     
     
-    private void exchangeCodeForToken(Map<String, String> params, String provider,
+    private void exchangeCodeForToken(Map<String, String> params, TokenKey key,
             OAuth2Properties props, TokenHandler handler) {
         LOG.debug("code is exchanged for token ...");
         try {
-            Map<String, String> response = requestToken(props.getTokenRequestParameters(params.get("code")),
+            Token token = requestToken(props.getTokenRequestParameters(params.get("code")),
                     props.getTokenRequestEndpoint());
-            Token token = processingResponse(response);
-            tokenRepository.saveToken(provider, token);
+            storeToken(key, props, token);
             handler.handle(token, null);
         } catch (TokenErrorException ex) {
             handler.handle(null, ex.getError());
@@ -177,47 +488,149 @@ public class OAuth2Service {
     }
     
     
-    private Token processingResponse(Map<String, String> response) {
-        if(response.containsKey("access_token")) {
-            LOG.debug("a token was received");
-            return Token.fromMap(response, System.currentTimeMillis());
-        } else if(response.containsKey("error")) {
-            LOG.debug("an error was received " + response);
-            throw new TokenErrorException(TokenError.fromMap(response));
-        } else {
-            LOG.error("Unknown response " + response);
-            throw new TokenErrorException(new TokenError());
+    private void storeToken(TokenKey key, OAuth2Properties props, Token token) {
+        try {
+            tokenRepository.saveToken(key, token);
+            scheduleRefresh(key, props, token);
+        } catch(TokenRepositoryException ex) {
+            LOG.error("Error saving token " + key, ex);
         }
     }
     
     
-    private Map<String, String> requestToken(Map<String, String> params,
-            String requestTokenUri) {
-        
-        MultiValueMap<String, String> map = new LinkedMultiValueMap<>(); 
-        params.entrySet().forEach((entry) -> {
-            map.add(entry.getKey(), entry.getValue());
-        });                                                                          
-       
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
-        HttpEntity<MultiValueMap<String, String>> request = 
-                new HttpEntity<>(map, headers);
-        
-        try {
-            Map<String, Object> response = restTemplate
-                    .postForObject(requestTokenUri, request, Map.class);
-            if(response == null) return null;
-            
-            Map<String, String> responseString = new HashMap<>();
-            response.entrySet().forEach((entry) -> {
-                responseString.put(entry.getKey(), entry.getValue().toString());
-            });
-            return responseString;
-        } catch (RuntimeException ex){
-            LOG.error(ex);
-            throw new TokenErrorException(new TokenError());
-        }        
+    private Token requestToken(Map<String, String> params, String requestTokenUri) {
+        return tokenEndpointClient.requestAccessToken(requestTokenUri, params);
+    }
+    
+    
+    /**
+     * Enables proactive background refresh of the tokens passing through
+     * this service. {@code null} disables it.
+     */
+    public void setRefreshScheduler(TokenRefreshScheduler scheduler) {
+        if(refreshScheduler != null && refreshScheduler != scheduler) refreshScheduler.shutdown();
+        refreshScheduler = scheduler;
+    }
+    
+    
+    public TokenRefreshScheduler getRefreshScheduler() {
+        return refreshScheduler;
+    }
+    
+    
+    /**
+     * Sets the lock held around token refreshes, e.g. a {@link FileRefreshLock}
+     * shared by the processes using the same token directory. {@code null} 
+     * disables it.
+     */
+    public void setRefreshLock(RefreshLock refreshLock) {
+        this.refreshLock = refreshLock;
+    }
+    
+    
+    public RefreshLock getRefreshLock() {
+        return refreshLock;
+    }
+    
+    
+    /**
+     * @return milliseconds from the start of the last warm-up to its first
+     *         usable token, -1 if there was none
+     */
+    public long getTimeToFirstToken() {
+        return timeToFirstToken.get();
+    }
+    
+    
+    /**
+     * @return milliseconds the last warm-up took, -1 if it has not finished
+     */
+    public long getWarmUpTime() {
+        return warmUpTime;
+    }
+    
+    
+    /**
+     * Sets the transport used to call token endpoints, by default
+     * {@link HttpClientTokenEndpointClient} wrapped in a
+     * {@link ResilientTokenEndpointClient}.
+     */
+    public void setTokenEndpointClient(TokenEndpointClient client) {
+        if(client == null) throw new IllegalArgumentException("client is null");
+        tokenEndpointClient = client;
+    }
+    
+    
+    public TokenEndpointClient getTokenEndpointClient() {
+        return tokenEndpointClient;
+    }
+    
+    
+    /**
+     * Sets the executor the repository and token endpoint calls run on.
+     */
+    public void setExecutor(Executor executor) {
+        if(executor == null) throw new IllegalArgumentException("executor is null");
+        this.executor = executor;
+    }
+    
+    
+    public Executor getExecutor() {
+        return executor;
+    }
+    
+    
+    /**
+     * Sets how many milliseconds before their expiry tokens are treated as expired.
+     */
+    public void setClockSkew(long clockSkew) {
+        this.clockSkew = Math.max(clockSkew, 0);
+    }
+    
+    
+    public long getClockSkew() {
+        return clockSkew;
+    }
+    
+    
+    /**
+     * Keeps the given number of authentication windows created in advance,
+     * 0 creates a new window for every authentication. Must be called on the
+     * JavaFX Application Thread once the toolkit is running, the windows
+     * are created at idle time.
+     */
+    public void setAuthWindowPoolSize(int size) {
+        AuthWindowPool previous = authWindowPool;
+        if(previous != null) previous.clear();
+        if(size <= 0) {
+            authWindowPool = null;
+            return;
+        }
+        AuthWindowPool pool = new AuthWindowPool(this::createAuthWindow, size);
+        authWindowPool = pool;
+        pool.fill();
+    }
+    
+    
+    public int getAuthWindowPoolSize() {
+        AuthWindowPool pool = authWindowPool;
+        return pool != null ? pool.getSize() : 0;
+    }
+    
+    
+    /**
+     * Authenticates in the user's browser with redirects received by the
+     * given loopback listener instead of the embedded authentication window,
+     * null restores the window.
+     */
+    public void setRedirectReceiver(LoopbackRedirectReceiver receiver) {
+        if(receiver != null) receiver.setEventHandler(this::handleReceiverEvent);
+        redirectReceiver = receiver;
+    }
+    
+    
+    public LoopbackRedirectReceiver getRedirectReceiver() {
+        return redirectReceiver;
     }
     
     
@@ -257,30 +670,4 @@ public class OAuth2Service {
         return newLoader;
     }
     
-    
-    private RestTemplate getConfiguredRestTemplate() {
-        RestTemplate restTemp = new RestTemplate();
-        
-        ObjectMapper objectMapper = new ObjectMapper();
-        MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter = 
-                new MappingJackson2HttpMessageConverter(objectMapper);
-        restTemp.getMessageConverters().add(mappingJackson2HttpMessageConverter);
-                
-        restTemp.setErrorHandler(new ResponseErrorHandler() {
-            
-            @Override
-            public boolean hasError(ClientHttpResponse response) throws IOException { 
-                return !(response.getStatusCode() == HttpStatus.OK ||
-                        response.getStatusCode() == HttpStatus.BAD_REQUEST);
-            }
-            
-            @Override
-            public void handleError(ClientHttpResponse response) throws IOException {
-                throw new RuntimeException("Response Error: status code " 
-                        + response.getStatusCode());
-            }
-        });
-        return restTemp;
-    }
-    
 }
@@ -0,0 +1,403 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.CookieHandler;
+import java.net.CookieManager;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps the cookies of the authentication pages across restarts, so that
+ * a provider which remembers the user can skip the login form. Cookies are
+ * matched by the JDK in-memory store, persistent cookies are also written
+ * to one file per provider host in the background, shortly after they
+ * change. Session and expired cookies are not written, expired ones are
+ * dropped when a file is loaded or written. The directory and the files
+ * are created accessible by the owner only, with a key the files are also
+ * encrypted with AES-GCM.
+ * <p>
+ * The web view uses the default {@link CookieHandler}, see {@link #install()}.
+ *
+ * @author Andrey Kazakov
+ */
+public class PersistentCookieStore implements CookieStore, AutoCloseable {
+
+    private static final Log LOG = LogFactory.getLog(PersistentCookieStore.class);
+
+    public static final long DEFAULT_WRITE_DELAY = 1000;
+
+    private static final String FILE_SUFFIX = ".cookies";
+
+    private static final int MAGIC = 0xC0C1;
+
+    private static final int VERSION = 1;
+
+    private static final int FLAG_ENCRYPTED = 1;
+
+    private static final int FLAG_SECURE = 1;
+
+    private static final int FLAG_HTTP_ONLY = 2;
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private static final int IV_SIZE = 12;
+
+    private static final int TAG_BITS = 128;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final CookieStore store = new CookieManager().getCookieStore();
+
+    private final Path directory;
+
+    private final SecretKey key;
+
+    private final long writeDelay;
+
+    private final AtomicFileWriter writer = new AtomicFileWriter(true, false);
+
+    /** Persistent cookies by provider host and cookie id. */
+    private final Map<String, Map<String, StoredCookie>> hosts = new ConcurrentHashMap<>();
+
+    private final Set<String> dirtyHosts = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService executor;
+
+
+    public PersistentCookieStore(Path directory) {
+        this(directory, null, DEFAULT_WRITE_DELAY);
+    }
+
+
+    /**
+     * @param directory where the cookie files are kept
+     * @param key AES key the files are encrypted with, null to store them in plain
+     * @param writeDelay milliseconds changes are collected for before a file is written
+     */
+    public PersistentCookieStore(Path directory, SecretKey key, long writeDelay) {
+        if(directory == null) throw new IllegalArgumentException("directory is null");
+        this.directory = directory;
+        this.key = key;
+        this.writeDelay = Math.max(writeDelay, 0);
+        try {
+            AtomicFileWriter.createPrivateDirectories(directory);
+        } catch(IOException ex) {
+            throw new UncheckedIOException("Error creating cookie directory " + directory, ex);
+        }
+        AtomicFileWriter.deleteTemporaryFiles(directory, FILE_SUFFIX);
+        load();
+        executor = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+            Thread thread = new Thread(r, "cookie-store-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /**
+     * Makes this store the one of the default cookie handler, must be
+     * called before the first web view is created.
+     */
+    public void install() {
+        CookieHandler.setDefault(new CookieManager(this, null));
+    }
+
+
+    @Override
+    public void add(URI uri, HttpCookie cookie) {
+        store.add(uri, cookie);
+        String host = hostOf(uri, cookie);
+        if(host == null) return;
+        String id = idOf(cookie);
+        if(cookie.getMaxAge() > 0) {
+            long expiresAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(cookie.getMaxAge());
+            hosts.computeIfAbsent(host, (String h) -> new ConcurrentHashMap<>())
+                    .put(id, new StoredCookie(uri, cookie, expiresAt));
+            changed(host);
+        } else {
+            Map<String, StoredCookie> cookies = hosts.get(host);
+            if(cookies != null && cookies.remove(id) != null) changed(host);
+        }
+    }
+
+
+    @Override
+    public List<HttpCookie> get(URI uri) {
+        return store.get(uri);
+    }
+
+
+    @Override
+    public List<HttpCookie> getCookies() {
+        return store.getCookies();
+    }
+
+
+    @Override
+    public List<URI> getURIs() {
+        return store.getURIs();
+    }
+
+
+    @Override
+    public boolean remove(URI uri, HttpCookie cookie) {
+        boolean removed = store.remove(uri, cookie);
+        String id = idOf(cookie);
+        hosts.forEach((String host, Map<String, StoredCookie> cookies) -> {
+            if(cookies.remove(id) != null) changed(host);
+        });
+        return removed;
+    }
+
+
+    @Override
+    public boolean removeAll() {
+        boolean removed = store.removeAll();
+        hosts.forEach((String host, Map<String, StoredCookie> cookies) -> {
+            cookies.clear();
+            changed(host);
+        });
+        return removed;
+    }
+
+
+    /**
+     * Forgets the cookies set by the host, so that the next authentication
+     * with it starts from the login form.
+     */
+    public void removeHost(String host) {
+        Map<String, StoredCookie> cookies = hosts.get(host.toLowerCase(Locale.ROOT));
+        if(cookies == null) return;
+        cookies.values().forEach((StoredCookie stored) -> store.remove(stored.uri, stored.cookie));
+        cookies.clear();
+        changed(host.toLowerCase(Locale.ROOT));
+    }
+
+
+    /**
+     * Writes the changed files now.
+     */
+    public void flush() {
+        for(String host : new ArrayList<>(dirtyHosts)) {
+            if(dirtyHosts.remove(host)) write(host);
+        }
+    }
+
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        flush();
+    }
+
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+
+    private void changed(String host) {
+        if(dirtyHosts.add(host) && !executor.isShutdown()) {
+            executor.schedule(() -> {
+                if(dirtyHosts.remove(host)) write(host);
+            }, writeDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+
+    private void load() {
+        long now = System.currentTimeMillis();
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + FILE_SUFFIX)) {
+            for(Path file : files) {
+                String name = file.getFileName().toString();
+                String host = name.substring(0, name.length() - FILE_SUFFIX.length());
+                try {
+                    Map<String, StoredCookie> cookies = decode(host, Files.readAllBytes(file), now);
+                    cookies.values().forEach((StoredCookie stored) -> store.add(stored.uri, stored.cookie));
+                    hosts.put(host, cookies);
+                } catch(IOException | GeneralSecurityException | RuntimeException ex) {
+                    LOG.warn("Ignoring unreadable cookie file " + file + ": " + ex);
+                }
+            }
+        } catch(IOException ex) {
+            throw new UncheckedIOException("Error reading cookie directory " + directory, ex);
+        }
+    }
+
+
+    private void write(String host) {
+        Path file = directory.resolve(host + FILE_SUFFIX);
+        try {
+            Map<String, StoredCookie> cookies = hosts.get(host);
+            if(cookies == null || cookies.isEmpty()) {
+                Files.deleteIfExists(file);
+            } else {
+                writer.write(file, encode(host, cookies, System.currentTimeMillis()));
+            }
+        } catch(IOException | GeneralSecurityException ex) {
+            LOG.error("Error writing cookie file " + file, ex);
+        }
+    }
+
+
+    private byte[] encode(String host, Map<String, StoredCookie> cookies, long now)
+            throws IOException, GeneralSecurityException {
+        List<StoredCookie> live = new ArrayList<>();
+        cookies.forEach((String id, StoredCookie stored) -> {
+            if(stored.expiresAt > now) {
+                live.add(stored);
+            } else {
+                cookies.remove(id, stored);
+            }
+        });
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(live.size());
+        for(StoredCookie stored : live) {
+            HttpCookie cookie = stored.cookie;
+            out.writeUTF(stored.uri != null ? stored.uri.toString() : "");
+            out.writeUTF(cookie.getName());
+            out.writeUTF(cookie.getValue() != null ? cookie.getValue() : "");
+            out.writeUTF(cookie.getDomain() != null ? cookie.getDomain() : "");
+            out.writeUTF(cookie.getPath() != null ? cookie.getPath() : "");
+            out.writeLong(stored.expiresAt);
+            out.writeByte((cookie.getSecure() ? FLAG_SECURE : 0) | (cookie.isHttpOnly() ? FLAG_HTTP_ONLY : 0));
+            out.writeByte(cookie.getVersion());
+        }
+        byte[] payload = bytes.toByteArray();
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream(payload.length + 64);
+        DataOutputStream header = new DataOutputStream(file);
+        header.writeShort(MAGIC);
+        header.writeByte(VERSION);
+        header.writeByte(key != null ? FLAG_ENCRYPTED : 0);
+        if(key != null) {
+            byte[] iv = new byte[IV_SIZE];
+            RANDOM.nextBytes(iv);
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(host.getBytes(StandardCharsets.UTF_8));
+            header.write(iv);
+            header.write(cipher.doFinal(payload));
+        } else {
+            header.write(payload);
+        }
+        return file.toByteArray();
+    }
+
+
+    private Map<String, StoredCookie> decode(String host, byte[] data, long now)
+            throws IOException, GeneralSecurityException {
+        DataInputStream header = new DataInputStream(new ByteArrayInputStream(data));
+        if(header.readUnsignedShort() != MAGIC || header.readUnsignedByte() != VERSION) {
+            throw new IOException("not a cookie file");
+        }
+        boolean encrypted = (header.readUnsignedByte() & FLAG_ENCRYPTED) != 0;
+        byte[] payload = data;
+        int offset = 4;
+        if(encrypted) {
+            if(key == null) throw new IOException("the file is encrypted and no key is set");
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, data, offset, IV_SIZE));
+            cipher.updateAAD(host.getBytes(StandardCharsets.UTF_8));
+            payload = cipher.doFinal(data, offset + IV_SIZE, data.length - offset - IV_SIZE);
+            offset = 0;
+        }
+
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(payload, offset, payload.length - offset));
+        Map<String, StoredCookie> cookies = new ConcurrentHashMap<>();
+        int count = in.readUnsignedShort();
+        for(int i = 0; i < count; i++) {
+            String uri = in.readUTF();
+            HttpCookie cookie = new HttpCookie(in.readUTF(), in.readUTF());
+            String domain = in.readUTF();
+            String path = in.readUTF();
+            long expiresAt = in.readLong();
+            int flags = in.readUnsignedByte();
+            cookie.setVersion(in.readUnsignedByte());
+            if(!domain.isEmpty()) cookie.setDomain(domain);
+            if(!path.isEmpty()) cookie.setPath(path);
+            cookie.setSecure((flags & FLAG_SECURE) != 0);
+            cookie.setHttpOnly((flags & FLAG_HTTP_ONLY) != 0);
+            if(expiresAt <= now) continue;
+            cookie.setMaxAge(TimeUnit.MILLISECONDS.toSeconds(expiresAt - now));
+            cookies.put(idOf(cookie), new StoredCookie(uri.isEmpty() ? null : URI.create(uri), cookie, expiresAt));
+        }
+        return cookies;
+    }
+
+
+    private static String hostOf(URI uri, HttpCookie cookie) {
+        String host = (uri != null) ? uri.getHost() : cookie.getDomain();
+        if(host == null) return null;
+        host = host.toLowerCase(Locale.ROOT);
+        if(host.startsWith(".")) host = host.substring(1);
+        return host.matches("[a-z0-9.\\-]+") ? host : null;
+    }
+
+
+    private static String idOf(HttpCookie cookie) {
+        return cookie.getName() + ";" + String.valueOf(cookie.getDomain()).toLowerCase(Locale.ROOT)
+                + ";" + cookie.getPath();
+    }
+
+
+    private static final class StoredCookie {
+
+        private final URI uri;
+
+        private final HttpCookie cookie;
+
+        private final long expiresAt;
+
+        private StoredCookie(URI uri, HttpCookie cookie, long expiresAt) {
+            this.uri = uri;
+            this.cookie = cookie;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Properties;
+
+/**
+ * Codec of the {@link Properties} files written by earlier versions of
+ * {@link FileTokenRepository}.
+ *
+ * @author Andrey Kazakov
+ */
+public class PropertiesTokenCodec implements TokenCodec {
+    
+    public static final String NAME = "properties";
+    
+    
+    @Override
+    public String getName() {
+        return NAME;
+    }
+    
+    
+    @Override
+    public ByteBuffer encode(Token token) {
+        Properties properties = new Properties();
+        properties.putAll(token.getAll());
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        try {
+            properties.store(out, null);
+        } catch(IOException ex) {
+            throw new TokenRepositoryException("Error encoding token as properties", ex);
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+    
+    
+    @Override
+    public Token decode(ByteBuffer data) {
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        Properties properties = new Properties();
+        try {
+            properties.load(new ByteArrayInputStream(bytes));
+        } catch(IOException | IllegalArgumentException ex) {
+            throw new TokenRepositoryException("Corrupt properties token", ex);
+        }
+        if(!properties.containsKey(Token.ACCESS_TOKEN)) {
+            throw new TokenRepositoryException("Invalid token " + properties);
+        }
+        Token.Builder builder = new Token.Builder(null);
+        properties.forEach((Object name, Object value) -> builder.parameter((String) name, (String) value));
+        return builder.build();
+    }
+    
+    
+    /**
+     * Properties files have no header, any data is accepted.
+     */
+    @Override
+    public boolean canDecode(ByteBuffer data) {
+        return true;
+    }
+    
+}
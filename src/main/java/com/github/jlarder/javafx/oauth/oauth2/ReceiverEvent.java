@@ -36,7 +36,7 @@ public class ReceiverEvent extends Event {
     
     private final Map<String, String> params;
     
-    private final String provider;
+    private final TokenKey key;
     
     private final OAuth2Properties oauthProperties;
     
@@ -45,9 +45,15 @@ public class ReceiverEvent extends Event {
     
     public ReceiverEvent(EventType<? extends Event> type, Map<String, String> params,
             String provider, OAuth2Properties props, TokenHandler handler) {
+        this(type, params, TokenKey.of(provider), props, handler);
+    }
+    
+    
+    public ReceiverEvent(EventType<? extends Event> type, Map<String, String> params,
+            TokenKey key, OAuth2Properties props, TokenHandler handler) {
         super(type);
         this.params = params;
-        this.provider = provider;
+        this.key = key;
         this.oauthProperties = props;
         this.tokenHandler = handler;
     }
@@ -59,7 +65,12 @@ public class ReceiverEvent extends Event {
     
     
     public String getProvider() {
-        return provider;
+        return key.getProvider();
+    }
+    
+    
+    public TokenKey getKey() {
+        return key;
     }
     
     
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the web engine from connecting to the redirect URI of an
+ * authentication in progress. The location change of a redirect is seen
+ * while the web engine follows it, but cancelling the load at that point
+ * does not stop the request, which would pass the code to whatever listens
+ * at the redirect URI. Installed in front of the default proxy selector,
+ * this selector answers requests to a guarded redirect URI with a proxy
+ * which refuses the connection, other requests go to the previous selector.
+ *
+ * @author Andrey Kazakov
+ */
+final class RedirectGuard extends ProxySelector {
+
+    /** Connecting to port 0 fails right away. */
+    private static final Proxy REFUSING_PROXY = new Proxy(Proxy.Type.HTTP,
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+    /** How long a received redirect stays guarded, the connection is retried. */
+    private static final long RECEIVED_TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+
+    private final ProxySelector delegate;
+
+    private final Set<Guard> guards = ConcurrentHashMap.newKeySet();
+
+
+    private RedirectGuard(ProxySelector delegate) {
+        this.delegate = delegate;
+    }
+
+
+    /**
+     * Guards the redirect URI until {@link Guard#close()}, installs the
+     * selector if it is not the default one yet.
+     */
+    static synchronized Guard guard(String redirectUri) {
+        ProxySelector current = ProxySelector.getDefault();
+        RedirectGuard selector;
+        if(current instanceof RedirectGuard) {
+            selector = (RedirectGuard) current;
+        } else {
+            selector = new RedirectGuard(current);
+            ProxySelector.setDefault(selector);
+        }
+        Guard guard = selector.new Guard(redirectUri);
+        selector.guards.add(guard);
+        return guard;
+    }
+
+
+    @Override
+    public List<Proxy> select(URI uri) {
+        String target = uri.toString();
+        long now = System.nanoTime();
+        for(Guard guard : guards) {
+            if(guard.received && now - guard.receivedAt > RECEIVED_TIMEOUT) {
+                guards.remove(guard);
+            } else if(target.startsWith(guard.redirectUri)) {
+                return List.of(REFUSING_PROXY);
+            }
+        }
+        return delegate != null ? delegate.select(uri) : List.of(Proxy.NO_PROXY);
+    }
+
+
+    @Override
+    public void connectFailed(URI uri, SocketAddress address, IOException ex) {
+        if(delegate != null && !REFUSING_PROXY.address().equals(address)) delegate.connectFailed(uri, address, ex);
+    }
+
+
+    /**
+     * The guard of one authentication.
+     */
+    final class Guard implements AutoCloseable {
+
+        private final String redirectUri;
+
+        private volatile boolean received;
+
+        private volatile long receivedAt;
+
+
+        private Guard(String redirectUri) {
+            this.redirectUri = redirectUri;
+        }
+
+
+        /**
+         * Keeps the redirect URI guarded after {@link #close()} for a while,
+         * the web engine follows the redirect after the window is closed.
+         */
+        void received() {
+            receivedAt = System.nanoTime();
+            received = true;
+        }
+
+
+        @Override
+        public void close() {
+            if(!received) guards.remove(this);
+        }
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+/**
+ * Serializes token refreshes across processes sharing a token store.
+ *
+ * @author Andrey Kazakov
+ */
+public interface RefreshLock {
+    
+    /**
+     * Blocks until the refresh lock of the token is acquired or the timeout
+     * of the implementation has passed.
+     *
+     * @return the acquired lock or null on timeout
+     */
+    Handle acquire(TokenKey key);
+    
+    
+    interface Handle extends AutoCloseable {
+        
+        @Override
+        void close();
+        
+    }
+    
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.time.Duration;
+
+/**
+ * Retry and circuit breaker settings of a token endpoint.
+ *
+ * @author Andrey Kazakov
+ */
+public class ResiliencePolicy {
+    
+    public static final ResiliencePolicy DEFAULT = new Builder().build();
+    
+    public static final ResiliencePolicy NO_RETRY = new Builder().maxAttempts(1).build();
+    
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final double multiplier;
+    private final double jitter;
+    private final int failureThreshold;
+    private final Duration openDuration;
+    
+    
+    private ResiliencePolicy(Builder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.initialBackoff = builder.initialBackoff;
+        this.maxBackoff = builder.maxBackoff;
+        this.multiplier = builder.multiplier;
+        this.jitter = builder.jitter;
+        this.failureThreshold = builder.failureThreshold;
+        this.openDuration = builder.openDuration;
+    }
+    
+    
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+    
+    
+    public Duration getInitialBackoff() {
+        return initialBackoff;
+    }
+    
+    
+    public Duration getMaxBackoff() {
+        return maxBackoff;
+    }
+    
+    
+    public double getMultiplier() {
+        return multiplier;
+    }
+    
+    
+    public double getJitter() {
+        return jitter;
+    }
+    
+    
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+    
+    
+    public Duration getOpenDuration() {
+        return openDuration;
+    }
+    
+    
+    /**
+     * @param attempt number of the failed attempt, starting with 1
+     * @param random value in the range [0, 1)
+     * @return the delay before the next attempt without the Retry-After hint
+     */
+    long backoffMillis(int attempt, double random) {
+        double delay = initialBackoff.toMillis() * Math.pow(multiplier, attempt - 1);
+        delay = Math.min(delay, maxBackoff.toMillis());
+        return (long) (delay * (1 - jitter * random));
+    }
+    
+    
+    @Override
+    public String toString() {
+        return "ResiliencePolicy{" + "maxAttempts=" + maxAttempts + ", initialBackoff=" + initialBackoff
+                + ", maxBackoff=" + maxBackoff + ", multiplier=" + multiplier + ", jitter=" + jitter
+                + ", failureThreshold=" + failureThreshold + ", openDuration=" + openDuration + '}';
+    }
+    
+    
+    public static final class Builder {
+        
+        private int maxAttempts = 3;
+        private Duration initialBackoff = Duration.ofMillis(500);
+        private Duration maxBackoff = Duration.ofSeconds(10);
+        private double multiplier = 2;
+        private double jitter = 0.5;
+        private int failureThreshold = 5;
+        private Duration openDuration = Duration.ofSeconds(30);
+        
+        
+        /**
+         * Total number of attempts including the first one.
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if(maxAttempts < 1) throw new IllegalArgumentException("maxAttempts must be positive");
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+        
+        
+        public Builder initialBackoff(Duration initialBackoff) {
+            this.initialBackoff = initialBackoff;
+            return this;
+        }
+        
+        
+        /**
+         * Upper bound of a single delay, a longer Retry-After ends the retries.
+         */
+        public Builder maxBackoff(Duration maxBackoff) {
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+        
+        
+        public Builder multiplier(double multiplier) {
+            if(multiplier < 1) throw new IllegalArgumentException("multiplier must be at least 1");
+            this.multiplier = multiplier;
+            return this;
+        }
+        
+        
+        /**
+         * Fraction of the delay that is randomized, from 0 to 1.
+         */
+        public Builder jitter(double jitter) {
+            if(jitter < 0 || jitter > 1) throw new IllegalArgumentException("jitter must be in [0, 1]");
+            this.jitter = jitter;
+            return this;
+        }
+        
+        
+        /**
+         * Number of consecutive failed requests that opens the circuit,
+         * 0 disables the circuit breaker.
+         */
+        public Builder failureThreshold(int failureThreshold) {
+            if(failureThreshold < 0) throw new IllegalArgumentException("negative failureThreshold");
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+        
+        
+        /**
+         * How long requests fail fast before a trial request is let through.
+         */
+        public Builder openDuration(Duration openDuration) {
+            this.openDuration = openDuration;
+            return this;
+        }
+        
+        
+        public ResiliencePolicy build() {
+            return new ResiliencePolicy(this);
+        }
+    }
+    
+}
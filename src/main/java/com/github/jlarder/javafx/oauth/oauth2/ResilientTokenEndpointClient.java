@@ -0,0 +1,244 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Retries transient failures of the delegate client with exponential
+ * backoff and fails fast while the circuit of an endpoint is open.
+ * Transient failures are transport errors, 429 and 5xx responses and the
+ * {@code temporarily_unavailable} error code. Policies are set per token
+ * endpoint, that is per provider.
+ * <p>
+ * Refresh token and authorization code grants are not idempotent: a
+ * provider which rotates refresh tokens answers a repeated request with
+ * {@code invalid_grant}. They are retried only if no connection was made,
+ * other failures are passed to the caller after the first attempt.
+ *
+ * @author Andrey Kazakov
+ */
+public class ResilientTokenEndpointClient implements TokenEndpointClient {
+    
+    private static final Log LOG = LogFactory.getLog(ResilientTokenEndpointClient.class);
+    
+    private final TokenEndpointClient delegate;
+    
+    private final Map<String, ResiliencePolicy> policies = new ConcurrentHashMap<>();
+    
+    private final Map<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    
+    private volatile ResiliencePolicy defaultPolicy;
+    
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    
+    
+    public ResilientTokenEndpointClient(TokenEndpointClient delegate) {
+        this(delegate, ResiliencePolicy.DEFAULT);
+    }
+    
+    
+    public ResilientTokenEndpointClient(TokenEndpointClient delegate, ResiliencePolicy defaultPolicy) {
+        if(delegate == null) throw new IllegalArgumentException("delegate is null");
+        this.delegate = delegate;
+        this.defaultPolicy = defaultPolicy;
+    }
+    
+    
+    @Override
+    public Map<String, String> requestToken(String endpoint, Map<String, String> params) {
+        return execute(endpoint, params, () -> {
+            Map<String, String> response = delegate.requestToken(endpoint, params);
+            if(TokenError.TEMPORARILY_UNAVAILABLE.equals(response.get("error"))) {
+                throw new TokenErrorException(TokenError.fromMap(response));
+            }
+            return response;
+        });
+    }
+    
+    
+    @Override
+    public Token requestAccessToken(String endpoint, Map<String, String> params) {
+        return execute(endpoint, params, () -> delegate.requestAccessToken(endpoint, params));
+    }
+    
+    
+    private <T> T execute(String endpoint, Map<String, String> params, Supplier<T> call) {
+        ResiliencePolicy policy = getPolicy(endpoint);
+        CircuitBreaker circuitBreaker = getCircuitBreaker(endpoint);
+        boolean replayable = isReplayable(params);
+        RuntimeException lastFailure = null;
+        
+        for(int attempt = 1; ; attempt++) {
+            if(!circuitBreaker.tryAcquire(policy, System.currentTimeMillis())) {
+                rejections.increment();
+                if(lastFailure != null) throw lastFailure;
+                TokenError error = new TokenError();
+                error.setError(TokenError.TEMPORARILY_UNAVAILABLE);
+                throw new TokenErrorException(error, "Circuit of " + endpoint + " is open");
+            }
+            
+            requests.increment();
+            Duration retryAfter;
+            RuntimeException failure;
+            try {
+                T result = call.get();
+                circuitBreaker.onSuccess();
+                return result;
+            } catch(TokenEndpointException ex) {
+                if(!isTransient(ex)) {
+                    circuitBreaker.onSuccess();
+                    throw ex;
+                }
+                retryAfter = ex.getRetryAfter();
+                failure = ex;
+            } catch(TokenErrorException ex) {
+                String error = ex.getError().getError();
+                if(TokenError.COMMON_ERROR.equals(error)) {
+                    circuitBreaker.onIgnored();
+                    throw ex;
+                } else if(!TokenError.TEMPORARILY_UNAVAILABLE.equals(error)) {
+                    circuitBreaker.onSuccess();
+                    throw ex;
+                }
+                retryAfter = null;
+                failure = ex;
+            } catch(RuntimeException ex) {
+                circuitBreaker.onIgnored();
+                throw ex;
+            }
+            
+            failures.increment();
+            circuitBreaker.onFailure(policy, System.currentTimeMillis());
+            lastFailure = failure;
+            if(!replayable && !isConnectFailure(failure)) throw failure;
+            
+            long delay = Math.max(policy.backoffMillis(attempt, ThreadLocalRandom.current().nextDouble()),
+                    retryAfter != null ? retryAfter.toMillis() : 0);
+            if(attempt >= policy.getMaxAttempts() || delay > policy.getMaxBackoff().toMillis()) {
+                throw failure;
+            }
+            
+            LOG.debug("Token request to " + endpoint + " failed (" + failure.getMessage() 
+                    + "), retry " + attempt + " in " + delay + " ms");
+            retries.increment();
+            sleep(delay, failure);
+        }
+    }
+    
+    
+    public void setDefaultPolicy(ResiliencePolicy policy) {
+        if(policy == null) throw new IllegalArgumentException("policy is null");
+        defaultPolicy = policy;
+    }
+    
+    
+    public ResiliencePolicy getDefaultPolicy() {
+        return defaultPolicy;
+    }
+    
+    
+    /**
+     * Sets the policy of the token endpoint of one provider, 
+     * see {@link OAuth2Properties#getTokenRequestEndpoint()}.
+     */
+    public void setPolicy(String endpoint, ResiliencePolicy policy) {
+        if(policy == null) {
+            policies.remove(endpoint);
+        } else {
+            policies.put(endpoint, policy);
+        }
+    }
+    
+    
+    public ResiliencePolicy getPolicy(String endpoint) {
+        return policies.getOrDefault(endpoint, defaultPolicy);
+    }
+    
+    
+    public CircuitBreaker.State getCircuitState(String endpoint) {
+        CircuitBreaker circuitBreaker = circuitBreakers.get(endpoint);
+        return circuitBreaker != null ? circuitBreaker.getState() : CircuitBreaker.State.CLOSED;
+    }
+    
+    
+    public long getRequestCount() {
+        return requests.sum();
+    }
+    
+    
+    public long getRetryCount() {
+        return retries.sum();
+    }
+    
+    
+    public long getFailureCount() {
+        return failures.sum();
+    }
+    
+    
+    public long getRejectedCount() {
+        return rejections.sum();
+    }
+    
+    
+    public TokenEndpointClient getDelegate() {
+        return delegate;
+    }
+    
+    
+    private CircuitBreaker getCircuitBreaker(String endpoint) {
+        return circuitBreakers.computeIfAbsent(endpoint, (String e) -> new CircuitBreaker());
+    }
+    
+    
+    private static boolean isReplayable(Map<String, String> params) {
+        String grantType = params.get("grant_type");
+        return !"refresh_token".equals(grantType) && !"authorization_code".equals(grantType);
+    }
+    
+    
+    private static boolean isConnectFailure(RuntimeException failure) {
+        return failure instanceof TokenEndpointException && ((TokenEndpointException) failure).isConnectFailure();
+    }
+    
+    
+    private static boolean isTransient(TokenEndpointException ex) {
+        int status = ex.getStatusCode();
+        return status == 0 || status == 408 || status == 429 || status >= 500;
+    }
+    
+    
+    private static void sleep(long delay, RuntimeException failure) {
+        try {
+            Thread.sleep(delay);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw failure;
+        }
+    }
+    
+}
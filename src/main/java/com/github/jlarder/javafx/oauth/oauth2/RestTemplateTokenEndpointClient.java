@@ -0,0 +1,143 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * {@link TokenEndpointClient} on top of Spring's {@link RestTemplate}.
+ *
+ * @author Andrey Kazakov
+ */
+public class RestTemplateTokenEndpointClient implements TokenEndpointClient {
+    
+    private static final Log LOG = LogFactory.getLog(RestTemplateTokenEndpointClient.class);
+    
+    private final RestTemplate restTemplate;
+    
+    private final TokenResponseParser parser = new TokenResponseParser();
+    
+    
+    public RestTemplateTokenEndpointClient() {
+        this(HttpClientTokenEndpointClient.DEFAULT_CONNECT_TIMEOUT,
+                HttpClientTokenEndpointClient.DEFAULT_REQUEST_TIMEOUT);
+    }
+    
+    
+    public RestTemplateTokenEndpointClient(Duration connectTimeout, Duration readTimeout) {
+        this(getConfiguredRestTemplate(connectTimeout, readTimeout));
+    }
+    
+    
+    public RestTemplateTokenEndpointClient(RestTemplate restTemplate) {
+        this.restTemplate = restTemplate;
+    }
+    
+    
+    @Override
+    public Map<String, String> requestToken(String endpoint, Map<String, String> params) {
+        Map<String, String> response = send(endpoint, params, 
+                (ClientHttpResponse r) -> parser.parse(r.getBody(), r.getHeaders().getContentLength()));
+        return response != null ? response : new HashMap<>();
+    }
+    
+    
+    @Override
+    public Token requestAccessToken(String endpoint, Map<String, String> params) {
+        return send(endpoint, params, 
+                (ClientHttpResponse r) -> parser.parseToken(r.getBody(), r.getHeaders().getContentLength()));
+    }
+    
+    
+    private <T> T send(String endpoint, Map<String, String> params, ResponseExtractor<T> extractor) {
+        MultiValueMap<String, String> map = new LinkedMultiValueMap<>(); 
+        params.entrySet().forEach((entry) -> {
+            map.add(entry.getKey(), entry.getValue());
+        });                                                                          
+       
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+        HttpEntity<MultiValueMap<String, String>> request = 
+                new HttpEntity<>(map, headers);
+        
+        try {
+            return restTemplate.execute(endpoint, HttpMethod.POST,
+                    restTemplate.httpEntityCallback(request), extractor);
+        } catch (TokenErrorException ex) {
+            LOG.error(ex.getMessage());
+            throw ex;
+        } catch (ResourceAccessException ex) {
+            LOG.error(ex);
+            throw new TokenEndpointException(0, null, "Error requesting token from " + endpoint, ex);
+        } catch (RuntimeException ex){
+            LOG.error(ex);
+            throw new TokenErrorException(new TokenError(), ex);
+        }        
+    }
+    
+    
+    public RestTemplate getRestTemplate() {
+        return restTemplate;
+    }
+    
+    
+    private static RestTemplate getConfiguredRestTemplate(Duration connectTimeout,
+            Duration readTimeout) {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout((int) connectTimeout.toMillis());
+        requestFactory.setReadTimeout((int) readTimeout.toMillis());
+        RestTemplate restTemp = new RestTemplate(requestFactory);
+                
+        restTemp.setErrorHandler(new ResponseErrorHandler() {
+            
+            @Override
+            public boolean hasError(ClientHttpResponse response) throws IOException { 
+                return !(response.getStatusCode() == HttpStatus.OK ||
+                        response.getStatusCode() == HttpStatus.BAD_REQUEST);
+            }
+            
+            @Override
+            public void handleError(ClientHttpResponse response) throws IOException {
+                throw new TokenEndpointException(response.getRawStatusCode(),
+                        TokenEndpointException.parseRetryAfter(
+                                response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)),
+                        "Response Error: status code " + response.getRawStatusCode());
+            }
+        });
+        return restTemp;
+    }
+    
+}
@@ -17,116 +17,219 @@ package com.github.jlarder.javafx.oauth.oauth2;
 
 import java.util.HashMap;
 import java.util.Map;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
+import java.util.function.Consumer;
 
 /**
+ * OAuth 2.0 token. The standard parameters are kept in fields and the expiry
+ * instant is computed once, provider specific parameters are kept in a small
+ * map. {@link #getAll()} returns the same parameters {@link #fromMap(Map)}
+ * accepts.
+ * <p>
+ * Tokens are treated as values: {@link #merge(Token)} and {@link Builder}
+ * produce new instances. The deprecated setters are kept for source
+ * compatibility, each of them swaps in a new snapshot of the parameters so
+ * a concurrent reader never sees a half applied change.
  *
  * @author Andrey Kazakov
  */
-
 public class Token {
     
-    private static final Log LOG = LogFactory.getLog(Token.class);
-    
-    private final Map<String, String> parameters;
+    public static final String ACCESS_TOKEN = "access_token";
+    public static final String REFRESH_TOKEN = "refresh_token";
+    public static final String SCOPE = "scope";
+    public static final String EXPIRES_IN = "expires_in";
+    public static final String CREATION_TIMESTAMP = "creation_timestamp";
     
+    private static final int UNKNOWN_EXPIRES_IN = Integer.MIN_VALUE;
+    private static final long UNKNOWN_TIMESTAMP = Long.MIN_VALUE;
     
-    private Token() {
-        parameters = new HashMap<>();
-    }
+    private volatile State state;
     
     
     public Token(String accessToken) {
-        parameters = new HashMap<>();
-        parameters.put("access_token", accessToken);
+        this(new Builder(accessToken));
     }
     
     
-    public void setAccessToken(String accessToken) {
-        parameters.put("access_token", accessToken);
+    private Token(Builder builder) {
+        this.state = new State(builder);
     }
     
     
     public String getAccessToken() {
-        return parameters.get("access_token");
+        return state.accessToken;
     }
     
     
-    public void setRefreshToken(String refreshToken) {
-        parameters.put("refresh_token", refreshToken);
+    public String getRefreshToken() {
+        return state.refreshToken;
     }
     
     
-    public String getRefreshToken() {
-        return parameters.get("refresh_token");
+    public String getScope() {
+        return state.scope;
     }
 
     
     public Integer getExpiresIn() {
-        try {
-            return Integer.parseInt(parameters.get("expires_in"));
-        } catch(NumberFormatException ex) {
-            LOG.error("Invalid expires_in value", ex);
-            return null;
-        }
+        int expiresIn = state.expiresIn;
+        return expiresIn != UNKNOWN_EXPIRES_IN ? expiresIn : null;
     }
-
     
-    public void setExpiresIn(Integer expiresIn) {
-        parameters.put("expires_in", expiresIn.toString());
+    
+    public Long getCreationTimestamp() {
+        long creationTimestamp = state.creationTimestamp;
+        return creationTimestamp != UNKNOWN_TIMESTAMP ? creationTimestamp : null;
     }
-
-      
-    public void set(String key, String value) {
-        parameters.put(key, value);
+    
+    
+    /**
+     * @return expiry instant in epoch milliseconds or null if the token does not expire
+     */
+    public Long getExpirationTime() {
+        long expiresAt = state.expiresAt;
+        return expiresAt != Long.MAX_VALUE ? expiresAt : null;
+    }
+    
+    
+    /**
+     * @return parameters other than the standard ones, unmodifiable
+     */
+    Map<String, String> getExtras() {
+        return state.extras;
     }
     
     
     public String get(String key) {
-        return parameters.get(key);
+        State state = this.state;
+        switch(key) {
+            case ACCESS_TOKEN: return state.accessToken;
+            case REFRESH_TOKEN: return state.refreshToken;
+            case SCOPE: return state.scope;
+            case EXPIRES_IN: 
+                return state.expiresIn != UNKNOWN_EXPIRES_IN ? Integer.toString(state.expiresIn) : state.extras.get(key);
+            case CREATION_TIMESTAMP: 
+                return state.creationTimestamp != UNKNOWN_TIMESTAMP ? 
+                        Long.toString(state.creationTimestamp) : state.extras.get(key);
+            default: return state.extras.get(key);
+        }
     }
 
     
+    /**
+     * Returns a snapshot of the parameters. Unlike earlier versions the map
+     * is not backed by the token, changes to it do not affect the token;
+     * use {@link #toBuilder()} to derive a modified token.
+     * 
+     * @return a new map with all parameters of the token
+     */
     public Map<String, String> getAll() {
+        State state = this.state;
+        Map<String, String> parameters = new HashMap<>(state.extras);
+        parameters.put(ACCESS_TOKEN, state.accessToken);
+        if(state.refreshToken != null) parameters.put(REFRESH_TOKEN, state.refreshToken);
+        if(state.scope != null) parameters.put(SCOPE, state.scope);
+        if(state.expiresIn != UNKNOWN_EXPIRES_IN) parameters.put(EXPIRES_IN, Integer.toString(state.expiresIn));
+        if(state.creationTimestamp != UNKNOWN_TIMESTAMP) {
+            parameters.put(CREATION_TIMESTAMP, Long.toString(state.creationTimestamp));
+        }
         return parameters;
     }
     
     
-    public void setAll(Map<String, String> params) {
-        parameters.putAll(params);
+    /**
+     * @deprecated tokens are shared between threads and caches, 
+     * use {@link #toBuilder()} instead
+     */
+    @Deprecated
+    public void setAccessToken(String accessToken) {
+        if(accessToken == null) throw new IllegalArgumentException("access_token is missing");
+        modify(builder -> builder.accessToken(accessToken));
     }
     
     
-    public Long getCreationTimestamp() {
-        try {
-            return Long.parseLong(parameters.get("creation_timestamp"));
-        } catch(NumberFormatException ex) {
-            LOG.error("Invalid creation_time value", ex);
-            return null;
-        }
+    /**
+     * @deprecated use {@link #toBuilder()} instead
+     */
+    @Deprecated
+    public void setRefreshToken(String refreshToken) {
+        modify(builder -> builder.refreshToken(refreshToken));
     }
     
     
+    /**
+     * @deprecated use {@link #toBuilder()} instead
+     */
+    @Deprecated
+    public void setExpiresIn(Integer expiresIn) {
+        modify(builder -> builder.expiresIn(expiresIn));
+    }
+    
+    
+    /**
+     * @deprecated use {@link #toBuilder()} instead
+     */
+    @Deprecated
     public void setCreationTimestamp(Long timestamp) {
-        parameters.put("creation_timestamp", timestamp.toString());
+        modify(builder -> builder.creationTimestamp(timestamp));
     }
     
     
-    public boolean isExpired() {
-        Integer expiresIn = getExpiresIn();
-        Long creationTimestamp = getCreationTimestamp();
-        if(expiresIn == null || creationTimestamp == null) return false;         
-        return expiresIn != 0 
-                && System.currentTimeMillis() >= creationTimestamp + expiresIn * 1000; 
+    /**
+     * @deprecated use {@link #toBuilder()} instead
+     */
+    @Deprecated
+    public void set(String key, String value) {
+        modify(builder -> builder.parameter(key, value));
     }
     
     
+    /**
+     * @deprecated use {@link #toBuilder()} instead
+     */
+    @Deprecated
+    public void setAll(Map<String, String> params) {
+        modify(builder -> params.forEach(builder::parameter));
+    }
+    
+    
+    /**
+     * @deprecated use {@link #merge(Token)} instead
+     */
+    @Deprecated
     public void update(Token newToken) {
-        setAll(newToken.getAll());
+        State newState = newToken.state;
+        modify(builder -> builder.merge(newState));
+    }
+    
+    
+    public boolean isExpired() {
+        return isExpired(0);
+    }
+    
+    
+    /**
+     * @param clockSkew milliseconds the token is considered expired before its expiry instant
+     */
+    public boolean isExpired(long clockSkew) {
+        return System.currentTimeMillis() + clockSkew >= state.expiresAt; 
+    }
+    
+    
+    /**
+     * @return a token with the parameters of this token overridden by 
+     * the parameters of the newer one
+     */
+    public Token merge(Token newToken) {
+        return toBuilder().merge(newToken).build();
     } 
     
     
+    public Builder toBuilder() {
+        State state = this.state;
+        return new Builder(state.accessToken).merge(state);
+    }
+    
     
     public static Token fromMap(Map<String, String> map) {
         return fromMap(map, null);
@@ -134,17 +237,157 @@ public class Token {
     
   
     public static Token fromMap(Map<String, String> map, Long creationTimestamp) { 
-        if(!map.containsKey("access_token")) throw new IllegalArgumentException("access_token is missing");
-        Token accessToken = new Token();
-        accessToken.setAll(map);
-        if(creationTimestamp != null) accessToken.setCreationTimestamp(creationTimestamp);
-        return accessToken;
+        if(!map.containsKey(ACCESS_TOKEN)) throw new IllegalArgumentException("access_token is missing");
+        Builder builder = new Builder(map.get(ACCESS_TOKEN));
+        map.forEach(builder::parameter);
+        if(creationTimestamp != null) builder.creationTimestamp(creationTimestamp);
+        return builder.build();
     }
     
 
     @Override
     public String toString() {
-        return "Token{" + "parameters=" + parameters + '}';
+        return "Token{" + "parameters=" + getAll() + '}';
+    }
+    
+    
+    private synchronized void modify(Consumer<Builder> change) {
+        Builder builder = toBuilder();
+        change.accept(builder);
+        state = new State(builder);
+    }
+    
+    
+    private static final class State {
+        
+        private final String accessToken;
+        private final String refreshToken;
+        private final String scope;
+        private final int expiresIn;
+        private final long creationTimestamp;
+        private final long expiresAt;
+        private final Map<String, String> extras;
+        
+        
+        private State(Builder builder) {
+            this.accessToken = builder.accessToken;
+            this.refreshToken = builder.refreshToken;
+            this.scope = builder.scope;
+            this.expiresIn = builder.expiresIn;
+            this.creationTimestamp = builder.creationTimestamp;
+            this.extras = builder.extras == null ? Map.of() : Map.copyOf(builder.extras);
+            this.expiresAt = (expiresIn != 0 && expiresIn != UNKNOWN_EXPIRES_IN 
+                    && creationTimestamp != UNKNOWN_TIMESTAMP) ? 
+                    creationTimestamp + expiresIn * 1000L : Long.MAX_VALUE;
+        }
+    }
+    
+    
+    public static final class Builder {
+        
+        private String accessToken;
+        private String refreshToken;
+        private String scope;
+        private int expiresIn = UNKNOWN_EXPIRES_IN;
+        private long creationTimestamp = UNKNOWN_TIMESTAMP;
+        private Map<String, String> extras;
+        
+        
+        public Builder(String accessToken) {
+            this.accessToken = accessToken;
+        }
+        
+        
+        public Builder accessToken(String accessToken) {
+            this.accessToken = accessToken;
+            return this;
+        }
+        
+        
+        public Builder refreshToken(String refreshToken) {
+            this.refreshToken = refreshToken;
+            return this;
+        }
+        
+        
+        public Builder scope(String scope) {
+            this.scope = scope;
+            return this;
+        }
+        
+        
+        /**
+         * @param expiresIn lifetime in seconds, 0 means the token never 
+         * expires and a negative value means it is already expired
+         */
+        public Builder expiresIn(int expiresIn) {
+            this.expiresIn = expiresIn;
+            return this;
+        }
+        
+        
+        public Builder creationTimestamp(long creationTimestamp) {
+            this.creationTimestamp = creationTimestamp;
+            return this;
+        }
+        
+        
+        /**
+         * Sets a parameter by its wire name, values of numeric parameters
+         * that can not be parsed are kept as they are.
+         */
+        public Builder parameter(String key, String value) {
+            if(value == null) return this;
+            switch(key) {
+                case ACCESS_TOKEN: accessToken = value; return this;
+                case REFRESH_TOKEN: refreshToken = value; return this;
+                case SCOPE: scope = value; return this;
+                case EXPIRES_IN:
+                    try {
+                        return expiresIn(Integer.parseInt(value.trim()));
+                    } catch(NumberFormatException ex) {
+                        expiresIn = UNKNOWN_EXPIRES_IN;
+                        return extra(key, value);
+                    }
+                case CREATION_TIMESTAMP:
+                    try {
+                        return creationTimestamp(Long.parseLong(value.trim()));
+                    } catch(NumberFormatException ex) {
+                        creationTimestamp = UNKNOWN_TIMESTAMP;
+                        return extra(key, value);
+                    }
+                default: return extra(key, value);
+            }
+        }
+        
+        
+        public Builder merge(Token token) {
+            return merge(token.state);
+        }
+        
+        
+        private Builder merge(State token) {
+            accessToken = token.accessToken;
+            if(token.refreshToken != null) refreshToken = token.refreshToken;
+            if(token.scope != null) scope = token.scope;
+            if(token.expiresIn != UNKNOWN_EXPIRES_IN) expiresIn = token.expiresIn;
+            if(token.creationTimestamp != UNKNOWN_TIMESTAMP) creationTimestamp = token.creationTimestamp;
+            token.extras.forEach(this::extra);
+            return this;
+        }
+        
+        
+        public Token build() {
+            if(accessToken == null) throw new IllegalArgumentException("access_token is missing");
+            return new Token(this);
+        }
+        
+        
+        private Builder extra(String key, String value) {
+            if(extras == null) extras = new HashMap<>(4);
+            extras.put(key, value);
+            return this;
+        }
     }
    
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary layout of a stored token: the key id followed by the parameter
+ * count and the parameter names and values. Strings are stored as a length
+ * (int) and UTF-8 bytes.
+ *
+ * @author Andrey Kazakov
+ */
+final class TokenBinaryFormat {
+
+    private TokenBinaryFormat() {
+    }
+
+
+    static byte[] encodeToken(TokenKey key, Token token) {
+        Map<String, String> parameters = token.getAll();
+        byte[][] strings = new byte[parameters.size() * 2 + 1][];
+        strings[0] = key.getId().getBytes(StandardCharsets.UTF_8);
+        int length = 4 + strings[0].length + 4;
+        int i = 1;
+        for(Map.Entry<String, String> entry : parameters.entrySet()) {
+            strings[i] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            strings[i + 1] = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            length += 8 + strings[i].length + strings[i + 1].length;
+            i += 2;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(strings[0].length).put(strings[0]);
+        buffer.putInt(parameters.size());
+        for(i = 1; i < strings.length; i++) {
+            buffer.putInt(strings[i].length).put(strings[i]);
+        }
+        return buffer.array();
+    }
+
+
+    /**
+     * Reads a token encoded by {@link #encodeToken}, including its key id.
+     */
+    static Token decodeToken(ByteBuffer buffer) {
+        decodeString(buffer);
+        int count = buffer.getInt();
+        Map<String, String> parameters = new HashMap<>(count * 2);
+        for(int i = 0; i < count; i++) {
+            parameters.put(decodeString(buffer), decodeString(buffer));
+        }
+        return Token.fromMap(parameters);
+    }
+
+
+    static byte[] encodeString(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(4 + bytes.length).putInt(bytes.length).put(bytes).array();
+    }
+
+
+    static String decodeString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if(length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        String s;
+        if(buffer.hasArray()) {
+            s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                    StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return s;
+    }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Serializes tokens to bytes. Encoded data starts with a header telling the
+ * codec and the format version, so data written by any known codec can be
+ * read back with {@link TokenCodecs#decode(ByteBuffer)}. Implementations
+ * are registered by name, see {@link TokenCodecs#forName(String)}.
+ *
+ * @author Andrey Kazakov
+ */
+public interface TokenCodec {
+    
+    String getName();
+    
+    ByteBuffer encode(Token token);
+    
+    /**
+     * @throws TokenRepositoryException if the data is corrupt or of an unsupported version
+     */
+    Token decode(ByteBuffer data);
+    
+    /**
+     * Tells by the header whether the data was written by this codec, 
+     * without consuming it.
+     */
+    boolean canDecode(ByteBuffer data);
+    
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The built-in token codecs and the lookup of the registered ones.
+ * Additional codecs are found with {@link ServiceLoader} or added with
+ * {@link #register(TokenCodec)}.
+ *
+ * @author Andrey Kazakov
+ */
+public final class TokenCodecs {
+    
+    public static final TokenCodec BINARY = new BinaryTokenCodec();
+    
+    public static final TokenCodec JSON = new JsonTokenCodec();
+    
+    /**
+     * The format of {@link java.util.Properties} files, the last resort of 
+     * the detection as it has no header.
+     */
+    public static final TokenCodec PROPERTIES = new PropertiesTokenCodec();
+    
+    private static final List<TokenCodec> CODECS = new CopyOnWriteArrayList<>(List.of(BINARY, JSON));
+    
+    static {
+        ServiceLoader.load(TokenCodec.class).forEach(CODECS::add);
+    }
+    
+    
+    private TokenCodecs() {
+    }
+    
+    
+    public static void register(TokenCodec codec) {
+        CODECS.add(codec);
+    }
+    
+    
+    /**
+     * @throws IllegalArgumentException if no codec has the name
+     */
+    public static TokenCodec forName(String name) {
+        if(PROPERTIES.getName().equals(name)) return PROPERTIES;
+        for(TokenCodec codec : CODECS) {
+            if(codec.getName().equals(name)) return codec;
+        }
+        throw new IllegalArgumentException("Unknown token codec " + name);
+    }
+    
+    
+    /**
+     * @return the codec that wrote the data, {@link #PROPERTIES} if none recognizes it
+     */
+    public static TokenCodec detect(ByteBuffer data) {
+        for(TokenCodec codec : CODECS) {
+            if(codec.canDecode(data)) return codec;
+        }
+        return PROPERTIES;
+    }
+    
+    
+    public static Token decode(ByteBuffer data) {
+        return detect(data).decode(data);
+    }
+    
+}
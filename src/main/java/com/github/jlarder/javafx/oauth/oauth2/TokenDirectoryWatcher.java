@@ -0,0 +1,167 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Watches token directories and reports changed files in batches. Events
+ * are collected until none arrives for the debounce interval, or for at
+ * most ten intervals, and repeated events of one file are reported once.
+ * An empty batch means events were lost and everything may have changed.
+ *
+ * @author Andrey Kazakov
+ */
+class TokenDirectoryWatcher implements AutoCloseable {
+
+    private static final Log LOG = LogFactory.getLog(TokenDirectoryWatcher.class);
+
+    private static final int MAX_DEBOUNCE_INTERVALS = 10;
+
+    private final WatchService watchService;
+
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+
+    private final Predicate<Path> filter;
+
+    private final Predicate<Path> subdirectoryFilter;
+
+    private final Consumer<Set<Path>> handler;
+
+    private final long debounce;
+
+    private final Thread thread;
+
+
+    /**
+     * @param filter selects the files to report
+     * @param subdirectoryFilter selects new subdirectories to watch as well
+     * @param handler receives the changed files
+     * @param debounce milliseconds without events before a batch is reported
+     */
+    TokenDirectoryWatcher(Predicate<Path> filter, Predicate<Path> subdirectoryFilter,
+            Consumer<Set<Path>> handler, long debounce) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.filter = filter;
+        this.subdirectoryFilter = subdirectoryFilter;
+        this.handler = handler;
+        this.debounce = Math.max(debounce, 1);
+        thread = new Thread(this::run, "token-files-watcher");
+        thread.setDaemon(true);
+    }
+
+
+    void register(Path dir) throws IOException {
+        WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        directories.put(key, dir);
+    }
+
+
+    void start() {
+        thread.start();
+    }
+
+
+    @Override
+    public void close() {
+        thread.interrupt();
+        try {
+            watchService.close();
+        } catch(IOException ex) {
+            LOG.warn("Error closing the token directory watcher", ex);
+        }
+    }
+
+
+    private void run() {
+        Set<Path> changed = new LinkedHashSet<>();
+        boolean overflow = false;
+        long firstEvent = 0;
+        try {
+            while(true) {
+                WatchKey key = changed.isEmpty() && !overflow ? 
+                        watchService.take() : watchService.poll(debounce, TimeUnit.MILLISECONDS);
+                if(key != null) {
+                    if(changed.isEmpty() && !overflow) firstEvent = System.currentTimeMillis();
+                    overflow |= collect(key, changed);
+                    if(System.currentTimeMillis() - firstEvent < debounce * MAX_DEBOUNCE_INTERVALS) continue;
+                }
+                if(changed.isEmpty() && !overflow) continue;
+                Set<Path> batch = overflow ? new LinkedHashSet<>() : changed;
+                changed = new LinkedHashSet<>();
+                overflow = false;
+                try {
+                    handler.accept(batch);
+                } catch(RuntimeException ex) {
+                    LOG.error("Error handling changed token files " + batch, ex);
+                }
+            }
+        } catch(InterruptedException | ClosedWatchServiceException ex) {
+            LOG.debug("Token directory watcher stopped");
+        }
+    }
+
+
+    /**
+     * @return whether events were lost
+     */
+    private boolean collect(WatchKey key, Set<Path> changed) {
+        Path dir = directories.get(key);
+        boolean overflow = false;
+        for(WatchEvent<?> event : key.pollEvents()) {
+            if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE && subdirectoryFilter.test(path)
+                    && Files.isDirectory(path)) {
+                try {
+                    register(path);
+                    try(Stream<Path> files = Files.list(path)) {
+                        files.filter(filter).forEach(changed::add);
+                    }
+                } catch(IOException ex) {
+                    LOG.warn("Unable to watch " + path, ex);
+                }
+            } else if(filter.test(path)) {
+                changed.add(path);
+            }
+        }
+        if(!key.reset()) directories.remove(key);
+        return overflow;
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.util.Map;
+
+/**
+ * Transport used by {@link OAuth2Service} to call token endpoints.
+ *
+ * @author Andrey Kazakov
+ */
+public interface TokenEndpointClient {
+    
+    /**
+     * Posts the form-encoded parameters to the token endpoint.
+     *
+     * @return the parameters of the token or error response
+     * @throws TokenErrorException if the endpoint could not be called or
+     * answered with an unexpected status
+     */
+    Map<String, String> requestToken(String endpoint, Map<String, String> params);
+    
+    
+    /**
+     * Posts the form-encoded parameters to the token endpoint, clients
+     * override it to read the response straight into the token.
+     *
+     * @return the token created now
+     * @throws TokenErrorException with the error of an error response, or 
+     * if the endpoint could not be called or answered with an unexpected status
+     */
+    default Token requestAccessToken(String endpoint, Map<String, String> params) {
+        Map<String, String> response = requestToken(endpoint, params);
+        if(response.containsKey(Token.ACCESS_TOKEN)) {
+            return Token.fromMap(response, System.currentTimeMillis());
+        } else if(response.containsKey("error")) {
+            throw new TokenErrorException(TokenError.fromMap(response));
+        }
+        throw new TokenErrorException(new TokenError(), "Unknown token response " + response.keySet());
+    }
+    
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * The token endpoint could not be reached or answered with an unexpected
+ * HTTP status.
+ *
+ * @author Andrey Kazakov
+ */
+public class TokenEndpointException extends TokenErrorException {
+    
+    private final int statusCode;
+    
+    private final Duration retryAfter;
+    
+    
+    /**
+     * @param statusCode HTTP status code, 0 if no response was received
+     * @param retryAfter value of the Retry-After header or null
+     */
+    public TokenEndpointException(int statusCode, Duration retryAfter, String message) {
+        this(statusCode, retryAfter, message, null);
+    }
+    
+    
+    public TokenEndpointException(int statusCode, Duration retryAfter, String message, Throwable t) {
+        super(toTokenError(statusCode), message, t);
+        this.statusCode = statusCode;
+        this.retryAfter = retryAfter;
+    }
+    
+    
+    public int getStatusCode() {
+        return statusCode;
+    }
+    
+    
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+    
+    
+    /**
+     * @return true if no connection to the endpoint was made, so the 
+     * request can not have been processed
+     */
+    public boolean isConnectFailure() {
+        if(statusCode != 0) return false;
+        for(Throwable cause = getCause(); cause != null; cause = cause.getCause()) {
+            if(cause instanceof ConnectException || cause instanceof NoRouteToHostException
+                    || cause instanceof UnknownHostException || cause instanceof HttpConnectTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    
+    /**
+     * Parses a Retry-After header given either in seconds or as an HTTP-date.
+     *
+     * @return the delay or null if the value is missing or invalid
+     */
+    public static Duration parseRetryAfter(String value) {
+        if(value == null || value.isBlank()) return null;
+        try {
+            return Duration.ofSeconds(Math.max(Long.parseLong(value.trim()), 0));
+        } catch(NumberFormatException ex) {
+            try {
+                ZonedDateTime date = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                Duration delay = Duration.between(ZonedDateTime.now(date.getZone()), date);
+                return delay.isNegative() ? Duration.ZERO : delay;
+            } catch(DateTimeParseException e) {
+                return null;
+            }
+        }
+    }
+    
+    
+    private static TokenError toTokenError(int statusCode) {
+        TokenError error = new TokenError();
+        if(statusCode == 429 || statusCode == 503) {
+            error.setError(TokenError.TEMPORARILY_UNAVAILABLE);
+        } else if(statusCode >= 500) {
+            error.setError(TokenError.SERVER_ERROR);
+        }
+        return error;
+    }
+    
+}
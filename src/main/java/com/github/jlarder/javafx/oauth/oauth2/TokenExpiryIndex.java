@@ -0,0 +1,244 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Index of token expiry instants ordered by time. Insertion, removal and
+ * range queries are logarithmic in the number of tokens. Listeners are
+ * notified on a background thread once a token expires.
+ *
+ * @author Andrey Kazakov
+ */
+public class TokenExpiryIndex implements AutoCloseable {
+    
+    private static final Log LOG = LogFactory.getLog(TokenExpiryIndex.class);
+    
+    private final Map<TokenKey, Entry> entries = new ConcurrentHashMap<>();
+    
+    private final NavigableSet<Entry> byExpiry = new ConcurrentSkipListSet<>();
+    
+    private final NavigableSet<Entry> pendingNotifications = new ConcurrentSkipListSet<>();
+    
+    private final List<TokenExpiryListener> listeners = new CopyOnWriteArrayList<>();
+    
+    private final AtomicLong sequence = new AtomicLong();
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    
+    private final Condition changed = lock.newCondition();
+    
+    private Thread notifier;
+    
+    private volatile boolean closed;
+    
+    
+    /**
+     * Adds, moves or, for a token that never expires, removes the entry of the key.
+     */
+    public void update(TokenKey key, Token token) {
+        update(key, token.getExpirationTime());
+    }
+    
+    
+    public void update(TokenKey key, Long expirationTime) {
+        if(expirationTime == null) {
+            remove(key);
+            return;
+        }
+        Entry[] added = new Entry[1];
+        entries.compute(key, (TokenKey k, Entry previous) -> {
+            if(previous != null && previous.expirationTime == expirationTime) return previous;
+            if(previous != null) {
+                byExpiry.remove(previous);
+                pendingNotifications.remove(previous);
+            }
+            Entry entry = new Entry(k, expirationTime, sequence.incrementAndGet());
+            byExpiry.add(entry);
+            pendingNotifications.add(entry);
+            added[0] = entry;
+            return entry;
+        });
+        if(added[0] != null && !listeners.isEmpty()) signal();
+    }
+    
+    
+    public void remove(TokenKey key) {
+        entries.computeIfPresent(key, (TokenKey k, Entry previous) -> {
+            byExpiry.remove(previous);
+            pendingNotifications.remove(previous);
+            return null;
+        });
+    }
+    
+    
+    public void clear() {
+        entries.clear();
+        byExpiry.clear();
+        pendingNotifications.clear();
+    }
+    
+    
+    public Long getExpirationTime(TokenKey key) {
+        Entry entry = entries.get(key);
+        return entry != null ? entry.expirationTime : null;
+    }
+    
+    
+    /**
+     * @return keys of tokens that expire within the given number of
+     * milliseconds, including already expired ones, soonest first
+     */
+    public List<TokenKey> getExpiringWithin(long millis) {
+        return getExpiringBefore(System.currentTimeMillis() + millis);
+    }
+    
+    
+    /**
+     * @return keys of tokens that expire at or before the given instant, soonest first
+     */
+    public List<TokenKey> getExpiringBefore(long time) {
+        List<TokenKey> result = new ArrayList<>();
+        for(Entry entry : byExpiry.headSet(new Entry(null, time, Long.MAX_VALUE), true)) {
+            result.add(entry.key);
+        }
+        return result;
+    }
+    
+    
+    public int size() {
+        return entries.size();
+    }
+    
+    
+    public void addListener(TokenExpiryListener listener) {
+        listeners.add(listener);
+        startNotifier();
+    }
+    
+    
+    public void removeListener(TokenExpiryListener listener) {
+        listeners.remove(listener);
+    }
+    
+    
+    @Override
+    public void close() {
+        closed = true;
+        signal();
+    }
+    
+    
+    private void startNotifier() {
+        lock.lock();
+        try {
+            if(notifier != null || closed) return;
+            notifier = new Thread(this::notifyExpired, "token-expiry-notifier");
+            notifier.setDaemon(true);
+            notifier.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    
+    private void signal() {
+        lock.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    
+    private void notifyExpired() {
+        while(!closed) {
+            List<Entry> due = new ArrayList<>();
+            lock.lock();
+            try {
+                long now = System.currentTimeMillis();
+                Entry head = pendingNotifications.isEmpty() ? null : pendingNotifications.first();
+                if(head == null) {
+                    changed.await();
+                } else if(head.expirationTime > now) {
+                    changed.await(head.expirationTime - now, TimeUnit.MILLISECONDS);
+                } else {
+                    Entry entry;
+                    while((entry = pendingNotifications.pollFirst()) != null) {
+                        if(entry.expirationTime > now) {
+                            pendingNotifications.add(entry);
+                            break;
+                        }
+                        due.add(entry);
+                    }
+                }
+            } catch(InterruptedException ex) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            due.forEach(this::fire);
+        }
+    }
+    
+    
+    private void fire(Entry entry) {
+        for(TokenExpiryListener listener : listeners) {
+            try {
+                listener.expired(entry.key, entry.expirationTime);
+            } catch(RuntimeException ex) {
+                LOG.error("Token expiry listener failed for " + entry.key, ex);
+            }
+        }
+    }
+    
+    
+    private static final class Entry implements Comparable<Entry> {
+        
+        private final TokenKey key;
+        
+        private final long expirationTime;
+        
+        private final long sequence;
+        
+        private Entry(TokenKey key, long expirationTime, long sequence) {
+            this.key = key;
+            this.expirationTime = expirationTime;
+            this.sequence = sequence;
+        }
+        
+        @Override
+        public int compareTo(Entry o) {
+            int c = Long.compare(expirationTime, o.expirationTime);
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+    
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Identifies a stored token: the provider, the account (subject) of the
+ * user and optionally the set of granted scopes. The key of a provider 
+ * without account and scopes has the provider name as its id, so tokens
+ * stored before accounts were introduced keep their names.
+ *
+ * @author Andrey Kazakov
+ */
+public final class TokenKey {
+    
+    private static final char ACCOUNT_SEPARATOR = '@';
+    private static final char SCOPE_SEPARATOR = '#';
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    
+    private final String provider;
+    private final String account;
+    private final SortedSet<String> scopes;
+    private final String id;
+    
+    
+    private TokenKey(String provider, String account, SortedSet<String> scopes) {
+        if(provider == null || provider.isEmpty()) throw new IllegalArgumentException("provider is empty");
+        this.provider = provider;
+        this.account = account == null ? "" : account;
+        this.scopes = Collections.unmodifiableSortedSet(scopes);
+        
+        StringBuilder builder = new StringBuilder(encode(provider));
+        if(!this.account.isEmpty()) builder.append(ACCOUNT_SEPARATOR).append(encode(this.account));
+        if(!scopes.isEmpty()) builder.append(SCOPE_SEPARATOR).append(encode(String.join(" ", scopes)));
+        this.id = builder.toString();
+    }
+    
+    
+    public static TokenKey of(String provider) {
+        return new TokenKey(provider, null, new TreeSet<>());
+    }
+    
+    
+    public static TokenKey of(String provider, String account) {
+        return new TokenKey(provider, account, new TreeSet<>());
+    }
+    
+    
+    public static TokenKey of(String provider, String account, Collection<String> scopes) {
+        SortedSet<String> set = new TreeSet<>();
+        if(scopes != null) {
+            scopes.stream().filter((String s) -> s != null && !s.isBlank()).forEach(set::add);
+        }
+        return new TokenKey(provider, account, set);
+    }
+    
+    
+    /**
+     * Restores a key from its {@link #getId() id}.
+     */
+    public static TokenKey parse(String id) {
+        int scopeIndex = id.indexOf(SCOPE_SEPARATOR);
+        String scopePart = scopeIndex >= 0 ? id.substring(scopeIndex + 1) : null;
+        String rest = scopeIndex >= 0 ? id.substring(0, scopeIndex) : id;
+        int accountIndex = rest.indexOf(ACCOUNT_SEPARATOR);
+        String provider = decode(accountIndex >= 0 ? rest.substring(0, accountIndex) : rest);
+        String account = accountIndex >= 0 ? decode(rest.substring(accountIndex + 1)) : null;
+        SortedSet<String> scopes = new TreeSet<>();
+        if(scopePart != null) {
+            for(String scope : decode(scopePart).split(" ")) {
+                if(!scope.isEmpty()) scopes.add(scope);
+            }
+        }
+        return new TokenKey(provider, account, scopes);
+    }
+    
+    
+    public String getProvider() {
+        return provider;
+    }
+    
+    
+    /**
+     * @return the account or an empty string for the default account of the provider
+     */
+    public String getAccount() {
+        return account;
+    }
+    
+    
+    public SortedSet<String> getScopes() {
+        return scopes;
+    }
+    
+    
+    /**
+     * @return a unique string form of the key that is safe to use as a file name
+     */
+    public String getId() {
+        return id;
+    }
+    
+    
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) return true;
+        if(!(o instanceof TokenKey)) return false;
+        return id.equals(((TokenKey) o).id);
+    }
+    
+    
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
+    
+    
+    @Override
+    public String toString() {
+        return id;
+    }
+    
+    
+    private static String encode(String s) {
+        StringBuilder builder = new StringBuilder(s.length());
+        for(byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || (c == '.' && builder.length() > 0)) {
+                builder.append(c);
+            } else {
+                builder.append('%').append(HEX[c >> 4]).append(HEX[c & 0xf]);
+            }
+        }
+        return builder.toString();
+    }
+    
+    
+    private static String decode(String s) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(s.length());
+        for(int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if(c == '%' && i + 2 < s.length()) {
+                out.write(Integer.parseInt(s.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                out.write(c);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+    
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Lists the ids of the tokens in a token directory so that it does not have
+ * to be scanned. The file is a journal of lines {@code +id} and {@code -id},
+ * an unterminated last line left by a crash is ignored. Additions are
+ * written before the token file, removals after it, so the manifest may list
+ * a missing token but never misses an existing one.
+ *
+ * @author Andrey Kazakov
+ */
+class TokenManifest implements AutoCloseable {
+
+    static final String FILE_NAME = ".manifest";
+
+    private static final int MIN_COMPACTION_RECORDS = 1024;
+
+    private final Path file;
+
+    private final boolean sync;
+
+    private FileChannel channel;
+
+    private int records;
+
+    private long size;
+
+
+    TokenManifest(Path file, boolean sync) {
+        this.file = file;
+        this.sync = sync;
+    }
+
+
+    /**
+     * @return the listed ids or null if there is no manifest yet
+     */
+    synchronized Set<String> load() throws IOException {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+        } catch(NoSuchFileException ex) {
+            size = 0;
+            return null;
+        }
+        size = data.length;
+        Set<String> ids = new LinkedHashSet<>();
+        records = 0;
+        int start = 0;
+        for(int i = 0; i < data.length; i++) {
+            if(data[i] != '\n') continue;
+            if(i - start > 1) {
+                String id = new String(data, start + 1, i - start - 1, StandardCharsets.UTF_8);
+                if(data[start] == '+') {
+                    ids.add(id);
+                } else if(data[start] == '-') {
+                    ids.remove(id);
+                }
+                records++;
+            }
+            start = i + 1;
+        }
+        return ids;
+    }
+
+
+    synchronized void add(String id) throws IOException {
+        append('+', id, sync);
+    }
+
+
+    synchronized void remove(String id) throws IOException {
+        append('-', id, false);
+    }
+
+
+    /**
+     * Replaces the journal with one addition per id.
+     */
+    synchronized void rewrite(Collection<String> ids, AtomicFileWriter writer) throws IOException {
+        StringBuilder content = new StringBuilder(ids.size() * 32);
+        ids.forEach((String id) -> content.append('+').append(id).append('\n'));
+        close();
+        byte[] data = content.toString().getBytes(StandardCharsets.UTF_8);
+        writer.write(file, data);
+        records = ids.size();
+        size = data.length;
+    }
+
+
+    /**
+     * @return whether superseded records outnumber the live ones enough to rewrite the journal
+     */
+    synchronized boolean needsCompaction(int liveCount) {
+        return records > MIN_COMPACTION_RECORDS && records > 2 * liveCount;
+    }
+
+
+    /**
+     * @return whether another process changed the journal since this one 
+     * last loaded or wrote it
+     */
+    synchronized boolean isChangedOnDisk() throws IOException {
+        try {
+            return Files.size(file) != size;
+        } catch(NoSuchFileException ex) {
+            return size != 0;
+        }
+    }
+
+
+    @Override
+    public synchronized void close() throws IOException {
+        if(channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+
+    private void append(char type, String id, boolean force) throws IOException {
+        if(channel == null) {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap((type + id + "\n").getBytes(StandardCharsets.UTF_8));
+        size += buffer.remaining();
+        while(buffer.hasRemaining()) channel.write(buffer);
+        if(force) channel.force(false);
+        records++;
+    }
+
+}
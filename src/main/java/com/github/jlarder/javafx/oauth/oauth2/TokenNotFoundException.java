@@ -21,19 +21,31 @@ package com.github.jlarder.javafx.oauth.oauth2;
  */
 public class TokenNotFoundException extends TokenRepositoryException {
     
-    private final String provider;
+    private final TokenKey key;
     
     public TokenNotFoundException(String provider, String message) {
-        super(message);
-        this.provider = provider;
+        this(TokenKey.of(provider), message);
     }
 
     public TokenNotFoundException(String provider, String message, Throwable cause) {
+        this(TokenKey.of(provider), message, cause);
+    }
+    
+    public TokenNotFoundException(TokenKey key, String message) {
+        super(message);
+        this.key = key;
+    }
+
+    public TokenNotFoundException(TokenKey key, String message, Throwable cause) {
         super(message, cause);
-        this.provider = provider;
+        this.key = key;
     }
     
     public String getProvider() {
-        return provider;
+        return key.getProvider();
+    }
+    
+    public TokenKey getKey() {
+        return key;
     }
 }
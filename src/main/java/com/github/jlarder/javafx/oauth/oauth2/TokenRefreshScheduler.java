@@ -0,0 +1,171 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Refreshes tokens in the background shortly before they expire.
+ * Each refresh is moved forward by a random jitter so that tokens
+ * loaded at the same time do not hit their token endpoints at once.
+ * Scheduling a token again with an unchanged expiry keeps the pending
+ * task, replaced tasks are removed from the queue right away.
+ *
+ * @author Andrey Kazakov
+ */
+public class TokenRefreshScheduler {
+
+    private static final Log LOG = LogFactory.getLog(TokenRefreshScheduler.class);
+
+    public static final long DEFAULT_LEAD_TIME = 60000;
+
+    public static final long DEFAULT_JITTER = 30000;
+
+    private final Map<TokenKey, ScheduledRefresh> tasks = new ConcurrentHashMap<>();
+
+    private final ScheduledThreadPoolExecutor executor;
+
+    private final long leadTime;
+
+    private final long jitter;
+
+
+    public TokenRefreshScheduler() {
+        this(DEFAULT_LEAD_TIME, DEFAULT_JITTER);
+    }
+
+
+    /**
+     * @param leadTime how many milliseconds before expiry the token is refreshed
+     * @param jitter upper bound in milliseconds of the random shift of each refresh
+     */
+    public TokenRefreshScheduler(long leadTime, long jitter) {
+        if(leadTime < 0 || jitter < 0) throw new IllegalArgumentException("negative lead time or jitter");
+        this.leadTime = leadTime;
+        this.jitter = jitter;
+        this.executor = new ScheduledThreadPoolExecutor(1, (Runnable r) -> {
+            Thread thread = new Thread(r, "token-refresh-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+
+    /**
+     * Schedules the refresh task of the token on the scheduler thread, see
+     * {@link #schedule(TokenKey, Token, Runnable, Executor)}.
+     */
+    public boolean schedule(TokenKey key, Token token, Runnable refreshTask) {
+        return schedule(key, token, refreshTask, Runnable::run);
+    }
+
+
+    /**
+     * Schedules the refresh task of the token, replacing the previous one
+     * unless that is still pending for the same expiry. When it is due the
+     * task is handed to the executor, so that a slow token endpoint does not
+     * hold up the refreshes of other tokens.
+     *
+     * @return false if the token never expires or can not be refreshed
+     */
+    public boolean schedule(TokenKey key, Token token, Runnable refreshTask, Executor refreshExecutor) {
+        Long expirationTime = token.getExpirationTime();
+        if(expirationTime == null || token.getRefreshToken() == null) {
+            cancel(key);
+            return false;
+        }
+
+        tasks.compute(key, (TokenKey k, ScheduledRefresh current) -> {
+            if(current != null && current.expirationTime == expirationTime && !current.future.isDone()) {
+                return current;
+            }
+            if(current != null) current.future.cancel(false);
+
+            long shift = jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter) : 0;
+            long delay = expirationTime - leadTime - System.currentTimeMillis();
+            delay = (delay > 0) ? Math.max(delay - shift, 0) : shift;
+            ScheduledFuture<?> future = executor.schedule(() -> refreshExecutor.execute(() -> {
+                try {
+                    refreshTask.run();
+                } catch(RuntimeException ex) {
+                    LOG.error("Error refreshing token " + key, ex);
+                }
+            }), delay, TimeUnit.MILLISECONDS);
+            LOG.debug("Refresh of " + key + " token scheduled in " + delay + " ms");
+            return new ScheduledRefresh(expirationTime, future);
+        });
+        return true;
+    }
+
+
+    public void cancel(TokenKey key) {
+        ScheduledRefresh task = tasks.remove(key);
+        if(task != null) task.future.cancel(false);
+    }
+
+
+    public boolean isScheduled(TokenKey key) {
+        ScheduledRefresh task = tasks.get(key);
+        return task != null && !task.future.isDone();
+    }
+
+
+    public void shutdown() {
+        tasks.clear();
+        executor.shutdownNow();
+    }
+
+
+    public long getLeadTime() {
+        return leadTime;
+    }
+
+
+    public long getJitter() {
+        return jitter;
+    }
+
+
+    /**
+     * @return the tasks waiting in the queue of the scheduler thread
+     */
+    int getQueuedTaskCount() {
+        return executor.getQueue().size();
+    }
+
+
+    private static final class ScheduledRefresh {
+
+        private final long expirationTime;
+
+        private final ScheduledFuture<?> future;
+
+        private ScheduledRefresh(long expirationTime, ScheduledFuture<?> future) {
+            this.expirationTime = expirationTime;
+            this.future = future;
+        }
+    }
+
+}
@@ -15,11 +15,19 @@
  */
 package com.github.jlarder.javafx.oauth.oauth2;
 
+import java.util.Map;
+import java.util.Set;
+
 /**
+ * Stores tokens by {@link TokenKey}. Implementations written before keys
+ * existed implement only the provider-name methods, the key-based defaults
+ * pass them the keys of the default account and reject any other key.
+ * Repositories that support several accounts per provider extend
+ * {@link AbstractTokenRepository} instead.
  *
  * @author Andrey Kazakov
  */
-public interface TokenRepository {
+public interface TokenRepository extends AutoCloseable {
     
     void saveToken(String provider, Token token);
     
@@ -27,4 +35,75 @@ public interface TokenRepository {
     
     void removeToken(String provider);
     
+    
+    default void saveToken(TokenKey key, Token token) {
+        saveToken(providerOf(key), token);
+    }
+    
+    
+    default Token getToken(TokenKey key) {
+        return getToken(providerOf(key));
+    }
+    
+    
+    default void removeToken(TokenKey key) {
+        removeToken(providerOf(key));
+    }
+    
+    
+    /**
+     * @return keys of all tokens stored for the provider
+     */
+    default Set<TokenKey> getKeys(String provider) {
+        try {
+            getToken(provider);
+            return Set.of(TokenKey.of(provider));
+        } catch(TokenNotFoundException ex) {
+            return Set.of();
+        }
+    }
+    
+    
+    /**
+     * Reads the token from the underlying store, bypassing any cache.
+     */
+    default Token reloadToken(TokenKey key) {
+        return getToken(key);
+    }
+    
+    
+    /**
+     * Saves the token and returns only once it is in the underlying store,
+     * repositories that defer writes override it to write through.
+     */
+    default void saveTokenNow(TokenKey key, Token token) {
+        saveToken(key, token);
+    }
+    
+    
+    /**
+     * Saves several tokens, repositories able to write them together override it.
+     */
+    default void saveTokens(Map<TokenKey, Token> tokens) {
+        tokens.forEach(this::saveToken);
+    }
+    
+    
+    /**
+     * Releases the files, connections and threads of the repository,
+     * decorators also close their delegate. Closing twice has no effect.
+     */
+    @Override
+    default void close() {
+    }
+    
+    
+    private static String providerOf(TokenKey key) {
+        if(!key.getAccount().isEmpty() || !key.getScopes().isEmpty()) {
+            throw new UnsupportedOperationException("The repository stores one token per provider, "
+                    + "it can not store " + key);
+        }
+        return key.getProvider();
+    }
+    
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Parses token endpoint responses in a single streaming pass. Scalar values
+ * are kept as their text, nested objects and arrays such as
+ * {@code authorization_details} are kept as their JSON text.
+ * {@link #parseToken(InputStream, long)} passes the fields straight to a
+ * {@link Token.Builder}, without an intermediate map.
+ *
+ * @author Andrey Kazakov
+ */
+public class TokenResponseParser {
+    
+    private static final Log LOG = LogFactory.getLog(TokenResponseParser.class);
+    
+    public static final int DEFAULT_MAX_RESPONSE_SIZE = 64 * 1024;
+    
+    /** Parameters of an error response, RFC 6749 section 5.2. */
+    private static final Set<String> ERROR_FIELDS = Set.of("error", "error_description", "error_uri");
+    
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .enable(JsonParser.Feature.STRICT_DUPLICATE_DETECTION)
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+    
+    private final int maxResponseSize;
+    
+    
+    public TokenResponseParser() {
+        this(DEFAULT_MAX_RESPONSE_SIZE);
+    }
+    
+    
+    public TokenResponseParser(int maxResponseSize) {
+        if(maxResponseSize <= 0) throw new IllegalArgumentException("maxResponseSize must be positive");
+        this.maxResponseSize = maxResponseSize;
+    }
+    
+    
+    /**
+     * @param contentLength declared length of the body or -1 if unknown
+     * @throws TokenErrorException if the body is too large or is not a JSON object
+     */
+    public Map<String, String> parse(InputStream body, long contentLength) {
+        Map<String, String> result = new HashMap<>();
+        read(body, contentLength, result::put);
+        return result;
+    }
+    
+    
+    /**
+     * @param contentLength declared length of the body or -1 if unknown
+     * @return the token created now
+     * @throws TokenErrorException with the error of an error response, or if 
+     * the body is too large, is not a JSON object or has no access token
+     */
+    public Token parseToken(InputStream body, long contentLength) {
+        Token.Builder builder = new Token.Builder(null);
+        TokenError error = new TokenError();
+        boolean[] received = new boolean[2];
+        read(body, contentLength, (String name, String value) -> {
+            if(ERROR_FIELDS.contains(name)) {
+                error.set(name, value);
+                if(name.equals("error")) received[1] = true;
+            } else {
+                builder.parameter(name, value);
+                if(name.equals(Token.ACCESS_TOKEN)) received[0] = true;
+            }
+        });
+        if(received[0]) {
+            LOG.debug("a token was received");
+            return builder.creationTimestamp(System.currentTimeMillis()).build();
+        } else if(received[1]) {
+            LOG.debug("an error was received " + error);
+            throw new TokenErrorException(error);
+        }
+        LOG.error("Token response has neither a token nor an error");
+        throw new TokenErrorException(new TokenError());
+    }
+    
+    
+    public int getMaxResponseSize() {
+        return maxResponseSize;
+    }
+    
+    
+    private void read(InputStream body, long contentLength, BiConsumer<String, String> fields) {
+        if(contentLength > maxResponseSize) {
+            throw new TokenErrorException(new TokenError(), "Token response of "
+                    + contentLength + " bytes exceeds the limit of " + maxResponseSize);
+        }
+        try(JsonParser parser = JSON_FACTORY.createParser(new LimitedInputStream(body, maxResponseSize))) {
+            JsonToken token = parser.nextToken();
+            if(token == null) return;
+            if(token != JsonToken.START_OBJECT) {
+                throw new TokenErrorException(new TokenError(), "Token response is not a JSON object");
+            }
+            while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if(value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                    fields.accept(name, copyStructure(parser));
+                } else if(value != JsonToken.VALUE_NULL) {
+                    fields.accept(name, parser.getText());
+                }
+            }
+        } catch(IOException ex) {
+            LOG.error("Invalid token response", ex);
+            throw new TokenErrorException(new TokenError(), ex);
+        }
+    }
+    
+    
+    private static String copyStructure(JsonParser parser) throws IOException {
+        StringWriter writer = new StringWriter();
+        try(JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            generator.copyCurrentStructure(parser);
+        }
+        return writer.toString();
+    }
+    
+    
+    private static final class LimitedInputStream extends FilterInputStream {
+        
+        private long remaining;
+        
+        private LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b >= 0) count(1);
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if(n > 0) count(n);
+            return n;
+        }
+        
+        private void count(int n) throws IOException {
+            remaining -= n;
+            if(remaining < 0) throw new IOException("Token response exceeds the size limit");
+        }
+    }
+    
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Durable writes per second of concurrent savers, each syncing its own
+ * writes against group commit. The files are created under the working 
+ * directory, as a temporary directory may be a RAM disk that ignores syncs.
+ *
+ * @author Andrey Kazakov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class AtomicFileWriterBenchmark {
+
+    @Param({"false", "true"})
+    public boolean groupCommit;
+
+    private final AtomicInteger threads = new AtomicInteger();
+
+    private final byte[] data = new byte[200];
+
+    private Path dir;
+
+    private AtomicFileWriter writer;
+
+
+    @State(Scope.Thread)
+    public static class Target {
+
+        private Path file;
+
+        @Setup(Level.Trial)
+        public void setUp(AtomicFileWriterBenchmark benchmark) {
+            file = benchmark.dir.resolve("saver" + benchmark.threads.incrementAndGet() + ".token");
+        }
+    }
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory(Paths.get("").toAbsolutePath(), "atomic-writer-benchmark");
+        writer = new AtomicFileWriter(true, groupCommit);
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFiles.delete(dir);
+    }
+
+
+    @Benchmark
+    public void write(Target target) throws IOException {
+        writer.write(target.file, data);
+    }
+
+}
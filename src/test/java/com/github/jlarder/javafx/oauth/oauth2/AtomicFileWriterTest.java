@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author Andrey Kazakov
+ */
+public class AtomicFileWriterTest {
+
+    @TempDir
+    Path dir;
+
+
+    @Test
+    public void killedWriterLeavesOnlyCompleteTokenFiles() throws Exception {
+        for(int round = 0; round < 6; round++) {
+            Path tokens = dir.resolve("round" + round);
+            try(ChildJvm child = ChildJvm.start(TokenWriterProcess.class, tokens.toString(), 
+                    Boolean.toString(round % 2 == 1))) {
+                assertTrue(child.await("ready"));
+                Thread.sleep(ThreadLocalRandom.current().nextInt(20, 200));
+                child.kill();
+            }
+
+            FileTokenRepository repository = new FileTokenRepository();
+            repository.setLocation(tokens.toString());
+            for(int i = 0; i < 8; i++) {
+                Token token = repository.getToken(TokenKey.of("p" + i));
+                assertEquals("r" + token.getAccessToken().substring(1), token.getRefreshToken());
+            }
+        }
+    }
+
+
+    @Test
+    public void concurrentGroupCommitsAllComplete() throws Exception {
+        AtomicFileWriter writer = new AtomicFileWriter(true, true);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<?>> writes = new ArrayList<>();
+            for(int i = 0; i < 400; i++) {
+                Path target = dir.resolve("f" + (i % 20));
+                byte[] data = ("v" + i).getBytes(StandardCharsets.UTF_8);
+                writes.add(executor.submit(() -> {
+                    writer.write(target, data);
+                    return null;
+                }));
+            }
+            for(Future<?> write : writes) write.get();
+        } finally {
+            executor.shutdown();
+        }
+        for(int i = 0; i < 20; i++) assertTrue(Files.exists(dir.resolve("f" + i)));
+        try(var files = Files.list(dir)) {
+            assertEquals(20, files.count());
+        }
+    }
+
+
+    @Test
+    public void groupCommitReportsFailureOfItsOwnWrite() throws IOException {
+        AtomicFileWriter writer = new AtomicFileWriter(true, true);
+        writer.write(dir.resolve("ok"), new byte[] {1});
+
+        try {
+            writer.write(dir.resolve("missing").resolve("file"), new byte[] {2});
+            throw new AssertionError("write into a missing directory succeeded");
+        } catch(IOException expected) {
+        }
+        writer.write(dir.resolve("ok"), new byte[] {3});
+        assertArrayEquals(new byte[] {3}, Files.readAllBytes(dir.resolve("ok")));
+    }
+
+
+    @Test
+    public void cleanupDeletesOnlyStaleTemporaryFilesOfTheWriter() throws IOException {
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 2 * AtomicFileWriter.STALE_TEMP_AGE);
+        Path stale = Files.createFile(dir.resolve(".a.token.123.tmp"));
+        Files.setLastModifiedTime(stale, old);
+        Path fresh = Files.createFile(dir.resolve(".b.token.456.tmp"));
+        Path foreign = Files.createFile(dir.resolve("download.tmp"));
+        Files.setLastModifiedTime(foreign, old);
+        Path otherSuffix = Files.createFile(dir.resolve(".c.txt.789.tmp"));
+        Files.setLastModifiedTime(otherSuffix, old);
+
+        AtomicFileWriter.deleteTemporaryFiles(dir, ".token");
+
+        assertFalse(Files.exists(stale));
+        assertTrue(Files.exists(fresh));
+        assertTrue(Files.exists(foreign));
+        assertTrue(Files.exists(otherSuffix));
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Scene;
+import javafx.scene.layout.Pane;
+import javafx.scene.web.WebView;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+import javafx.stage.WindowEvent;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static com.github.jlarder.javafx.oauth.oauth2.FxToolkit.onFxThread;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that closed authentication windows can be collected. Runs on the
+ * headless Monocle platform, skipped where the toolkit can not be started.
+ *
+ * @author Andrey Kazakov
+ */
+public class AuthWindowLeakTest {
+
+    private static final int WINDOWS = 3;
+
+
+    @BeforeAll
+    public static void startToolkit() throws InterruptedException {
+        FxToolkit.start();
+    }
+
+
+    @Test
+    public void closedWindowsAreCollected() throws Exception {
+        OAuth2Service service = ServiceFixture.newService(new InMemoryTokenRepository());
+        Field loader = OAuth2Service.class.getDeclaredField("fxmlLoader");
+        loader.setAccessible(true);
+        loader.set(service, new FXMLLoader());
+        OAuth2Properties props = ServiceFixture.properties("http://127.0.0.1:9/token");
+
+        List<WeakReference<Object>> closed = new ArrayList<>();
+        for(int i = 0; i < WINDOWS; i++) closed.addAll(authenticateAndClose(service, TokenKey.of("p" + i), props));
+
+        paintAnotherWindow();
+        long deadline = System.currentTimeMillis() + 20000;
+        while(closed.stream().anyMatch((WeakReference<Object> ref) -> ref.get() != null)
+                && System.currentTimeMillis() < deadline) {
+            System.gc();
+            onFxThread(() -> null);
+            Thread.sleep(100);
+        }
+        for(WeakReference<Object> ref : closed) {
+            Object leaked = ref.get();
+            assertTrue(leaked == null, () -> "closed window still reachable: " + leaked);
+        }
+    }
+
+
+    /**
+     * Opens the authentication window and closes it like the user does.
+     * 
+     * @return weak references to the window, its web view and web engine
+     */
+    private static List<WeakReference<Object>> authenticateAndClose(OAuth2Service service, TokenKey key,
+            OAuth2Properties props) throws Exception {
+        CompletableFuture<Token> token = service.getTokenAsync(key, props);
+        Stage stage = awaitShowingStage();
+        WebView webView = onFxThread(() -> (WebView) stage.getScene().getRoot().lookup("WebView"));
+        assertNotNull(webView);
+
+        onFxThread(() -> {
+            stage.fireEvent(new WindowEvent(stage, WindowEvent.WINDOW_CLOSE_REQUEST));
+            return null;
+        });
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> token.get(30, TimeUnit.SECONDS));
+        assertTrue(failure.getCause() instanceof TokenErrorException);
+        assertEquals(Boolean.FALSE, onFxThread(stage::isShowing));
+        return List.of(new WeakReference<>(stage), new WeakReference<>(webView), 
+                new WeakReference<>(webView.getEngine()));
+    }
+
+
+    /**
+     * The renderer keeps the scene it painted last, even for a closed
+     * window, so another window is painted before the heap is checked.
+     */
+    private static void paintAnotherWindow() throws Exception {
+        Stage other = onFxThread(() -> {
+            Stage stage = new Stage();
+            stage.setScene(new Scene(new Pane(), 10, 10));
+            stage.show();
+            return stage;
+        });
+        Thread.sleep(1000);
+        onFxThread(() -> {
+            other.close();
+            return null;
+        });
+    }
+
+
+    private static Stage awaitShowingStage() throws Exception {
+        long deadline = System.currentTimeMillis() + 30000;
+        while(System.currentTimeMillis() < deadline) {
+            Stage stage = onFxThread(() -> Window.getWindows().stream()
+                    .filter((Window window) -> window instanceof Stage && window.isShowing())
+                    .map(Stage.class::cast).findFirst().orElse(null));
+            if(stage != null) return stage;
+            Thread.sleep(20);
+        }
+        throw new AssertionError("Authentication window not shown");
+    }
+
+}
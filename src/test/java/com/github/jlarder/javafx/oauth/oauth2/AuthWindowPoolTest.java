@@ -0,0 +1,313 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javafx.animation.AnimationTimer;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.ListChangeListener;
+import javafx.concurrent.Worker;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.scene.web.WebEngine;
+import javafx.scene.web.WebView;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+import javafx.stage.WindowEvent;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static com.github.jlarder.javafx.oauth.oauth2.FxToolkit.onFxThread;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reuse and reset of pooled authentication windows, and the time from the
+ * authentication request to the first paint of the authorization page with
+ * and without the pool. Runs on the headless Monocle platform.
+ *
+ * @author Andrey Kazakov
+ */
+public class AuthWindowPoolTest {
+
+    private static final String AUTH_FXML_FILE = "/com/github/jlarder/javafx/oauth/fxml/auth.fxml";
+
+    private static final int ROUNDS = 5;
+
+    private final AtomicInteger created = new AtomicInteger();
+
+
+    @BeforeAll
+    public static void startToolkit() throws InterruptedException {
+        FxToolkit.start();
+    }
+
+
+    @Test
+    public void releasedWindowIsResetAndReused() throws Exception {
+        AuthWindowPool pool = new AuthWindowPool(this::createWindow, 1);
+        AtomicBoolean handled = new AtomicBoolean();
+
+        AuthWindow window = onFxThread(() -> {
+            AuthWindow acquired = pool.acquire();
+            acquired.addEventHandler(ReceiverEvent.ERROR_RECEIVED_EVENT_TYPE, (ReceiverEvent event) -> handled.set(true));
+            acquired.getStage().setOnHidden((WindowEvent event) -> handled.set(true));
+            pool.release(acquired);
+            return acquired;
+        });
+        awaitPulse();
+
+        Stage stage = window.getStage();
+        onFxThread(() -> {
+            stage.fireEvent(new ReceiverEvent(ReceiverEvent.ERROR_RECEIVED_EVENT_TYPE, null, "p", null, null));
+            return null;
+        });
+        assertFalse(handled.get());
+        assertNull(stage.getOnHidden());
+        assertNull(stage.getOnCloseRequest());
+        assertEquals("about:blank", onFxThread(() -> webView(stage).getEngine().getLocation()));
+
+        assertSame(window, onFxThread(pool::acquire));
+        awaitPulse();
+        assertEquals(1, created.get());
+    }
+
+
+    @Test
+    public void windowsInUseCountTowardTheSize() throws Exception {
+        AuthWindowPool pool = new AuthWindowPool(this::createWindow, 2);
+        onFxThread(() -> {
+            pool.fill();
+            return null;
+        });
+        awaitIdle(pool, 2);
+
+        List<AuthWindow> windows = onFxThread(() -> List.of(pool.acquire(), pool.acquire(), pool.acquire()));
+        awaitPulse();
+        assertEquals(3, created.get());
+
+        int idle = onFxThread(() -> {
+            windows.forEach(pool::release);
+            return pool.getIdleCount();
+        });
+        awaitPulse();
+
+        assertEquals(2, idle);
+        assertNull(windows.get(0).getStage().getScene());
+        assertNotNull(windows.get(1).getStage().getScene());
+        assertNotNull(windows.get(2).getStage().getScene());
+        assertEquals(3, created.get());
+    }
+
+
+    @Test
+    public void clearedPoolDisposesReleasedWindows() throws Exception {
+        AuthWindowPool pool = new AuthWindowPool(this::createWindow, 1);
+        AuthWindow window = onFxThread(() -> {
+            AuthWindow acquired = pool.acquire();
+            pool.clear();
+            pool.release(acquired);
+            return acquired;
+        });
+        awaitPulse();
+
+        assertNull(window.getStage().getScene());
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(1, created.get());
+    }
+
+
+    /**
+     * Measures the time from the request of a token to the first pulse
+     * after the authorization page has loaded, once with a new window per
+     * authentication and once with the pool.
+     */
+    @Test
+    public void openToFirstPaintWithAndWithoutPool() throws Exception {
+        OAuth2Service service = ServiceFixture.newService(new InMemoryTokenRepository());
+        Field loader = OAuth2Service.class.getDeclaredField("fxmlLoader");
+        loader.setAccessible(true);
+        loader.set(service, new FXMLLoader());
+        try(StubLoginPage provider = new StubLoginPage()) {
+            OAuth2Properties props = new OAuth2Properties.AuthorizationCodeBuilder(provider.getConsentUrl(),
+                    "http://127.0.0.1:9/token", provider.getCallbackUrl(), "client").buid();
+            openToFirstPaint(service, props, provider);
+
+            List<Long> unpooled = new ArrayList<>();
+            for(int i = 0; i < ROUNDS; i++) unpooled.add(openToFirstPaint(service, props, provider).time);
+
+            onFxThread(() -> {
+                service.setAuthWindowPoolSize(1);
+                return null;
+            });
+            awaitIdle(authWindowPool(service), 1);
+            List<Long> pooled = new ArrayList<>();
+            Stage pooledStage = null;
+            for(int i = 0; i < ROUNDS; i++) {
+                Paint paint = openToFirstPaint(service, props, provider);
+                if(pooledStage == null) pooledStage = paint.stage;
+                assertSame(pooledStage, paint.stage);
+                pooled.add(paint.time);
+            }
+            onFxThread(() -> {
+                service.setAuthWindowPoolSize(0);
+                return null;
+            });
+
+            System.out.println("open to first paint, median of " + ROUNDS + ": " + median(unpooled) 
+                    + " ms without pool " + unpooled + ", " + median(pooled) + " ms with pool " + pooled);
+        }
+    }
+
+
+    private static Paint openToFirstPaint(OAuth2Service service, OAuth2Properties props,
+            StubLoginPage provider) throws Exception {
+        CompletableFuture<Stage> painted = new CompletableFuture<>();
+        ListChangeListener<Window> shown = (ListChangeListener.Change<? extends Window> change) -> {
+            while(change.next()) {
+                for(Window window : change.getAddedSubList()) {
+                    if(window instanceof Stage) awaitPaint((Stage) window, provider.getConsentUrl(), painted);
+                }
+            }
+        };
+        onFxThread(() -> {
+            Window.getWindows().addListener(shown);
+            return null;
+        });
+        long start = System.nanoTime();
+        CompletableFuture<Token> token = service.getTokenAsync(TokenKey.of("stub"), props);
+        Stage stage = painted.get(30, TimeUnit.SECONDS);
+        long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        onFxThread(() -> {
+            Window.getWindows().removeListener(shown);
+            stage.fireEvent(new WindowEvent(stage, WindowEvent.WINDOW_CLOSE_REQUEST));
+            return null;
+        });
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> token.get(30, TimeUnit.SECONDS));
+        assertTrue(failure.getCause() instanceof TokenErrorException);
+        return new Paint(stage, time);
+    }
+
+
+    /**
+     * Completes the future on the first pulse after the page has loaded.
+     */
+    private static void awaitPaint(Stage stage, String url, CompletableFuture<Stage> painted) {
+        WebEngine engine = webView(stage).getEngine();
+        AnimationTimer pulse = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                stop();
+                painted.complete(stage);
+            }
+        };
+        engine.getLoadWorker().stateProperty().addListener(new ChangeListener<Worker.State>() {
+            @Override
+            public void changed(ObservableValue<? extends Worker.State> observable, Worker.State oldState,
+                    Worker.State state) {
+                if(state != Worker.State.SUCCEEDED || !engine.getLocation().startsWith(url)) return;
+                observable.removeListener(this);
+                pulse.start();
+            }
+        });
+    }
+
+
+    private AuthWindow createWindow() {
+        FXMLLoader loader = new FXMLLoader(getClass().getResource(AUTH_FXML_FILE));
+        Parent view;
+        try {
+            view = loader.load();
+        } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        Stage stage = new Stage();
+        stage.setScene(new Scene(view));
+        created.incrementAndGet();
+        return new AuthWindow(stage, loader.getController());
+    }
+
+
+    private static WebView webView(Stage stage) {
+        return (WebView) stage.getScene().getRoot().lookup("WebView");
+    }
+
+
+    private static AuthWindowPool authWindowPool(OAuth2Service service) throws ReflectiveOperationException {
+        Field field = OAuth2Service.class.getDeclaredField("authWindowPool");
+        field.setAccessible(true);
+        return (AuthWindowPool) field.get(service);
+    }
+
+
+    private static void awaitIdle(AuthWindowPool pool, int count) throws Exception {
+        long deadline = System.currentTimeMillis() + 30000;
+        while(onFxThread(pool::getIdleCount) < count) {
+            if(System.currentTimeMillis() > deadline) throw new AssertionError("Pool not filled");
+            Thread.sleep(20);
+        }
+    }
+
+
+    /**
+     * Lets the runnables queued by the pool run.
+     */
+    private static void awaitPulse() throws Exception {
+        Thread.sleep(200);
+        onFxThread(() -> null);
+    }
+
+
+    private static long median(List<Long> times) {
+        List<Long> sorted = new ArrayList<>(times);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+
+    private static class Paint {
+
+        private final Stage stage;
+
+        private final long time;
+
+
+        Paint(Stage stage, long time) {
+            this.stage = stage;
+            this.time = time;
+        }
+
+    }
+
+}
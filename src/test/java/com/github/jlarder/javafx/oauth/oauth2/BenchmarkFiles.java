@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Temporary directories of the benchmarks.
+ *
+ * @author Andrey Kazakov
+ */
+final class BenchmarkFiles {
+
+    private BenchmarkFiles() {
+    }
+
+
+    static void delete(Path dir) throws IOException {
+        if(!Files.exists(dir)) return;
+        try(Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach((Path file) -> file.toFile().delete());
+        }
+    }
+
+
+    /**
+     * @return bytes taken by the files under the directory
+     */
+    static long size(Path dir) throws IOException {
+        try(Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong((Path file) -> file.toFile().length()).sum();
+        }
+    }
+
+}
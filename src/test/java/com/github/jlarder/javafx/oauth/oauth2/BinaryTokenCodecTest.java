@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ *
+ * @author Andrey Kazakov
+ */
+public class BinaryTokenCodecTest {
+
+    private final BinaryTokenCodec codec = new BinaryTokenCodec();
+
+
+    @Test
+    public void allFieldsRoundTrip() {
+        Token token = Token.fromMap(Map.of("access_token", "a", "refresh_token", "r", "scope", "read write",
+                "expires_in", "-1", "creation_timestamp", "1600000000000", "id_token", "ключ ✓",
+                "authorization_details", "[{\"type\":\"x\"}]"));
+
+        Token decoded = codec.decode(codec.encode(token));
+
+        assertEquals(token.getAll(), decoded.getAll());
+        assertEquals(token.getExpirationTime(), decoded.getExpirationTime());
+    }
+
+
+    @Test
+    public void decodesDirectBuffersAndBuffersAtAnOffset() {
+        Token token = new Token.Builder("a").refreshToken("r").expiresIn(60).creationTimestamp(1000).build();
+        ByteBuffer encoded = codec.encode(token);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(encoded.remaining());
+        direct.put(encoded.duplicate()).flip();
+        assertEquals(token.getAll(), codec.decode(direct).getAll());
+
+        ByteBuffer shifted = ByteBuffer.allocate(encoded.remaining() + 3);
+        shifted.position(3);
+        shifted.put(encoded.duplicate()).position(3);
+        assertEquals(token.getAll(), codec.decode(shifted.slice()).getAll());
+    }
+
+
+    @Test
+    public void detectionPicksTheCodecThatWroteTheData() {
+        Token token = new Token("a");
+
+        assertSame(TokenCodecs.BINARY, TokenCodecs.detect(TokenCodecs.BINARY.encode(token)));
+        assertSame(TokenCodecs.JSON, TokenCodecs.detect(TokenCodecs.JSON.encode(token)));
+        assertSame(TokenCodecs.PROPERTIES, TokenCodecs.detect(
+                ByteBuffer.wrap("#a comment\naccess_token=a\n".getBytes(StandardCharsets.ISO_8859_1))));
+    }
+
+
+    @Test
+    public void unknownVersionAndTagAreRejected() {
+        byte[] encoded = bytes(codec.encode(new Token("a")));
+
+        byte[] version = encoded.clone();
+        version[3] = 99;
+        assertThrows(TokenRepositoryException.class, () -> codec.decode(ByteBuffer.wrap(version)));
+
+        byte[] tag = encoded.clone();
+        tag[4] = 99;
+        assertThrows(TokenRepositoryException.class, () -> codec.decode(ByteBuffer.wrap(tag)));
+    }
+
+
+    @Test
+    public void corruptInputFailsOnlyWithRepositoryException() {
+        Token token = new Token.Builder("access").refreshToken("refresh").expiresIn(3600)
+                .creationTimestamp(System.currentTimeMillis()).parameter("id_token", "id").build();
+        byte[] encoded = bytes(codec.encode(token));
+
+        for(int length = 0; length < encoded.length; length++) {
+            decodeOrReject(Arrays.copyOf(encoded, length));
+        }
+        Random random = new Random(1);
+        for(int i = 0; i < 10000; i++) {
+            byte[] corrupt = encoded.clone();
+            corrupt[4 + random.nextInt(encoded.length - 4)] = (byte) random.nextInt(256);
+            decodeOrReject(corrupt);
+        }
+    }
+
+
+    private void decodeOrReject(byte[] data) {
+        try {
+            codec.decode(ByteBuffer.wrap(data));
+        } catch(TokenRepositoryException ex) {
+            // rejected as corrupt
+        }
+    }
+
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+}
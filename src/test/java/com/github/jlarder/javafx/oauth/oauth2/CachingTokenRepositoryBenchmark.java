@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Read latency of the file repository with and without the cache in front.
+ *
+ * @author Andrey Kazakov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CachingTokenRepositoryBenchmark {
+
+    private static final int TOKENS = 1000;
+
+    private Path dir;
+
+    private FileTokenRepository files;
+
+    private CachingTokenRepository cache;
+
+    private TokenKey[] keys;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("token-cache-benchmark");
+        files = new FileTokenRepository();
+        files.setLocation(dir.toString());
+        files.setSync(false);
+        keys = new TokenKey[TOKENS];
+        for(int i = 0; i < TOKENS; i++) {
+            keys[i] = TokenKey.of("provider" + i);
+            files.saveToken(keys[i], new Token.Builder("access-" + i).refreshToken("refresh-" + i)
+                    .expiresIn(3600).creationTimestamp(System.currentTimeMillis()).build());
+        }
+        cache = new CachingTokenRepository(files, CachingTokenRepository.DEFAULT_FLUSH_INTERVAL, TOKENS, 0);
+        for(TokenKey key : keys) cache.getToken(key);
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        cache.close();
+        BenchmarkFiles.delete(dir);
+    }
+
+
+    @Benchmark
+    public Token fileRepository(Cursor cursor) {
+        return files.getToken(keys[cursor.next()]);
+    }
+
+
+    @Benchmark
+    public Token cachingRepository(Cursor cursor) {
+        return cache.getToken(keys[cursor.next()]);
+    }
+
+
+    @Benchmark
+    @Threads(4)
+    public Token cachingRepositoryConcurrent(Cursor cursor) {
+        return cache.getToken(keys[cursor.next()]);
+    }
+
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int position;
+
+        int next() {
+            position = (position + 1) % TOKENS;
+            return position;
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author Andrey Kazakov
+ */
+public class CachingTokenRepositoryTest {
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        InMemoryTokenRepository delegate = new InMemoryTokenRepository();
+        try(CachingTokenRepository cache = new CachingTokenRepository(delegate, 0, 3, 0)) {
+            for(int i = 0; i < 3; i++) cache.saveToken(TokenKey.of("p" + i), new Token("t" + i));
+            cache.getToken(TokenKey.of("p0"));
+            cache.saveToken(TokenKey.of("p3"), new Token("t3"));
+
+            assertEquals(3, cache.size());
+            assertEquals(1, cache.getEvictionCount());
+            long misses = cache.getMissCount();
+            cache.getToken(TokenKey.of("p0"));
+            assertEquals(misses, cache.getMissCount());
+            cache.getToken(TokenKey.of("p1"));
+            assertEquals(misses + 1, cache.getMissCount());
+        }
+    }
+
+
+    @Test
+    public void savesIntoFullCacheDoNotScanIt() {
+        int size = 10000;
+        InMemoryTokenRepository delegate = new InMemoryTokenRepository();
+        try(CachingTokenRepository cache = new CachingTokenRepository(delegate, 0, size, 0)) {
+            for(int i = 0; i < size; i++) cache.saveToken(TokenKey.of("p" + i), new Token("t"));
+            long start = System.nanoTime();
+            for(int i = 0; i < size; i++) cache.saveToken(TokenKey.of("q" + i), new Token("t"));
+            long elapsed = (System.nanoTime() - start) / 1000000;
+
+            assertEquals(size, cache.size());
+            assertEquals(size, cache.getEvictionCount());
+            assertTrue(elapsed < 2000, "10000 evicting saves took " + elapsed + " ms");
+        }
+    }
+
+
+    @Test
+    public void closingTheOutermostRepositoryFlushesAndClosesTheChain() {
+        InMemoryTokenRepository delegate = new InMemoryTokenRepository();
+        TokenKey key = TokenKey.of("google");
+        TokenRepository repository = new ExpiryIndexedTokenRepository(
+                new CachingTokenRepository(delegate, 60000, 16, 0), List.of("google"));
+        repository.saveToken(key, new Token("access"));
+        assertFalse(delegate.getKeys("google").contains(key));
+
+        repository.close();
+        assertEquals("access", delegate.getToken(key).getAccessToken());
+        assertTrue(delegate.isClosed());
+    }
+
+}
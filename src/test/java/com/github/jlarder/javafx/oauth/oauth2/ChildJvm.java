@@ -0,0 +1,109 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts a class of the test classpath in a separate JVM, for tests that
+ * need a second process or one that can be killed.
+ *
+ * @author Andrey Kazakov
+ */
+final class ChildJvm implements AutoCloseable {
+
+    private final Process process;
+
+    private final BufferedReader output;
+
+    private final Writer input;
+
+
+    private ChildJvm(Process process) {
+        this.process = process;
+        this.output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        this.input = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+    }
+
+
+    static ChildJvm start(Class<?> main, String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(main.getName());
+        command.addAll(List.of(args));
+        return new ChildJvm(new ProcessBuilder(command).redirectErrorStream(true).start());
+    }
+
+
+    /**
+     * Reads the output of the process until a line equal to the given one,
+     * returns false if the process exits first.
+     */
+    boolean await(String line) throws IOException {
+        String read;
+        while((read = output.readLine()) != null) {
+            if(read.equals(line)) return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * @return the next line of the output starting with the given prefix,
+     * null if the process exits first
+     */
+    String readLine(String prefix) throws IOException {
+        String read;
+        while((read = output.readLine()) != null) {
+            if(read.startsWith(prefix)) return read;
+        }
+        return null;
+    }
+
+
+    void send(String line) throws IOException {
+        input.write(line + "\n");
+        input.flush();
+    }
+
+
+    int waitFor(long seconds) throws InterruptedException {
+        if(!process.waitFor(seconds, TimeUnit.SECONDS)) throw new AssertionError("Child JVM did not exit");
+        return process.exitValue();
+    }
+
+
+    void kill() throws InterruptedException {
+        process.destroyForcibly().waitFor();
+    }
+
+
+    @Override
+    public void close() throws InterruptedException {
+        if(process.isAlive()) kill();
+    }
+
+}
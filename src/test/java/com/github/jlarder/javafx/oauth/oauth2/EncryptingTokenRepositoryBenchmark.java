@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of encryption on top of the plaintext store. The in-memory store 
+ * isolates the cipher work, the file store shows it against real I/O, and
+ * the cache in front of the encrypted store is the read path of the app.
+ *
+ * @author Andrey Kazakov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncryptingTokenRepositoryBenchmark {
+
+    private static final int TOKENS = 1000;
+
+    @Param({"memory", "file"})
+    public String store;
+
+    @Param({"plain", "encrypted", "cachedEncrypted"})
+    public String layers;
+
+    private Path dir;
+
+    private TokenRepository repository;
+
+    private TokenKey[] keys;
+
+    private Token token;
+
+    private int next;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        TokenRepository base;
+        if(store.equals("file")) {
+            dir = Files.createTempDirectory("encrypting-token-benchmark");
+            FileTokenRepository files = new FileTokenRepository();
+            files.setLocation(dir.toString());
+            files.setSync(false);
+            base = files;
+        } else {
+            base = new InMemoryTokenRepository();
+        }
+        SecretKey key = new SecretKeySpec(new byte[32], "AES");
+        switch(layers) {
+            case "encrypted": 
+                repository = new EncryptingTokenRepository(base, key); 
+                break;
+            case "cachedEncrypted": 
+                repository = new CachingTokenRepository(new EncryptingTokenRepository(base, key), 
+                        CachingTokenRepository.DEFAULT_FLUSH_INTERVAL, TOKENS, 0);
+                break;
+            default: 
+                repository = base;
+        }
+        token = new Token.Builder("ya29.a0AfH6SMBx3kYw2lQ9pC7uVnRr").refreshToken("1//0gExampleRefreshToken")
+                .expiresIn(3600).creationTimestamp(System.currentTimeMillis()).build();
+        keys = new TokenKey[TOKENS];
+        for(int i = 0; i < TOKENS; i++) {
+            keys[i] = TokenKey.of("provider" + (i % 10), "account" + i);
+            repository.saveTokenNow(keys[i], token);
+        }
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repository.close();
+        if(dir != null) BenchmarkFiles.delete(dir);
+    }
+
+
+    @Benchmark
+    public Token get() {
+        return repository.getToken(nextKey());
+    }
+
+
+    /** Written through, so that the cache does not hide the encryption. */
+    @Benchmark
+    public void save() {
+        repository.saveTokenNow(nextKey(), token);
+    }
+
+
+    private TokenKey nextKey() {
+        next = (next + 7) % TOKENS;
+        return keys[next];
+    }
+
+}
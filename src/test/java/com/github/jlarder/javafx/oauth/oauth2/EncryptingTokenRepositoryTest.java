@@ -0,0 +1,84 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ *
+ * @author Andrey Kazakov
+ */
+public class EncryptingTokenRepositoryTest {
+
+    @TempDir
+    Path dir;
+
+
+    @Test
+    public void concurrentCallersCreateOneKeyFile() throws Exception {
+        Path file = dir.resolve("keys").resolve(".token-key");
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<byte[]>> keys = new ArrayList<>();
+            for(int i = 0; i < 16; i++) {
+                keys.add(executor.submit(() -> {
+                    start.await();
+                    return EncryptingTokenRepository.readOrCreateRandom(file, 32);
+                }));
+            }
+            start.countDown();
+            byte[] first = keys.get(0).get();
+            for(Future<byte[]> key : keys) assertArrayEquals(first, key.get());
+            assertArrayEquals(first, Files.readAllBytes(file));
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+        try(var files = Files.list(file.getParent())) {
+            assertEquals(1, files.count());
+        }
+    }
+
+
+    @Test
+    public void tokensAreStoredEncrypted() {
+        InMemoryTokenRepository delegate = new InMemoryTokenRepository();
+        EncryptingTokenRepository repository = new EncryptingTokenRepository(delegate,
+                EncryptingTokenRepository.readKeyFile(dir.resolve(".token-key")));
+        TokenKey key = TokenKey.of("google");
+        repository.saveToken(key, new Token.Builder("secret").refreshToken("r").build());
+
+        assertNotEquals("secret", delegate.getToken(key).getAccessToken());
+        assertEquals("secret", repository.getToken(key).getAccessToken());
+        assertEquals("r", repository.getToken(key).getRefreshToken());
+    }
+
+}
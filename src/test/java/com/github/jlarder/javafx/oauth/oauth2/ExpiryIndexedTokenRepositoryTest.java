@@ -0,0 +1,125 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author Andrey Kazakov
+ */
+public class ExpiryIndexedTokenRepositoryTest {
+
+    @Test
+    public void seedsIndexWithStoredTokens() {
+        InMemoryTokenRepository delegate = new InMemoryTokenRepository();
+        delegate.saveToken(TokenKey.of("google"), expiring(1000));
+        delegate.saveToken(TokenKey.of("facebook"), expiring(2000));
+        delegate.saveToken(TokenKey.of("other"), expiring(3000));
+
+        ExpiryIndexedTokenRepository repository =
+                new ExpiryIndexedTokenRepository(delegate, List.of("google", "facebook"));
+
+        assertEquals(List.of(TokenKey.of("google"), TokenKey.of("facebook")),
+                repository.getIndex().getExpiringBefore(Long.MAX_VALUE));
+    }
+
+
+    @Test
+    public void failedSaveLeavesNoEntry() {
+        InMemoryTokenRepository delegate = new InMemoryTokenRepository() {
+            @Override
+            public void saveToken(TokenKey key, Token token) {
+                throw new IllegalStateException("disk full");
+            }
+        };
+        ExpiryIndexedTokenRepository repository = new ExpiryIndexedTokenRepository(delegate, List.of());
+
+        assertThrows(IllegalStateException.class, () -> repository.saveToken(TokenKey.of("google"), expiring(1000)));
+        assertNull(repository.getIndex().getExpirationTime(TokenKey.of("google")));
+    }
+
+
+    @Test
+    public void indexMatchesRepositoryAfterConcurrentSavesAndRemovals() throws InterruptedException {
+        InMemoryTokenRepository delegate = new InMemoryTokenRepository();
+        ExpiryIndexedTokenRepository repository = new ExpiryIndexedTokenRepository(delegate, List.of());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        for(int t = 0; t < 8; t++) {
+            boolean saving = t % 2 == 0;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch(InterruptedException ex) {
+                    return;
+                }
+                for(int i = 0; i < 10000; i++) {
+                    TokenKey key = TokenKey.of("p", Integer.toString(i % 16));
+                    if(saving) repository.saveToken(key, expiring(i));
+                    else repository.removeToken(key);
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        for(int i = 0; i < 16; i++) {
+            TokenKey key = TokenKey.of("p", Integer.toString(i));
+            Long stored = delegate.getKeys("p").contains(key) ? delegate.getToken(key).getExpirationTime() : null;
+            assertEquals(stored, repository.getIndex().getExpirationTime(key), key.toString());
+        }
+    }
+
+
+    @Test
+    public void batchSaveGoesToTheDelegateBatchAndTheIndex() {
+        AtomicInteger batches = new AtomicInteger();
+        InMemoryTokenRepository delegate = new InMemoryTokenRepository() {
+            @Override
+            public void saveTokens(Map<TokenKey, Token> tokens) {
+                batches.incrementAndGet();
+                super.saveTokens(tokens);
+            }
+        };
+        ExpiryIndexedTokenRepository repository = new ExpiryIndexedTokenRepository(delegate, List.of());
+
+        repository.saveTokens(Map.of(TokenKey.of("google"), expiring(1), TokenKey.of("facebook"), expiring(2)));
+
+        assertEquals(1, batches.get());
+        assertEquals(Long.valueOf(1000), repository.getIndex().getExpirationTime(TokenKey.of("google")));
+        assertEquals(Long.valueOf(2000), repository.getIndex().getExpirationTime(TokenKey.of("facebook")));
+    }
+
+
+    private static Token expiring(int seconds) {
+        return new Token.Builder("a").expiresIn(seconds).creationTimestamp(0).build();
+    }
+
+}
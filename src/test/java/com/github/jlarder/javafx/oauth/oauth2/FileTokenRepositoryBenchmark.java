@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Get and save latency of the flat and the sharded layout by the number 
+ * of stored tokens. Writes are not synced.
+ *
+ * @author Andrey Kazakov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileTokenRepositoryBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int tokens;
+
+    @Param({"false", "true"})
+    public boolean sharded;
+
+    private Path dir;
+
+    private FileTokenRepository repository;
+
+    private TokenKey[] keys;
+
+    private Token token;
+
+    private int next;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("file-token-benchmark");
+        repository = new FileTokenRepository();
+        repository.setLocation(dir.toString());
+        repository.setSync(false);
+        repository.setSharded(sharded);
+        token = new Token.Builder("ya29.a0AfH6SMBx3kYw2lQ9pC7uVnRr").refreshToken("1//0gExampleRefreshToken")
+                .expiresIn(3600).creationTimestamp(System.currentTimeMillis()).build();
+        keys = new TokenKey[tokens];
+        for(int i = 0; i < tokens; i++) {
+            keys[i] = TokenKey.of("provider" + (i % 10), "account" + i);
+            repository.saveToken(keys[i], token);
+        }
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repository.close();
+        BenchmarkFiles.delete(dir);
+    }
+
+
+    @Benchmark
+    public Token get() {
+        return repository.getToken(nextKey());
+    }
+
+
+    @Benchmark
+    public void save() {
+        repository.saveToken(nextKey(), token);
+    }
+
+
+    private TokenKey nextKey() {
+        next = (next + 7919) % tokens;
+        return keys[next];
+    }
+
+}
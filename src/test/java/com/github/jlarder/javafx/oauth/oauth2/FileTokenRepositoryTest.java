@@ -0,0 +1,147 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author Andrey Kazakov
+ */
+public class FileTokenRepositoryTest {
+
+    @TempDir
+    Path dir;
+
+
+    @Test
+    public void tokenFileNamedAfterTheRawProviderIsStillFound() throws IOException {
+        Path legacy = dir.resolve("my app.token");
+        Files.write(legacy, "access_token=a\n".getBytes(StandardCharsets.ISO_8859_1));
+        FileTokenRepository repository = newRepository(false);
+
+        assertEquals("a", repository.getToken("my app").getAccessToken());
+        assertEquals(Set.of(TokenKey.of("my app")), repository.getKeys("my app"));
+
+        repository.saveToken("my app", new Token("b"));
+
+        assertFalse(Files.exists(legacy));
+        assertTrue(Files.exists(dir.resolve(TokenKey.of("my app").getId() + ".token")));
+        assertEquals("b", repository.getToken("my app").getAccessToken());
+    }
+
+
+    @Test
+    public void shardedRepositorySeesTokensOfAnotherProcess() {
+        FileTokenRepository writer = newRepository(true);
+        FileTokenRepository reader = newRepository(true);
+        TokenKey key = TokenKey.of("google", "alice");
+        assertEquals(Set.of(), reader.getKeys("google"));
+
+        writer.saveToken(key, new Token("a"));
+        assertEquals("a", reader.getToken(key).getAccessToken());
+        assertEquals(Set.of(key), reader.getKeys("google"));
+
+        writer.removeToken(key);
+        assertEquals(Set.of(), reader.getKeys("google"));
+        writer.close();
+        reader.close();
+    }
+
+
+    @Test
+    public void interruptedMigrationIsResumed() throws IOException, InterruptedException {
+        FileTokenRepository sharded = newRepository(true);
+        for(int i = 0; i < 50; i++) sharded.saveToken(TokenKey.of("p", "a" + i), new Token("t" + i));
+        sharded.close();
+        // a crash left the rest in the flat layout and an older copy of a moved token
+        for(int i = 50; i < 100; i++) writeFlat(TokenKey.of("p", "a" + i), "t" + i);
+        writeFlat(TokenKey.of("p", "a0"), "stale");
+
+        FileTokenRepository resumed = newRepository(true);
+        assertEquals(100, resumed.getKeys("p").size());
+        for(int i = 0; i < 100; i++) {
+            assertEquals("t" + i, resumed.getToken(TokenKey.of("p", "a" + i)).getAccessToken());
+        }
+        awaitNoFlatFiles();
+        resumed.close();
+
+        FileTokenRepository reopened = newRepository(true);
+        assertEquals(100, reopened.getKeys("p").size());
+        assertEquals("t99", reopened.getToken(TokenKey.of("p", "a99")).getAccessToken());
+        reopened.close();
+    }
+
+
+    @Test
+    public void closingStopsTheMigration() throws InterruptedException, IOException {
+        FileTokenRepository flat = newRepository(false);
+        for(int i = 0; i < 500; i++) flat.saveToken(TokenKey.of("p", "a" + i), new Token("t" + i));
+
+        FileTokenRepository sharded = newRepository(true);
+        assertEquals(500, sharded.getKeys("p").size());
+        sharded.close();
+        assertFalse(Thread.getAllStackTraces().keySet().stream()
+                .anyMatch((Thread t) -> t.getName().equals("token-files-migration") && t.isAlive()));
+
+        FileTokenRepository resumed = newRepository(true);
+        assertEquals(500, resumed.getKeys("p").size());
+        awaitNoFlatFiles();
+        for(int i = 0; i < 500; i++) {
+            assertEquals("t" + i, resumed.getToken(TokenKey.of("p", "a" + i)).getAccessToken());
+        }
+        resumed.close();
+    }
+
+
+    private void writeFlat(TokenKey key, String accessToken) throws IOException {
+        Files.write(dir.resolve(key.getId() + ".token"), 
+                ("access_token=" + accessToken + "\n").getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+
+    private void awaitNoFlatFiles() throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while(true) {
+            try(Stream<Path> files = Files.list(dir)) {
+                if(files.noneMatch((Path file) -> file.getFileName().toString().endsWith(".token"))) return;
+            }
+            assertTrue(System.currentTimeMillis() < deadline, "flat token files left");
+            Thread.sleep(20);
+        }
+    }
+
+
+    private FileTokenRepository newRepository(boolean sharded) {
+        FileTokenRepository repository = new FileTokenRepository();
+        repository.setLocation(dir.toString());
+        repository.setSync(false);
+        repository.setSharded(sharded);
+        return repository;
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Two repositories sharing a directory, standing in for two processes.
+ *
+ * @author Andrey Kazakov
+ */
+public class FileTokenRepositoryWatchTest {
+
+    @TempDir
+    Path dir;
+
+
+    @Test
+    public void flatDirectoryChangesReachTheOtherRepository() throws InterruptedException {
+        watchBothWays(false);
+    }
+
+
+    @Test
+    public void shardedDirectoryChangesReachTheOtherRepository() throws InterruptedException {
+        watchBothWays(true);
+    }
+
+
+    @Test
+    public void cacheOfTheOtherRepositoryIsInvalidated() throws InterruptedException {
+        FileTokenRepository writer = newRepository(false);
+        FileTokenRepository reader = newRepository(false);
+        TokenKey key = TokenKey.of("google");
+        try(CachingTokenRepository cache = new CachingTokenRepository(reader, 0, 16, 0)) {
+            // listeners run in order, the cache is invalidated before the test sees the change
+            reader.addChangeListener(cache::invalidate);
+            BlockingQueue<TokenKey> changes = watch(reader);
+            writer.saveToken(key, new Token("a"));
+            assertEquals(key, changes.poll(10, TimeUnit.SECONDS));
+            assertEquals("a", cache.getToken(key).getAccessToken());
+
+            writer.saveToken(key, new Token("b"));
+            assertEquals(key, changes.poll(10, TimeUnit.SECONDS));
+            assertEquals("b", cache.getToken(key).getAccessToken());
+        } finally {
+            reader.stopWatching();
+        }
+    }
+
+
+    private void watchBothWays(boolean sharded) throws InterruptedException {
+        FileTokenRepository first = newRepository(sharded);
+        FileTokenRepository second = newRepository(sharded);
+        BlockingQueue<TokenKey> firstChanges = watch(first);
+        BlockingQueue<TokenKey> secondChanges = watch(second);
+        TokenKey key = TokenKey.of("google", "user");
+        try {
+            first.saveToken(key, new Token("a"));
+            assertEquals(key, secondChanges.poll(10, TimeUnit.SECONDS));
+            assertEquals("a", second.getToken(key).getAccessToken());
+
+            second.saveToken(key, new Token("b"));
+            assertEquals(key, firstChanges.poll(10, TimeUnit.SECONDS));
+            assertEquals("b", first.getToken(key).getAccessToken());
+
+            first.removeToken(key);
+            assertEquals(key, secondChanges.poll(10, TimeUnit.SECONDS));
+            assertThrows(TokenNotFoundException.class, () -> second.getToken(key));
+
+            // a repository is not notified of its own writes
+            assertNull(firstChanges.poll(500, TimeUnit.MILLISECONDS));
+        } finally {
+            first.stopWatching();
+            second.stopWatching();
+        }
+    }
+
+
+    private FileTokenRepository newRepository(boolean sharded) {
+        FileTokenRepository repository = new FileTokenRepository();
+        repository.setLocation(dir.toString());
+        repository.setSharded(sharded);
+        repository.setWatchDebounce(20);
+        return repository;
+    }
+
+
+    private static BlockingQueue<TokenKey> watch(FileTokenRepository repository) {
+        BlockingQueue<TokenKey> changes = new LinkedBlockingQueue<>();
+        repository.addChangeListener(changes::add);
+        repository.startWatching();
+        return changes;
+    }
+
+}
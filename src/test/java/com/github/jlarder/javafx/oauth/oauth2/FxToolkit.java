@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javafx.application.Platform;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Starts the JavaFX toolkit once per test JVM on the headless Monocle
+ * platform.
+ *
+ * @author Andrey Kazakov
+ */
+final class FxToolkit {
+
+    private static boolean started;
+
+    private static Throwable failure;
+
+
+    private FxToolkit() {
+    }
+
+
+    /**
+     * Starts the toolkit, the calling test is skipped where it can not be
+     * started.
+     */
+    static synchronized void start() throws InterruptedException {
+        if(!started) {
+            started = true;
+            setDefault("glass.platform", "Monocle");
+            setDefault("monocle.platform", "Headless");
+            setDefault("prism.order", "sw");
+            CountDownLatch latch = new CountDownLatch(1);
+            try {
+                Platform.startup(latch::countDown);
+                Platform.setImplicitExit(false);
+                latch.await(30, TimeUnit.SECONDS);
+            } catch(IllegalStateException ex) {
+                // already started
+            } catch(RuntimeException | LinkageError ex) {
+                failure = ex;
+            }
+        }
+        assumeTrue(failure == null, () -> "JavaFX toolkit not available: " + failure);
+    }
+
+
+    static <T> T onFxThread(Supplier<T> action) throws Exception {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                result.complete(action.get());
+            } catch(RuntimeException ex) {
+                result.completeExceptionally(ex);
+            }
+        });
+        return result.get(30, TimeUnit.SECONDS);
+    }
+
+
+    private static void setDefault(String property, String value) {
+        if(System.getProperty(property) == null) System.setProperty(property, value);
+    }
+
+}
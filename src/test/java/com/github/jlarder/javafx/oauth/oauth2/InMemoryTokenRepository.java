@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps tokens in a map, for tests of the service.
+ *
+ * @author Andrey Kazakov
+ */
+class InMemoryTokenRepository extends AbstractTokenRepository {
+
+    private final Map<TokenKey, Token> tokens = new ConcurrentHashMap<>();
+
+    private volatile boolean closed;
+
+
+    @Override
+    public void saveToken(TokenKey key, Token token) {
+        tokens.put(key, token);
+    }
+
+
+    @Override
+    public Token getToken(TokenKey key) {
+        Token token = tokens.get(key);
+        if(token == null) throw new TokenNotFoundException(key, "Token for " + key + " not found");
+        return token;
+    }
+
+
+    @Override
+    public void removeToken(TokenKey key) {
+        tokens.remove(key);
+    }
+
+
+    @Override
+    public Set<TokenKey> getKeys(String provider) {
+        return tokens.keySet().stream()
+                .filter((TokenKey key) -> key.getProvider().equals(provider))
+                .collect(Collectors.toSet());
+    }
+
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+
+    boolean isClosed() {
+        return closed;
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Load of 1M reads and 100k writes over 10k stored tokens, the H2 file 
+ * database against a file per token. Each iteration is one run of the 
+ * whole load. The file store does not sync its writes, the database 
+ * commits each statement.
+ *
+ * @author Andrey Kazakov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class JdbcTokenRepositoryBenchmark {
+
+    private static final int TOKENS = 10_000;
+
+    private static final int BATCH = 1000;
+
+    @Param({"jdbc", "file"})
+    public String store;
+
+    private Path dir;
+
+    private TokenRepository repository;
+
+    private TokenKey[] keys;
+
+    private Token token;
+
+    private int next;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("jdbc-token-benchmark");
+        if(store.equals("jdbc")) {
+            repository = new JdbcTokenRepository("jdbc:h2:file:" + dir.resolve("tokens").toAbsolutePath());
+        } else {
+            FileTokenRepository files = new FileTokenRepository();
+            files.setLocation(dir.toString());
+            files.setSync(false);
+            repository = files;
+        }
+        keys = new TokenKey[TOKENS];
+        token = new Token.Builder("ya29.a0AfH6SMBx3kYw2lQ9pC7uVnRr").refreshToken("1//0gExampleRefreshToken")
+                .expiresIn(3600).creationTimestamp(System.currentTimeMillis()).build();
+        Map<TokenKey, Token> tokens = new HashMap<>();
+        for(int i = 0; i < TOKENS; i++) {
+            keys[i] = TokenKey.of("provider" + (i % 10), "account" + i);
+            tokens.put(keys[i], token);
+        }
+        repository.saveTokens(tokens);
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repository.close();
+        BenchmarkFiles.delete(dir);
+    }
+
+
+    @Benchmark
+    @Warmup(iterations = 1, batchSize = 1_000_000)
+    @Measurement(iterations = 3, batchSize = 1_000_000)
+    public Token reads() {
+        return repository.getToken(nextKey());
+    }
+
+
+    @Benchmark
+    @Warmup(iterations = 1, batchSize = 100_000)
+    @Measurement(iterations = 3, batchSize = 100_000)
+    public void writes() {
+        repository.saveToken(nextKey(), token);
+    }
+
+
+    /** 100k writes as batches of 1000 tokens. */
+    @Benchmark
+    @Warmup(iterations = 1, batchSize = 100)
+    @Measurement(iterations = 3, batchSize = 100)
+    public void batchedWrites() {
+        Map<TokenKey, Token> batch = new HashMap<>();
+        for(int i = 0; i < BATCH; i++) batch.put(nextKey(), token);
+        repository.saveTokens(batch);
+    }
+
+
+    private TokenKey nextKey() {
+        next = (next + 1) % TOKENS;
+        return keys[next];
+    }
+
+}
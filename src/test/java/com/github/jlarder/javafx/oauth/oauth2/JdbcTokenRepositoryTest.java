@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ *
+ * @author Andrey Kazakov
+ */
+public class JdbcTokenRepositoryTest {
+
+    @Test
+    public void mergeInsertsAndReplacesTokens() {
+        try(JdbcTokenRepository repository = new JdbcTokenRepository("jdbc:h2:mem:merge;DB_CLOSE_DELAY=-1")) {
+            repository.saveToken(TokenKey.of("p"), new Token("a"));
+            repository.saveTokens(Map.of(TokenKey.of("p"), new Token("b"), TokenKey.of("q"), new Token("c")));
+
+            assertEquals("b", repository.getToken(TokenKey.of("p")).getAccessToken());
+            assertEquals("c", repository.getToken(TokenKey.of("q")).getAccessToken());
+        }
+    }
+
+
+    @Test
+    public void batchWithoutRowCountsDoesNotInsertExistingTokens() throws SQLException {
+        Driver driver = new NoInfoBatchDriver();
+        DriverManager.registerDriver(driver);
+        try(JdbcTokenRepository repository = new JdbcTokenRepository("jdbc:noinfo:mem:update;DB_CLOSE_DELAY=-1")) {
+            repository.saveToken(TokenKey.of("p"), new Token("a"));
+            repository.saveTokens(Map.of(TokenKey.of("p"), new Token("b"), TokenKey.of("q"), new Token("c")));
+
+            assertEquals("b", repository.getToken(TokenKey.of("p")).getAccessToken());
+            assertEquals("c", repository.getToken(TokenKey.of("q")).getAccessToken());
+        } finally {
+            DriverManager.deregisterDriver(driver);
+        }
+    }
+
+
+    /**
+     * H2 behind a driver that reports {@link Statement#SUCCESS_NO_INFO} for
+     * every statement of a batch, as some drivers do.
+     */
+    private static final class NoInfoBatchDriver implements Driver {
+
+        @Override
+        public Connection connect(String url, Properties info) throws SQLException {
+            if(!acceptsURL(url)) return null;
+            Connection connection = DriverManager.getConnection(url.replace("jdbc:noinfo:", "jdbc:h2:"), info);
+            return proxy(Connection.class, connection, (Object result, String method) -> 
+                    method.equals("prepareStatement") ? 
+                            proxy(PreparedStatement.class, (PreparedStatement) result, null) : result);
+        }
+
+
+        private static <T> T proxy(Class<T> type, T target, ResultMapper mapper) {
+            InvocationHandler handler = (Object proxy, Method method, Object[] args) -> {
+                Object result;
+                try {
+                    result = method.invoke(target, args);
+                } catch(InvocationTargetException ex) {
+                    throw ex.getCause();
+                }
+                if(method.getName().equals("executeBatch")) {
+                    int[] counts = new int[((int[]) result).length];
+                    Arrays.fill(counts, Statement.SUCCESS_NO_INFO);
+                    return counts;
+                }
+                return mapper != null ? mapper.map(result, method.getName()) : result;
+            };
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+        }
+
+
+        @Override
+        public boolean acceptsURL(String url) {
+            return url.startsWith("jdbc:noinfo:");
+        }
+
+
+        @Override
+        public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+            return new DriverPropertyInfo[0];
+        }
+
+
+        @Override
+        public int getMajorVersion() {
+            return 1;
+        }
+
+
+        @Override
+        public int getMinorVersion() {
+            return 0;
+        }
+
+
+        @Override
+        public boolean jdbcCompliant() {
+            return false;
+        }
+
+
+        @Override
+        public Logger getParentLogger() {
+            return Logger.getGlobal();
+        }
+    }
+
+
+    private interface ResultMapper {
+
+        Object map(Object result, String method);
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ *
+ * @author Andrey Kazakov
+ */
+public class JsonTokenCodecTest {
+
+    private final JsonTokenCodec codec = new JsonTokenCodec();
+
+
+    @Test
+    public void extrasWithReservedNamesRoundTrip() {
+        Token token = Token.fromMap(Map.of("access_token", "a", "refresh_token", "r", "expires_in", "soon",
+                "creation_timestamp", "1000", "v", "provider-version", "extras", "x", "id_token", "i"));
+
+        Token decoded = codec.decode(codec.encode(token));
+
+        assertEquals(token.getAll(), decoded.getAll());
+    }
+
+
+    @Test
+    public void readsVersionOneTokens() {
+        String json = "{\"v\":1,\"access_token\":\"a\",\"expires_in\":3600,\"creation_timestamp\":1000,"
+                + "\"id_token\":\"i\"}";
+
+        Token decoded = codec.decode(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("a", decoded.getAccessToken());
+        assertEquals(Long.valueOf(3601000), decoded.getExpirationTime());
+        assertEquals("i", decoded.get("id_token"));
+    }
+
+}
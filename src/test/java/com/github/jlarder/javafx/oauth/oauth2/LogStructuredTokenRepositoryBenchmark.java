@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Saves per second and the time to open a store of 10k tokens, the log
+ * against a file per token. Neither store forces writes to the disk. The 
+ * disk bytes of both stores are printed once the tokens are written.
+ *
+ * @author Andrey Kazakov
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogStructuredTokenRepositoryBenchmark {
+
+    private static final int TOKENS = 10_000;
+
+    private static final int PROVIDERS = 10;
+
+    @Param({"file", "log"})
+    public String store;
+
+    private Path dir;
+
+    private Path stored;
+
+    private TokenRepository repository;
+
+    private TokenKey[] keys;
+
+    private Token token;
+
+    private int next;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("token-store-benchmark");
+        stored = dir.resolve("stored");
+        keys = new TokenKey[TOKENS];
+        for(int i = 0; i < TOKENS; i++) keys[i] = TokenKey.of("provider" + (i % PROVIDERS), "account" + i);
+        token = new Token.Builder("ya29.a0AfH6SMBx3kYw2lQ9pC7uVnRr").refreshToken("1//0gExampleRefreshToken")
+                .expiresIn(3600).creationTimestamp(System.currentTimeMillis()).build();
+
+        try(TokenRepository tokens = open(stored)) {
+            for(TokenKey key : keys) tokens.saveToken(key, token);
+        }
+        long files;
+        try(Stream<Path> paths = Files.walk(stored)) {
+            files = paths.filter(Files::isRegularFile).count();
+        }
+        System.out.println(store + ": " + TOKENS + " tokens take " + BenchmarkFiles.size(stored) 
+                + " bytes in " + files + " files");
+
+        repository = open(dir.resolve("saved"));
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repository.close();
+        BenchmarkFiles.delete(dir);
+    }
+
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void save() {
+        next = (next + 1) % TOKENS;
+        repository.saveToken(keys[next], token);
+    }
+
+
+    /** Opens the stored tokens and lists the accounts of every provider. */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int coldStart() {
+        int count = 0;
+        try(TokenRepository tokens = open(stored)) {
+            for(int i = 0; i < PROVIDERS; i++) count += tokens.getKeys("provider" + i).size();
+        }
+        return count;
+    }
+
+
+    private TokenRepository open(Path location) {
+        if(store.equals("log")) {
+            LogStructuredTokenRepository log = new LogStructuredTokenRepository(location.resolve("tokens.log"));
+            log.setSync(false);
+            return log;
+        }
+        FileTokenRepository files = new FileTokenRepository();
+        files.setLocation(location.toString());
+        files.setSync(false);
+        return files;
+    }
+
+}
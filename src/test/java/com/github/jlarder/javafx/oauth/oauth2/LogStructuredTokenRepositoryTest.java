@@ -0,0 +1,187 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author Andrey Kazakov
+ */
+public class LogStructuredTokenRepositoryTest {
+
+    @TempDir
+    Path dir;
+
+
+    @Test
+    public void compactionKeepsLiveTokensAndTheLogWritable() {
+        Path file = dir.resolve("tokens.log");
+        try(LogStructuredTokenRepository repository = newRepository(file)) {
+            for(int i = 0; i < 100; i++) repository.saveToken(TokenKey.of("p" + (i % 10)), new Token("t" + i));
+            long before = Files.size(file);
+            repository.compact();
+            assertTrue(Files.size(file) < before);
+            repository.saveToken(TokenKey.of("p0"), new Token("after"));
+        } catch(IOException ex) {
+            throw new AssertionError(ex);
+        }
+        try(LogStructuredTokenRepository repository = newRepository(file)) {
+            assertEquals("after", repository.getToken(TokenKey.of("p0")).getAccessToken());
+            assertEquals("t99", repository.getToken(TokenKey.of("p9")).getAccessToken());
+        }
+        assertFalse(Files.exists(dir.resolve("tokens.log.compact")));
+    }
+
+
+    @Test
+    public void failedCompactionLeavesTheRepositoryUsable() throws IOException {
+        Path file = dir.resolve("tokens.log");
+        try(LogStructuredTokenRepository repository = newRepository(file)) {
+            repository.saveToken(TokenKey.of("p"), new Token("t1"));
+            Files.createDirectories(dir.resolve("tokens.log.compact").resolve("blocker"));
+
+            assertThrows(TokenRepositoryException.class, repository::compact);
+            repository.saveToken(TokenKey.of("p"), new Token("t2"));
+            assertEquals("t2", repository.getToken(TokenKey.of("p")).getAccessToken());
+        }
+    }
+
+
+    @Test
+    public void corruptRecordIsSkippedAndLaterRecordsKept() throws IOException {
+        Path file = dir.resolve("tokens.log");
+        long[] ends = new long[3];
+        try(LogStructuredTokenRepository repository = newRepository(file)) {
+            for(int i = 0; i < 3; i++) {
+                repository.saveToken(TokenKey.of("p" + i), new Token("t" + i));
+                ends[i] = Files.size(file);
+            }
+        }
+        flipByte(file, (ends[0] + ends[1]) / 2);
+
+        try(LogStructuredTokenRepository repository = newRepository(file)) {
+            assertEquals("t0", repository.getToken(TokenKey.of("p0")).getAccessToken());
+            assertThrows(TokenNotFoundException.class, () -> repository.getToken(TokenKey.of("p1")));
+            assertEquals("t2", repository.getToken(TokenKey.of("p2")).getAccessToken());
+            assertEquals(ends[2], Files.size(file));
+            repository.saveToken(TokenKey.of("p3"), new Token("t3"));
+        }
+        try(LogStructuredTokenRepository repository = newRepository(file)) {
+            assertEquals("t2", repository.getToken(TokenKey.of("p2")).getAccessToken());
+            assertEquals("t3", repository.getToken(TokenKey.of("p3")).getAccessToken());
+        }
+    }
+
+
+    @Test
+    public void tornTailIsCutOff() throws IOException {
+        Path file = dir.resolve("tokens.log");
+        try(LogStructuredTokenRepository repository = newRepository(file)) {
+            repository.saveToken(TokenKey.of("p0"), new Token("t0"));
+            repository.saveToken(TokenKey.of("p1"), new Token("t1"));
+        }
+        long size = Files.size(file);
+        // the header and part of the payload of a record
+        Files.write(file, Arrays.copyOf(Files.readAllBytes(file), 12), StandardOpenOption.APPEND);
+
+        try(LogStructuredTokenRepository repository = newRepository(file)) {
+            assertEquals("t1", repository.getToken(TokenKey.of("p1")).getAccessToken());
+        }
+        assertEquals(size, Files.size(file));
+    }
+
+
+    @Test
+    public void secondRepositoryOnTheSameLogIsRejected() {
+        Path file = dir.resolve("tokens.log");
+        try(LogStructuredTokenRepository repository = newRepository(file)) {
+            repository.saveToken(TokenKey.of("p"), new Token("t"));
+            assertThrows(TokenRepositoryException.class, () -> newRepository(file));
+        }
+        try(LogStructuredTokenRepository repository = newRepository(file)) {
+            assertEquals("t", repository.getToken(TokenKey.of("p")).getAccessToken());
+        }
+    }
+
+
+    @Test
+    public void keysMatchTheTokensAfterConcurrentSavesAndRemovals() throws InterruptedException {
+        try(LogStructuredTokenRepository repository = newRepository(dir.resolve("tokens.log"))) {
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            for(int t = 0; t < 4; t++) {
+                boolean saving = t % 2 == 0;
+                executor.execute(() -> {
+                    for(int i = 0; i < 2000; i++) {
+                        TokenKey key = TokenKey.of("p", Integer.toString(i % 8));
+                        if(saving) repository.saveToken(key, new Token("t"));
+                        else repository.removeToken(key);
+                    }
+                });
+            }
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+            Set<TokenKey> keys = repository.getKeys("p");
+            for(int i = 0; i < 8; i++) {
+                TokenKey key = TokenKey.of("p", Integer.toString(i));
+                boolean stored = true;
+                try {
+                    repository.getToken(key);
+                } catch(TokenNotFoundException ex) {
+                    stored = false;
+                }
+                assertEquals(stored, keys.contains(key), key.toString());
+            }
+        }
+    }
+
+
+    private static void flipByte(Path file, long position) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, position);
+            b.flip();
+            b.put(0, (byte) ~b.get(0));
+            channel.write(b, position);
+        }
+    }
+
+
+    private static LogStructuredTokenRepository newRepository(Path file) {
+        LogStructuredTokenRepository repository = new LogStructuredTokenRepository(file);
+        repository.setMinCompactionSize(Long.MAX_VALUE);
+        return repository;
+    }
+
+}
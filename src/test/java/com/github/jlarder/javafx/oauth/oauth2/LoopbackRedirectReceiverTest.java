@@ -0,0 +1,226 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Redirects sent to the loopback listener like a browser does.
+ *
+ * @author Andrey Kazakov
+ */
+public class LoopbackRedirectReceiverTest {
+
+    private static final int AUTHORIZATIONS = 20;
+
+    private final BlockingQueue<ReceiverEvent> events = new LinkedBlockingQueue<>();
+
+    private final List<String> opened = new ArrayList<>();
+
+    private LoopbackRedirectReceiver receiver;
+
+
+    @BeforeAll
+    public static void startToolkit() throws InterruptedException {
+        FxToolkit.start();
+    }
+
+
+    @AfterEach
+    public void closeReceiver() {
+        if(receiver != null) receiver.close();
+    }
+
+
+    @Test
+    public void concurrentAuthorizationsAreMatchedByState() throws Exception {
+        receiver = newReceiver(LoopbackRedirectReceiver.DEFAULT_IDLE_TIMEOUT,
+                LoopbackRedirectReceiver.DEFAULT_AUTHORIZATION_TIMEOUT);
+        String redirectUri = receiver.getRedirectUri("/callback");
+        Map<TokenKey, OAuth2Properties> authorizations = new HashMap<>();
+        for(int i = 0; i < AUTHORIZATIONS; i++) {
+            authorizations.put(TokenKey.of("p", "user" + i), properties(redirectUri, true));
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<Integer>> redirects = new ArrayList<>();
+        authorizations.forEach((TokenKey key, OAuth2Properties props) -> {
+            CompletableFuture<Integer> status = new CompletableFuture<>();
+            redirects.add(status);
+            new Thread(() -> {
+                try {
+                    start.await();
+                    receiver.authorize(key, props, null);
+                    status.complete(get(redirectUri + "?code=" + key.getAccount() + "&state=" + props.getState()));
+                } catch(Exception ex) {
+                    status.completeExceptionally(ex);
+                }
+            }).start();
+        });
+        start.countDown();
+
+        for(CompletableFuture<Integer> status : redirects) assertEquals(200, status.get(30, TimeUnit.SECONDS));
+        for(int i = 0; i < AUTHORIZATIONS; i++) {
+            ReceiverEvent event = events.poll(30, TimeUnit.SECONDS);
+            assertNotNull(event);
+            assertSame(ReceiverEvent.CODE_RECEIVED_EVENT_TYPE, event.getEventType());
+            assertEquals(event.getKey().getAccount(), event.getParameters().get("code"));
+            assertSame(authorizations.get(event.getKey()), event.getOAuth2Properties());
+        }
+        assertEquals(0, receiver.getPendingCount());
+        assertEquals(AUTHORIZATIONS, opened.size());
+    }
+
+
+    @Test
+    public void redirectWithUnknownStateIsRejected() throws Exception {
+        receiver = newReceiver(LoopbackRedirectReceiver.DEFAULT_IDLE_TIMEOUT,
+                LoopbackRedirectReceiver.DEFAULT_AUTHORIZATION_TIMEOUT);
+        String redirectUri = receiver.getRedirectUri("/callback");
+        OAuth2Properties props = properties(redirectUri, true);
+        receiver.authorize(TokenKey.of("p"), props, null);
+
+        assertEquals(400, get(redirectUri + "?code=c&state=forged"));
+        assertEquals(1, receiver.getPendingCount());
+        assertNull(events.poll(500, TimeUnit.MILLISECONDS));
+
+        assertEquals(200, get(redirectUri + "?code=c&state=" + props.getState()));
+        assertEquals(TokenKey.of("p"), events.poll(30, TimeUnit.SECONDS).getKey());
+    }
+
+
+    @Test
+    public void withoutStateTheRedirectIsMatchedByPath() throws Exception {
+        receiver = newReceiver(LoopbackRedirectReceiver.DEFAULT_IDLE_TIMEOUT,
+                LoopbackRedirectReceiver.DEFAULT_AUTHORIZATION_TIMEOUT);
+        receiver.authorize(TokenKey.of("a"), properties(receiver.getRedirectUri("/a"), false), null);
+        receiver.authorize(TokenKey.of("b"), properties(receiver.getRedirectUri("/b"), false), null);
+
+        assertEquals(200, get(receiver.getRedirectUri("/b") + "?error=access_denied"));
+        ReceiverEvent event = events.poll(30, TimeUnit.SECONDS);
+        assertSame(ReceiverEvent.ERROR_RECEIVED_EVENT_TYPE, event.getEventType());
+        assertEquals(TokenKey.of("b"), event.getKey());
+        assertEquals("access_denied", event.getParameters().get("error"));
+        assertEquals(1, receiver.getPendingCount());
+    }
+
+
+    @Test
+    public void pendingAuthorizationTimesOut() throws Exception {
+        receiver = newReceiver(LoopbackRedirectReceiver.DEFAULT_IDLE_TIMEOUT, 100);
+        receiver.authorize(TokenKey.of("p"), properties(receiver.getRedirectUri("/callback"), true), null);
+
+        ReceiverEvent event = events.poll(30, TimeUnit.SECONDS);
+        assertSame(ReceiverEvent.ERROR_RECEIVED_EVENT_TYPE, event.getEventType());
+        assertEquals(TokenKey.of("p"), event.getKey());
+        assertNull(event.getParameters());
+        assertEquals(0, receiver.getPendingCount());
+    }
+
+
+    @Test
+    public void listenerStopsWhenIdleAndKeepsItsPort() throws Exception {
+        receiver = newReceiver(100, LoopbackRedirectReceiver.DEFAULT_AUTHORIZATION_TIMEOUT);
+        String redirectUri = receiver.getRedirectUri("/callback");
+        OAuth2Properties props = properties(redirectUri, true);
+        receiver.authorize(TokenKey.of("p"), props, null);
+        Thread.sleep(1500);
+        assertEquals(true, receiver.isRunning());
+
+        assertEquals(200, get(redirectUri + "?code=c&state=" + props.getState()));
+        await(() -> !receiver.isRunning());
+        assertEquals(redirectUri, receiver.getRedirectUri("/callback"));
+    }
+
+
+    @Test
+    public void silentConnectionIsClosed() throws Exception {
+        receiver = newReceiver(100, LoopbackRedirectReceiver.DEFAULT_AUTHORIZATION_TIMEOUT);
+        receiver.setConnectionTimeout(500);
+        int port = receiver.start();
+
+        try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setSoTimeout(30000);
+            assertEquals(-1, socket.getInputStream().read());
+        }
+        await(() -> !receiver.isRunning());
+    }
+
+
+    private LoopbackRedirectReceiver newReceiver(long idleTimeout, long authorizationTimeout) {
+        LoopbackRedirectReceiver newReceiver = new LoopbackRedirectReceiver((String url) -> {
+            synchronized(opened) {
+                opened.add(url);
+            }
+        }, 0, idleTimeout, authorizationTimeout);
+        newReceiver.setEventHandler(events::add);
+        return newReceiver;
+    }
+
+
+    private static OAuth2Properties properties(String redirectUri, boolean useState) {
+        OAuth2Properties.AuthorizationCodeBuilder builder = new OAuth2Properties.AuthorizationCodeBuilder(
+                "http://127.0.0.1/auth", "http://127.0.0.1/token", redirectUri, "client");
+        if(useState) builder.useState();
+        return builder.buid();
+    }
+
+
+    private static int get(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            int status = connection.getResponseCode();
+            InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if(body != null) body.readAllBytes();
+            return status;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30000;
+        while(!condition.getAsBoolean()) {
+            if(System.currentTimeMillis() > deadline) throw new AssertionError("Timed out");
+            Thread.sleep(50);
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Read latency and startup time of the mapped table against a file per 
+ * token, for 10k tokens. Startup opens the store and reads every token.
+ *
+ * @author Andrey Kazakov
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappedTokenRepositoryBenchmark {
+
+    private static final int TOKENS = 10_000;
+
+    @Param({"file", "mapped"})
+    public String store;
+
+    private Path dir;
+
+    private TokenRepository repository;
+
+    private TokenKey[] keys;
+
+    private int next;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("mapped-token-benchmark");
+        keys = new TokenKey[TOKENS];
+        Token token = new Token.Builder("ya29.a0AfH6SMBx3kYw2lQ9pC7uVnRr").refreshToken("1//0gExampleRefreshToken")
+                .expiresIn(3600).creationTimestamp(System.currentTimeMillis()).build();
+        try(TokenRepository tokens = open()) {
+            for(int i = 0; i < TOKENS; i++) {
+                keys[i] = TokenKey.of("provider" + (i % 10), "account" + i);
+                tokens.saveToken(keys[i], token);
+            }
+        }
+        repository = open();
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repository.close();
+        BenchmarkFiles.delete(dir);
+    }
+
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Token get() {
+        next = (next + 7919) % TOKENS;
+        return repository.getToken(keys[next]);
+    }
+
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int startup() {
+        // the mapped table admits one repository at a time
+        repository.close();
+        int read = 0;
+        try(TokenRepository tokens = open()) {
+            for(TokenKey key : keys) {
+                if(tokens.getToken(key) != null) read++;
+            }
+        }
+        repository = open();
+        return read;
+    }
+
+
+    private TokenRepository open() {
+        if(store.equals("mapped")) {
+            return new MappedTokenRepository(dir.resolve("tokens.table"));
+        }
+        FileTokenRepository files = new FileTokenRepository();
+        files.setLocation(dir.toString());
+        files.setSync(false);
+        return files;
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The offsets follow the file layout described in {@link MappedTokenRepository}.
+ *
+ * @author Andrey Kazakov
+ */
+public class MappedTokenRepositoryTest {
+
+    private static final int FILE_HEADER_SIZE = 64;
+
+    private static final int SLOT_HEADER_SIZE = 17;
+
+    private static final int SLOT_SIZE = 128;
+
+    private static final int SLOT_COUNT = 8;
+
+    @TempDir
+    Path dir;
+
+
+    @Test
+    public void tokensSurviveReopeningAndGrowingTheTable() {
+        Path file = dir.resolve("tokens.table");
+        try(MappedTokenRepository repository = newRepository(file)) {
+            for(int i = 0; i < 20; i++) repository.saveToken(TokenKey.of("p", "a" + i), new Token("t" + i));
+            repository.saveToken(TokenKey.of("p", "large"), new Token(largeToken()));
+            repository.removeToken(TokenKey.of("p", "a0"));
+        }
+        try(MappedTokenRepository repository = newRepository(file)) {
+            assertEquals(20, repository.getKeys("p").size());
+            assertEquals("t19", repository.getToken(TokenKey.of("p", "a19")).getAccessToken());
+            assertEquals(largeToken(), repository.getToken(TokenKey.of("p", "large")).getAccessToken());
+            assertThrows(TokenNotFoundException.class, () -> repository.getToken(TokenKey.of("p", "a0")));
+        }
+        assertFalse(Files.exists(dir.resolve("tokens.table.rebuild")));
+    }
+
+
+    @Test
+    public void tornSlotKeepsThePreviousToken() throws IOException {
+        Path file = dir.resolve("tokens.table");
+        TokenKey key = TokenKey.of("p");
+        try(MappedTokenRepository repository = newRepository(file)) {
+            repository.saveToken(key, new Token("old"));
+        }
+        byte[] beforeSave = Files.readAllBytes(file);
+        try(MappedTokenRepository repository = newRepository(file)) {
+            repository.saveToken(key, new Token("new"));
+        }
+        // the crash hit after a part of the new slot was written, before the old one was cleared
+        byte[] torn = beforeSave.clone();
+        int newSlot = slotOffset(1);
+        System.arraycopy(Files.readAllBytes(file), newSlot, torn, newSlot, SLOT_HEADER_SIZE + 4);
+        Files.write(file, torn);
+        assertNotEquals(0, readInt(file, newSlot));
+
+        try(MappedTokenRepository repository = newRepository(file)) {
+            assertEquals("old", repository.getToken(key).getAccessToken());
+            assertEquals(0, readInt(file, newSlot));
+            repository.saveToken(key, new Token("newer"));
+        }
+        try(MappedTokenRepository repository = newRepository(file)) {
+            assertEquals("newer", repository.getToken(key).getAccessToken());
+        }
+    }
+
+
+    @Test
+    public void corruptOverflowRecordDropsOnlyItsToken() throws IOException {
+        Path file = dir.resolve("tokens.table");
+        try(MappedTokenRepository repository = newRepository(file)) {
+            repository.saveToken(TokenKey.of("p", "small"), new Token("s"));
+            repository.saveToken(TokenKey.of("p", "large"), new Token(largeToken()));
+        }
+        long overflowStart = FILE_HEADER_SIZE + (long) SLOT_SIZE * SLOT_COUNT;
+        flipByte(file, overflowStart + 100);
+
+        try(MappedTokenRepository repository = newRepository(file)) {
+            assertEquals("s", repository.getToken(TokenKey.of("p", "small")).getAccessToken());
+            assertThrows(TokenNotFoundException.class, () -> repository.getToken(TokenKey.of("p", "large")));
+            assertEquals(Set.of(TokenKey.of("p", "small")), repository.getKeys("p"));
+            repository.saveToken(TokenKey.of("p", "large"), new Token(largeToken() + "2"));
+        }
+        try(MappedTokenRepository repository = newRepository(file)) {
+            assertEquals(largeToken() + "2", repository.getToken(TokenKey.of("p", "large")).getAccessToken());
+        }
+    }
+
+
+    @Test
+    public void secondRepositoryOnTheSameTableIsRejected() {
+        Path file = dir.resolve("tokens.table");
+        try(MappedTokenRepository repository = newRepository(file)) {
+            repository.saveToken(TokenKey.of("p"), new Token("t"));
+            assertThrows(TokenRepositoryException.class, () -> newRepository(file));
+        }
+        try(MappedTokenRepository repository = newRepository(file)) {
+            assertEquals("t", repository.getToken(TokenKey.of("p")).getAccessToken());
+        }
+    }
+
+
+    private static MappedTokenRepository newRepository(Path file) {
+        return new MappedTokenRepository(file, SLOT_SIZE, SLOT_COUNT);
+    }
+
+
+    private static String largeToken() {
+        return "x".repeat(2 * SLOT_SIZE);
+    }
+
+
+    private static int slotOffset(int slot) {
+        return FILE_HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+
+    private static int readInt(Path file, long position) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocate(4);
+            channel.read(b, position);
+            return b.getInt(0);
+        }
+    }
+
+
+    private static void flipByte(Path file, long position) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, position);
+            b.put(0, (byte) ~b.get(0));
+            b.rewind();
+            channel.write(b, position);
+        }
+    }
+
+}
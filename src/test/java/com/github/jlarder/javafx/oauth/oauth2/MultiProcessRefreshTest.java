@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Several JVMs refreshing one token stored in a shared directory, against
+ * an endpoint that rotates refresh tokens.
+ *
+ * @author Andrey Kazakov
+ */
+public class MultiProcessRefreshTest {
+
+    private static final int PROCESSES = 3;
+
+    @TempDir
+    Path dir;
+
+    private StubTokenEndpoint endpoint;
+
+
+    @BeforeEach
+    public void startEndpoint() throws Exception {
+        endpoint = new StubTokenEndpoint(300);
+    }
+
+
+    @AfterEach
+    public void stopEndpoint() {
+        endpoint.close();
+    }
+
+
+    @Test
+    public void processesShareOneRefreshThroughWriteBehindCaches() throws Exception {
+        FileTokenRepository files = new FileTokenRepository();
+        files.setLocation(dir.toString());
+        files.saveToken(TokenKey.of("stub"), ServiceFixture.expiredToken("refresh-0"));
+        endpoint.accept("refresh-0");
+
+        List<ChildJvm> children = new ArrayList<>();
+        try {
+            for(int i = 0; i < PROCESSES; i++) {
+                ChildJvm child = ChildJvm.start(RefreshingProcess.class, dir.toString(), endpoint.getUrl());
+                children.add(child);
+                assertTrue(child.await("ready"));
+            }
+            for(ChildJvm child : children) child.send("go");
+            for(ChildJvm child : children) {
+                assertEquals("result access-1", child.readLine("result "));
+                assertEquals(0, child.waitFor(30));
+            }
+        } finally {
+            for(ChildJvm child : children) child.close();
+        }
+
+        assertEquals(1, endpoint.getRequestCount());
+        assertEquals("refresh-1", files.reloadToken(TokenKey.of("stub")).getRefreshToken());
+    }
+
+}
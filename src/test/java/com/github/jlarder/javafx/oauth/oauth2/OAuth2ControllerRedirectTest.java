@@ -0,0 +1,168 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.ListChangeListener;
+import javafx.concurrent.Worker;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.web.WebEngine;
+import javafx.scene.web.WebView;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static com.github.jlarder.javafx.oauth.oauth2.FxToolkit.onFxThread;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The embedded authentication window against a local authorization page
+ * which answers the consent with a 302 redirect: the redirect is received
+ * from the location change, the redirect URI is never connected to. Runs
+ * on the headless Monocle platform.
+ *
+ * @author Andrey Kazakov
+ */
+public class OAuth2ControllerRedirectTest {
+
+    private static final int ROUNDS = 10;
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private ServerSocket redirectTarget;
+
+
+    @BeforeAll
+    public static void startToolkit() throws InterruptedException {
+        FxToolkit.start();
+    }
+
+
+    @BeforeEach
+    public void openRedirectTarget() throws IOException {
+        redirectTarget = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread thread = new Thread(() -> {
+            while(!redirectTarget.isClosed()) {
+                try(Socket socket = redirectTarget.accept()) {
+                    connections.incrementAndGet();
+                } catch(IOException ex) {
+                    // closed
+                }
+            }
+        }, "redirect-target");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    @AfterEach
+    public void closeRedirectTarget() throws IOException {
+        redirectTarget.close();
+    }
+
+
+    @Test
+    public void redirectIsReceivedWithoutConnectingToTheRedirectUri() throws Exception {
+        OAuth2Service service = ServiceFixture.newService(new InMemoryTokenRepository());
+        Field loader = OAuth2Service.class.getDeclaredField("fxmlLoader");
+        loader.setAccessible(true);
+        loader.set(service, new FXMLLoader());
+        String redirectUri = "http://127.0.0.1:" + redirectTarget.getLocalPort() + "/callback";
+
+        try(StubLoginPage provider = new StubLoginPage()) {
+            List<Long> times = new ArrayList<>();
+            for(int i = 0; i <= ROUNDS; i++) {
+                OAuth2Properties props = new OAuth2Properties.AuthorizationCodeBuilder(provider.getConsentUrl(),
+                        "http://127.0.0.1:9/token", redirectUri, "client").useState().buid();
+                long time = consentToEvent(service, props, provider);
+                if(i > 0) times.add(time);
+            }
+            Thread.sleep(500);
+
+            assertEquals(0, connections.get(), "connections to the redirect URI");
+            Collections.sort(times);
+            System.out.println("consent to receiver event, median of " + ROUNDS + ": " 
+                    + times.get(ROUNDS / 2) + " ms " + times);
+        }
+    }
+
+
+    /**
+     * Opens the authentication window, follows the allow link once the
+     * authorization page has loaded and waits for the code event.
+     *
+     * @return milliseconds from the consent to the event
+     */
+    private static long consentToEvent(OAuth2Service service, OAuth2Properties props,
+            StubLoginPage provider) throws Exception {
+        CompletableFuture<ReceiverEvent> received = new CompletableFuture<>();
+        long[] consent = new long[1];
+        ListChangeListener<Window> shown = (ListChangeListener.Change<? extends Window> change) -> {
+            while(change.next()) {
+                for(Window window : change.getAddedSubList()) {
+                    if(!(window instanceof Stage)) continue;
+                    window.addEventFilter(ReceiverEvent.CODE_RECEIVED_EVENT_TYPE, (ReceiverEvent event) -> {
+                        long time = System.nanoTime();
+                        received.complete(event);
+                        consent[0] = time - consent[0];
+                    });
+                    WebEngine engine = ((WebView) window.getScene().getRoot().lookup("WebView")).getEngine();
+                    engine.getLoadWorker().stateProperty().addListener(new ChangeListener<Worker.State>() {
+                        @Override
+                        public void changed(ObservableValue<? extends Worker.State> observable, 
+                                Worker.State oldState, Worker.State state) {
+                            if(state != Worker.State.SUCCEEDED 
+                                    || !engine.getLocation().startsWith(provider.getConsentUrl())) return;
+                            observable.removeListener(this);
+                            consent[0] = System.nanoTime();
+                            engine.executeScript("document.getElementById('allow').click()");
+                        }
+                    });
+                }
+            }
+        };
+        onFxThread(() -> {
+            Window.getWindows().addListener(shown);
+            return null;
+        });
+        CompletableFuture<Token> token = service.getTokenAsync(TokenKey.of("stub"), props);
+        ReceiverEvent event = received.get(30, TimeUnit.SECONDS);
+        onFxThread(() -> {
+            Window.getWindows().removeListener(shown);
+            return null;
+        });
+        token.handle((Token t, Throwable ex) -> null).get(30, TimeUnit.SECONDS);
+
+        assertEquals("consented", event.getParameters().get("code"));
+        return TimeUnit.NANOSECONDS.toMillis(consent[0]);
+    }
+
+}
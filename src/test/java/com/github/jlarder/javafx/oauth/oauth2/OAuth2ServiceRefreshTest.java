@@ -0,0 +1,86 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Concurrent refreshes against a local token endpoint.
+ *
+ * @author Andrey Kazakov
+ */
+public class OAuth2ServiceRefreshTest {
+
+    private static final int CALLERS = 100;
+
+    private StubTokenEndpoint endpoint;
+
+
+    @BeforeEach
+    public void startEndpoint() throws Exception {
+        endpoint = new StubTokenEndpoint(200);
+    }
+
+
+    @AfterEach
+    public void stopEndpoint() {
+        endpoint.close();
+    }
+
+
+    @Test
+    public void concurrentRefreshesMakeOneRequest() throws Exception {
+        TokenKey key = TokenKey.of("stub");
+        Token expired = ServiceFixture.expiredToken("refresh-0");
+        InMemoryTokenRepository repository = new InMemoryTokenRepository();
+        repository.saveToken(key, expired);
+        endpoint.accept("refresh-0");
+        OAuth2Service service = ServiceFixture.newService(repository);
+        OAuth2Properties props = ServiceFixture.properties(endpoint.getUrl());
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<Token>> results = new ArrayList<>();
+        for(int i = 0; i < CALLERS; i++) {
+            CompletableFuture<Token> result = new CompletableFuture<>();
+            results.add(result);
+            new Thread(() -> {
+                try {
+                    start.await();
+                    result.complete(service.refreshTokenAsync(expired, key, props).get(30, TimeUnit.SECONDS));
+                } catch(Exception ex) {
+                    result.completeExceptionally(ex);
+                }
+            }).start();
+        }
+        start.countDown();
+
+        for(CompletableFuture<Token> result : results) {
+            assertEquals("access-1", result.get(30, TimeUnit.SECONDS).getAccessToken());
+        }
+        assertEquals(1, endpoint.getRequestCount());
+        assertEquals("refresh-1", repository.getToken(key).getRefreshToken());
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Warm-up of stored tokens against a local token endpoint.
+ *
+ * @author Andrey Kazakov
+ */
+public class OAuth2ServiceWarmUpTest {
+
+    private StubTokenEndpoint endpoint;
+
+    private CountingRepository repository;
+
+    private OAuth2Service service;
+
+    private OAuth2Properties props;
+
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        endpoint = new StubTokenEndpoint(0);
+        repository = new CountingRepository();
+        service = ServiceFixture.newService(repository);
+        props = ServiceFixture.properties(endpoint.getUrl());
+    }
+
+
+    @AfterEach
+    public void tearDown() {
+        endpoint.close();
+    }
+
+
+    @Test
+    public void loadsUsableTokensAndRefreshesExpiredOnes() throws Exception {
+        TokenKey valid = TokenKey.of("stub", "valid");
+        TokenKey expired = TokenKey.of("stub", "expired");
+        TokenKey unrefreshable = TokenKey.of("stub", "unrefreshable");
+        TokenKey missing = TokenKey.of("stub", "missing");
+        Token token = new Token.Builder("valid").expiresIn(3600).creationTimestamp(System.currentTimeMillis()).build();
+        repository.saveToken(valid, token);
+        repository.saveToken(expired, ServiceFixture.expiredToken("refresh-0"));
+        repository.saveToken(unrefreshable, ServiceFixture.expiredToken(null));
+        endpoint.accept("refresh-0");
+
+        Map<TokenKey, Token> usable = service.warmUp(Map.of(valid, props, expired, props,
+                unrefreshable, props, missing, props)).get(30, TimeUnit.SECONDS);
+
+        assertEquals(2, usable.size());
+        assertSame(token, usable.get(valid));
+        assertEquals("access-1", usable.get(expired).getAccessToken());
+        assertEquals(1, endpoint.getRequestCount());
+        assertTrue(service.getTimeToFirstToken() >= 0);
+        assertTrue(service.getWarmUpTime() >= service.getTimeToFirstToken());
+    }
+
+
+    @Test
+    public void firstGetIsAnsweredFromTheWarmUp() throws Exception {
+        TokenKey key = TokenKey.of("stub", "user");
+        repository.saveToken(key, ServiceFixture.expiredToken("refresh-0"));
+        endpoint.accept("refresh-0");
+
+        service.warmUp(Map.of(key, props)).get(30, TimeUnit.SECONDS);
+        int reads = repository.reads.get();
+
+        assertEquals("access-1", service.getTokenAsync(key, props).get(30, TimeUnit.SECONDS).getAccessToken());
+        assertEquals(reads, repository.reads.get());
+        assertEquals(1, endpoint.getRequestCount());
+        service.getTokenAsync(key, props).get(30, TimeUnit.SECONDS);
+        assertEquals(reads + 1, repository.reads.get());
+    }
+
+
+    @Test
+    public void providersWarmUpEveryStoredAccount() throws Exception {
+        Token token = new Token.Builder("a").expiresIn(3600).creationTimestamp(System.currentTimeMillis()).build();
+        repository.saveToken(TokenKey.of("stub", "first"), token);
+        repository.saveToken(TokenKey.of("stub", "second"), token);
+        repository.saveToken(TokenKey.of("other", "third"), token);
+
+        Map<TokenKey, Token> usable = service.warmUpProviders(Map.of("stub", props)).get(30, TimeUnit.SECONDS);
+
+        assertEquals(Map.of(TokenKey.of("stub", "first"), token, TokenKey.of("stub", "second"), token), usable);
+    }
+
+
+    private static class CountingRepository extends InMemoryTokenRepository {
+
+        private final AtomicInteger reads = new AtomicInteger();
+
+
+        @Override
+        public Token getToken(TokenKey key) {
+            reads.incrementAndGet();
+            return super.getToken(key);
+        }
+
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.net.CookieHandler;
+import java.net.CookieManager;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javafx.beans.value.ObservableValue;
+import javafx.concurrent.Worker;
+import javafx.scene.web.WebEngine;
+import javafx.scene.web.WebView;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static com.github.jlarder.javafx.oauth.oauth2.FxToolkit.onFxThread;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ *
+ * @author Andrey Kazakov
+ */
+public class PersistentCookieStoreTest {
+
+    private static final URI PROVIDER = URI.create("https://accounts.example.com/o/oauth2/auth");
+
+    @TempDir
+    Path dir;
+
+
+    @Test
+    public void directoryAndFilesAreOwnerOnly() throws Exception {
+        assumeTrue(Files.getFileAttributeView(dir, PosixFileAttributeView.class) != null, "not a POSIX file system");
+        Path cookies = dir.resolve("tokens").resolve("cookies");
+        try(PersistentCookieStore store = new PersistentCookieStore(cookies)) {
+            store.add(PROVIDER, persistentCookie("sid", "secret"));
+        }
+
+        assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(cookies)));
+        assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(cookies.getParent())));
+        Path file = cookies.resolve("accounts.example.com.cookies");
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+    }
+
+
+    @Test
+    public void persistentCookiesSurviveRestart() {
+        Path cookies = dir.resolve("cookies");
+        try(PersistentCookieStore store = new PersistentCookieStore(cookies)) {
+            store.add(PROVIDER, persistentCookie("sid", "secret"));
+            store.add(PROVIDER, new HttpCookie("session", "gone"));
+        }
+
+        try(PersistentCookieStore store = new PersistentCookieStore(cookies)) {
+            assertEquals(1, store.get(PROVIDER).size());
+            assertEquals("secret", store.get(PROVIDER).get(0).getValue());
+        }
+    }
+
+
+    /**
+     * Counts the page loads a re-authentication after a restart takes
+     * against a provider which remembers the user, with and without the
+     * cookies of the first login kept on disk.
+     */
+    @Test
+    public void rememberedLoginSkipsTheLoginForm() throws Exception {
+        FxToolkit.start();
+        Path cookies = dir.resolve("cookies");
+        CookieHandler previous = CookieHandler.getDefault();
+        try(StubLoginPage provider = new StubLoginPage()) {
+            try(PersistentCookieStore store = new PersistentCookieStore(cookies)) {
+                store.install();
+                authenticate(provider);
+                assertEquals(1, provider.getLoginForms());
+            }
+
+            CookieHandler.setDefault(new CookieManager());
+            int inMemoryLoads = authenticate(provider);
+            assertEquals(1, provider.getLoginForms());
+
+            try(PersistentCookieStore store = new PersistentCookieStore(cookies)) {
+                store.install();
+                int persistentLoads = authenticate(provider);
+                assertEquals(0, provider.getLoginForms());
+                System.out.println("page loads per re-authentication: " + persistentLoads
+                        + " with stored cookies, " + inMemoryLoads + " without");
+                assertTrue(persistentLoads < inMemoryLoads);
+            }
+        } finally {
+            CookieHandler.setDefault(previous);
+        }
+    }
+
+
+    /**
+     * Loads the authorization page in a new web view, submits the login
+     * form like the user does and waits for the callback.
+     * 
+     * @return the page loads it took
+     */
+    private static int authenticate(StubLoginPage provider) throws Exception {
+        provider.reset();
+        CompletableFuture<String> callback = new CompletableFuture<>();
+        WebView webView = onFxThread(() -> {
+            WebView view = new WebView();
+            WebEngine engine = view.getEngine();
+            engine.getLoadWorker().stateProperty().addListener((ObservableValue<? extends Worker.State> observable,
+                    Worker.State oldState, Worker.State state) -> {
+                if(state != Worker.State.SUCCEEDED) return;
+                if(engine.getLocation().startsWith(provider.getCallbackUrl())) {
+                    callback.complete(engine.getLocation());
+                } else if(engine.getLocation().startsWith(provider.getAuthorizeUrl())) {
+                    engine.executeScript("document.forms[0].submit()");
+                }
+            });
+            engine.load(provider.getAuthorizeUrl());
+            return view;
+        });
+        callback.get(30, TimeUnit.SECONDS);
+        onFxThread(() -> {
+            webView.getEngine().load(null);
+            return null;
+        });
+        return provider.getPageLoads();
+    }
+
+
+    private static HttpCookie persistentCookie(String name, String value) {
+        HttpCookie cookie = new HttpCookie(name, value);
+        cookie.setMaxAge(3600);
+        return cookie;
+    }
+
+}
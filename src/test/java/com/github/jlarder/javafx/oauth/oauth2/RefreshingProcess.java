@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes the stored token once it reads "go" on its input, through a
+ * write-behind cache and a file refresh lock, see {@link MultiProcessRefreshTest}.
+ * Arguments: the token directory and the token endpoint.
+ *
+ * @author Andrey Kazakov
+ */
+public class RefreshingProcess {
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Paths.get(args[0]);
+        FileTokenRepository files = new FileTokenRepository();
+        files.setLocation(dir.toString());
+        try(CachingTokenRepository cache = new CachingTokenRepository(files, TimeUnit.MINUTES.toMillis(10),
+                CachingTokenRepository.DEFAULT_MAX_SIZE, 0)) {
+            OAuth2Service service = ServiceFixture.newService(cache);
+            service.setRefreshLock(new FileRefreshLock(dir));
+            TokenKey key = TokenKey.of("stub");
+            Token token = cache.getToken(key);
+
+            System.out.println("ready");
+            BufferedReader input = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            if(!"go".equals(input.readLine())) return;
+            try {
+                Token refreshed = service.refreshTokenAsync(token, key, ServiceFixture.properties(args[1]))
+                        .get(60, TimeUnit.SECONDS);
+                System.out.println("result " + refreshed.getAccessToken());
+            } catch(Exception ex) {
+                System.out.println("result " + ex);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static com.github.jlarder.javafx.oauth.oauth2.StubTokenEndpoint.Fault;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Retry decisions against scripted failures, and both transports against
+ * a local token endpoint which injects faults.
+ *
+ * @author Andrey Kazakov
+ */
+public class ResilientTokenEndpointClientTest {
+
+    private static final String ENDPOINT = "http://127.0.0.1/token";
+
+    private static final Map<String, String> REFRESH = Map.of("grant_type", "refresh_token", "refresh_token", "r");
+
+    private static final Map<String, String> CLIENT_CREDENTIALS = Map.of("grant_type", "client_credentials");
+
+    private static final ResiliencePolicy POLICY = new ResiliencePolicy.Builder()
+            .maxAttempts(3).initialBackoff(Duration.ofMillis(1)).failureThreshold(0).build();
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMillis(500);
+
+    private StubTokenEndpoint endpoint;
+
+
+    @BeforeEach
+    public void startEndpoint() throws IOException {
+        endpoint = new StubTokenEndpoint(0);
+    }
+
+
+    @AfterEach
+    public void stopEndpoint() {
+        endpoint.close();
+    }
+
+
+    @Test
+    public void refreshIsNotRetriedAfterTheRequestWasSent() {
+        AtomicInteger calls = new AtomicInteger();
+        TokenEndpointException timeout = new TokenEndpointException(0, null, "read timed out",
+                new IOException("timeout"));
+        ResilientTokenEndpointClient client = new ResilientTokenEndpointClient((String e, Map<String, String> p) -> {
+            calls.incrementAndGet();
+            throw timeout;
+        }, POLICY);
+
+        assertSame(timeout, assertThrows(TokenEndpointException.class, () -> client.requestToken(ENDPOINT, REFRESH)));
+        assertEquals(1, calls.get());
+    }
+
+
+    @Test
+    public void refreshIsRetriedAfterConnectFailure() {
+        AtomicInteger calls = new AtomicInteger();
+        ResilientTokenEndpointClient client = new ResilientTokenEndpointClient((String e, Map<String, String> p) -> {
+            if(calls.incrementAndGet() == 1) {
+                throw new TokenEndpointException(0, null, "refused", new ConnectException("refused"));
+            }
+            return Map.of("access_token", "a");
+        }, POLICY);
+
+        assertEquals("a", client.requestToken(ENDPOINT, REFRESH).get("access_token"));
+        assertEquals(2, calls.get());
+    }
+
+
+    @Test
+    public void idempotentGrantIsRetriedAfterServerError() {
+        AtomicInteger calls = new AtomicInteger();
+        ResilientTokenEndpointClient client = new ResilientTokenEndpointClient((String e, Map<String, String> p) -> {
+            if(calls.incrementAndGet() == 1) throw new TokenEndpointException(502, null, "bad gateway");
+            return Map.of("access_token", "a");
+        }, POLICY);
+
+        assertEquals("a", client.requestToken(ENDPOINT, CLIENT_CREDENTIALS).get("access_token"));
+        assertEquals(2, calls.get());
+    }
+
+
+    @Test
+    public void nonTransientErrorsDoNotOpenTheCircuit() {
+        ResiliencePolicy policy = new ResiliencePolicy.Builder().maxAttempts(1).failureThreshold(1).build();
+        ResilientTokenEndpointClient client = new ResilientTokenEndpointClient((String e, Map<String, String> p) -> {
+            throw new TokenErrorException(new TokenError(), "invalid response");
+        }, policy);
+
+        for(int i = 0; i < 3; i++) {
+            assertThrows(TokenErrorException.class, () -> client.requestToken(ENDPOINT, CLIENT_CREDENTIALS));
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, client.getCircuitState(ENDPOINT));
+        assertEquals(0, client.getRejectedCount());
+    }
+
+
+    @Test
+    public void circuitOpenedWhileRetryingKeepsTheOriginalError() {
+        ResiliencePolicy policy = new ResiliencePolicy.Builder().maxAttempts(5)
+                .initialBackoff(Duration.ofMillis(1)).failureThreshold(2).build();
+        TokenEndpointException unavailable = new TokenEndpointException(503, null, "unavailable");
+        ResilientTokenEndpointClient client = new ResilientTokenEndpointClient((String e, Map<String, String> p) -> {
+            throw unavailable;
+        }, policy);
+
+        assertSame(unavailable, assertThrows(TokenEndpointException.class, 
+                () -> client.requestToken(ENDPOINT, CLIENT_CREDENTIALS)));
+        assertEquals(CircuitBreaker.State.OPEN, client.getCircuitState(ENDPOINT));
+    }
+
+
+    @ParameterizedTest
+    @ValueSource(strings = {"httpClient", "restTemplate"})
+    public void serverErrorsOfIdempotentGrantAreRetried(String transport) {
+        endpoint.inject(Fault.status(503), Fault.status(502));
+        ResilientTokenEndpointClient client = new ResilientTokenEndpointClient(transport(transport), POLICY);
+
+        assertEquals("access-1", client.requestAccessToken(endpoint.getUrl(), CLIENT_CREDENTIALS).getAccessToken());
+        assertEquals(3, endpoint.getRequestCount());
+        assertEquals(2, client.getRetryCount());
+    }
+
+
+    @ParameterizedTest
+    @ValueSource(strings = {"httpClient", "restTemplate"})
+    public void serverErrorOfRefreshIsNotRetried(String transport) {
+        endpoint.accept("refresh-0");
+        endpoint.inject(Fault.status(500));
+        ResilientTokenEndpointClient client = new ResilientTokenEndpointClient(transport(transport), POLICY);
+
+        TokenEndpointException failure = assertThrows(TokenEndpointException.class,
+                () -> client.requestAccessToken(endpoint.getUrl(), refresh("refresh-0")));
+        assertEquals(500, failure.getStatusCode());
+        assertEquals(1, endpoint.getRequestCount());
+    }
+
+
+    @ParameterizedTest
+    @ValueSource(strings = {"httpClient", "restTemplate"})
+    public void retryAfterIsWaitedFor(String transport) {
+        endpoint.inject(Fault.tooManyRequests("1"));
+        ResiliencePolicy policy = new ResiliencePolicy.Builder().maxAttempts(2)
+                .initialBackoff(Duration.ofMillis(1)).maxBackoff(Duration.ofSeconds(5)).failureThreshold(0).build();
+        ResilientTokenEndpointClient client = new ResilientTokenEndpointClient(transport(transport), policy);
+
+        long start = System.nanoTime();
+        assertEquals("access-1", client.requestAccessToken(endpoint.getUrl(), CLIENT_CREDENTIALS).getAccessToken());
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        assertTrue(elapsed >= 1000, "retried after " + elapsed + " ms");
+        assertEquals(2, endpoint.getRequestCount());
+    }
+
+
+    @ParameterizedTest
+    @ValueSource(strings = {"httpClient", "restTemplate"})
+    public void retryAfterBeyondTheMaximumBackoffFailsAtOnce(String transport) {
+        endpoint.inject(Fault.tooManyRequests("3600"));
+        ResilientTokenEndpointClient client = new ResilientTokenEndpointClient(transport(transport), POLICY);
+
+        TokenEndpointException failure = assertThrows(TokenEndpointException.class,
+                () -> client.requestAccessToken(endpoint.getUrl(), CLIENT_CREDENTIALS));
+        assertEquals(429, failure.getStatusCode());
+        assertEquals(Duration.ofHours(1), failure.getRetryAfter());
+        assertEquals(1, endpoint.getRequestCount());
+    }
+
+
+    @ParameterizedTest
+    @ValueSource(strings = {"httpClient", "restTemplate"})
+    public void droppedConnectionOfRefreshIsNotReplayed(String transport) {
+        endpoint.accept("refresh-0");
+        endpoint.inject(Fault.drop());
+        ResilientTokenEndpointClient client = new ResilientTokenEndpointClient(transport(transport), POLICY);
+
+        TokenEndpointException failure = assertThrows(TokenEndpointException.class,
+                () -> client.requestAccessToken(endpoint.getUrl(), refresh("refresh-0")));
+        assertEquals(0, failure.getStatusCode());
+        assertTrue(causedByIoException(failure), () -> "cause " + failure.getCause());
+        assertEquals(1, endpoint.getRequestCount());
+    }
+
+
+    @ParameterizedTest
+    @ValueSource(strings = {"httpClient", "restTemplate"})
+    public void slowResponseTimesOut(String transport) {
+        endpoint.accept("refresh-0");
+        endpoint.inject(Fault.slow(3000));
+        ResilientTokenEndpointClient client = new ResilientTokenEndpointClient(transport(transport), POLICY);
+
+        long start = System.nanoTime();
+        TokenEndpointException failure = assertThrows(TokenEndpointException.class,
+                () -> client.requestAccessToken(endpoint.getUrl(), refresh("refresh-0")));
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        assertEquals(0, failure.getStatusCode());
+        assertTrue(elapsed < 2500, "timed out after " + elapsed + " ms");
+        assertEquals(1, client.getRequestCount());
+    }
+
+
+    @ParameterizedTest
+    @ValueSource(strings = {"httpClient", "restTemplate"})
+    public void refusedConnectionOfRefreshIsRetried(String transport) {
+        String closed = endpoint.getUrl();
+        endpoint.close();
+        ResilientTokenEndpointClient client = new ResilientTokenEndpointClient(transport(transport), POLICY);
+
+        TokenEndpointException failure = assertThrows(TokenEndpointException.class,
+                () -> client.requestAccessToken(closed, refresh("refresh-0")));
+        assertEquals(0, failure.getStatusCode());
+        assertEquals(3, client.getRequestCount());
+    }
+
+
+    private static TokenEndpointClient transport(String name) {
+        return name.equals("httpClient") ?
+                new HttpClientTokenEndpointClient(Duration.ofSeconds(2), REQUEST_TIMEOUT, null) :
+                new RestTemplateTokenEndpointClient(Duration.ofSeconds(2), REQUEST_TIMEOUT);
+    }
+
+
+    private static boolean causedByIoException(Throwable failure) {
+        for(Throwable cause = failure.getCause(); cause != null; cause = cause.getCause()) {
+            if(cause instanceof IOException) return true;
+        }
+        return false;
+    }
+
+
+    private static Map<String, String> refresh(String refreshToken) {
+        return Map.of("grant_type", "refresh_token", "refresh_token", refreshToken, "client_id", "client");
+    }
+
+}
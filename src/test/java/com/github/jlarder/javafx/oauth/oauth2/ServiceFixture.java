@@ -0,0 +1,55 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.lang.reflect.Field;
+
+/**
+ * Builds services for tests without the Spring context.
+ *
+ * @author Andrey Kazakov
+ */
+final class ServiceFixture {
+
+    private ServiceFixture() {
+    }
+
+
+    static OAuth2Service newService(TokenRepository repository) {
+        OAuth2Service service = new OAuth2Service();
+        try {
+            Field field = OAuth2Service.class.getDeclaredField("tokenRepository");
+            field.setAccessible(true);
+            field.set(service, repository);
+        } catch(ReflectiveOperationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return service;
+    }
+
+
+    static OAuth2Properties properties(String tokenEndpoint) {
+        return new OAuth2Properties.AuthorizationCodeBuilder("http://127.0.0.1/auth", tokenEndpoint,
+                "http://127.0.0.1/callback", "client").buid();
+    }
+
+
+    static Token expiredToken(String refreshToken) {
+        return new Token.Builder("expired").refreshToken(refreshToken)
+                .expiresIn(60).creationTimestamp(System.currentTimeMillis() - 3600000).build();
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ *
+ * @author Andrey Kazakov
+ */
+public class SingleFlightTest {
+
+    private static final int CALLERS = 100;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+
+
+    @AfterEach
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+
+    @Test
+    public void concurrentCallersShareOneCall() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        List<Future<String>> results = new ArrayList<>();
+        results.add(executor.submit(() -> flight.execute("key", () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            await(release);
+            return "value";
+        })));
+        started.await();
+        for(int i = 1; i < CALLERS; i++) {
+            results.add(executor.submit(() -> flight.execute("key", () -> {
+                calls.incrementAndGet();
+                return "other";
+            })));
+        }
+        waitUntilBlocked(CALLERS - 1);
+        release.countDown();
+
+        for(Future<String> result : results) assertEquals("value", result.get(10, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertFalse(flight.isInFlight("key"));
+    }
+
+
+    @Test
+    public void errorIsPassedToEveryCaller() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AssertionError error = new AssertionError("boom");
+
+        List<Future<Throwable>> results = new ArrayList<>();
+        results.add(executor.submit(() -> failure(() -> flight.execute("key", () -> {
+            started.countDown();
+            await(release);
+            throw error;
+        }))));
+        started.await();
+        for(int i = 1; i < CALLERS; i++) {
+            results.add(executor.submit(() -> failure(() -> flight.execute("key", () -> "other"))));
+        }
+        waitUntilBlocked(CALLERS - 1);
+        release.countDown();
+
+        for(Future<Throwable> result : results) assertSame(error, result.get(10, TimeUnit.SECONDS));
+        assertFalse(flight.isInFlight("key"));
+    }
+
+
+    private static Throwable failure(Runnable call) {
+        try {
+            call.run();
+        } catch(Throwable ex) {
+            return ex;
+        }
+        fail("no failure");
+        return null;
+    }
+
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch(InterruptedException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+
+    /**
+     * Waits until the callers have joined the flight, so that none of them
+     * arrives after it has finished.
+     */
+    private static void waitUntilBlocked(int callers) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while(System.currentTimeMillis() < deadline) {
+            long blocked = Thread.getAllStackTraces().entrySet().stream()
+                    .filter((e) -> e.getKey().getState() == Thread.State.WAITING)
+                    .filter((e) -> stackContains(e.getValue(), "await"))
+                    .count();
+            if(blocked >= callers) return;
+            Thread.sleep(10);
+        }
+        fail("callers did not join the flight");
+    }
+
+
+    private static boolean stackContains(StackTraceElement[] stack, String method) {
+        for(StackTraceElement element : stack) {
+            if(element.getClassName().equals(SingleFlight.class.getName())
+                    && element.getMethodName().equals(method)) return true;
+        }
+        return false;
+    }
+
+}
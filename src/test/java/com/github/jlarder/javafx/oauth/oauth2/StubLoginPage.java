@@ -0,0 +1,188 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An authorization endpoint on the loopback interface which remembers the
+ * user: the login form sets a persistent session cookie, with it the
+ * authorization request is redirected to the callback right away.
+ *
+ * @author Andrey Kazakov
+ */
+class StubLoginPage implements AutoCloseable {
+
+    static final String SESSION_COOKIE = "sid";
+
+    private final HttpServer server;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final AtomicInteger pageLoads = new AtomicInteger();
+
+    private final AtomicInteger loginForms = new AtomicInteger();
+
+    private final Set<String> sessions = ConcurrentHashMap.newKeySet();
+
+
+    StubLoginPage() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/authorize", this::authorize);
+        server.createContext("/login", this::login);
+        server.createContext("/consent", this::consent);
+        server.createContext("/allow", this::allow);
+        server.createContext("/callback", (HttpExchange exchange) -> respond(exchange, "done"));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+
+    String getAuthorizeUrl() {
+        return getBaseUrl() + "/authorize";
+    }
+
+
+    /**
+     * @return an authorization page without form controls, which can be
+     * shown on the headless platform without fonts. Its allow link redirects
+     * to the redirect_uri of the request with a code and the state.
+     */
+    String getConsentUrl() {
+        return getBaseUrl() + "/consent";
+    }
+
+
+    String getCallbackUrl() {
+        return getBaseUrl() + "/callback";
+    }
+
+
+    /**
+     * @return the requests the web view made, redirects included
+     */
+    int getPageLoads() {
+        return pageLoads.get();
+    }
+
+
+    int getLoginForms() {
+        return loginForms.get();
+    }
+
+
+    void reset() {
+        pageLoads.set(0);
+        loginForms.set(0);
+    }
+
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+
+    private String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+
+    private void authorize(HttpExchange exchange) throws IOException {
+        List<String> cookies = exchange.getRequestHeaders().get("Cookie");
+        boolean remembered = cookies != null && cookies.stream()
+                .flatMap((String header) -> List.of(header.split(";")).stream())
+                .map((String cookie) -> cookie.trim().replace("\"", ""))
+                .anyMatch((String cookie) -> cookie.startsWith(SESSION_COOKIE + "=")
+                        && sessions.contains(cookie.substring(SESSION_COOKIE.length() + 1)));
+        if(remembered) {
+            redirect(exchange, getCallbackUrl() + "?code=remembered");
+        } else {
+            loginForms.incrementAndGet();
+            respond(exchange, "<html><body><form method=\"post\" action=\"/login\">"
+                    + "<input name=\"user\" value=\"user\"><input type=\"submit\"></form></body></html>");
+        }
+    }
+
+
+    private void login(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        String session = UUID.randomUUID().toString();
+        sessions.add(session);
+        exchange.getResponseHeaders().add("Set-Cookie", SESSION_COOKIE + "=" + session + "; Max-Age=3600; Path=/");
+        redirect(exchange, getCallbackUrl() + "?code=login");
+    }
+
+
+    private void consent(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        String href = "/allow" + (query != null ? "?" + query.replace("&", "&amp;") : "");
+        respond(exchange, "<html><body><a id=\"allow\" href=\"" + href + "\">Allow</a></body></html>");
+    }
+
+
+    private void allow(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if(query != null) {
+            for(String param : query.split("&")) {
+                String[] kv = param.split("=", 2);
+                if(kv.length == 2) params.put(URLDecoder.decode(kv[0], StandardCharsets.UTF_8), kv[1]);
+            }
+        }
+        String location = URLDecoder.decode(params.getOrDefault("redirect_uri", getCallbackUrl()), 
+                StandardCharsets.UTF_8) + "?code=consented";
+        if(params.containsKey("state")) location += "&state=" + params.get("state");
+        redirect(exchange, location);
+    }
+
+
+    private void redirect(HttpExchange exchange, String location) throws IOException {
+        pageLoads.incrementAndGet();
+        exchange.getResponseHeaders().set("Location", location);
+        exchange.sendResponseHeaders(302, -1);
+        exchange.close();
+    }
+
+
+    private void respond(HttpExchange exchange, String html) throws IOException {
+        pageLoads.incrementAndGet();
+        byte[] bytes = html.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try(OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A token endpoint on the loopback interface which rotates refresh tokens:
+ * every refresh token is accepted once, a reused one is answered with
+ * invalid_grant like real providers do. Client credentials are always
+ * accepted. Injected faults are answered to the next requests.
+ *
+ * @author Andrey Kazakov
+ */
+class StubTokenEndpoint implements AutoCloseable {
+
+    private final HttpServer server;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final AtomicInteger issued = new AtomicInteger();
+
+    private final Set<String> validRefreshTokens = ConcurrentHashMap.newKeySet();
+
+    private final Queue<Fault> faults = new ConcurrentLinkedQueue<>();
+
+    private final long delay;
+
+
+    /**
+     * @param delay milliseconds every response is delayed by
+     */
+    StubTokenEndpoint(long delay) throws IOException {
+        this.delay = delay;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/token", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+
+    /**
+     * Makes the refresh token valid for one refresh.
+     */
+    void accept(String refreshToken) {
+        validRefreshTokens.add(refreshToken);
+    }
+
+
+    /**
+     * The next requests are answered with the faults, one each.
+     */
+    void inject(Fault... faults) {
+        this.faults.addAll(Arrays.asList(faults));
+    }
+
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/token";
+    }
+
+
+    int getRequestCount() {
+        return requests.get();
+    }
+
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        Map<String, String> form = parseForm(new String(exchange.getRequestBody().readAllBytes(),
+                StandardCharsets.UTF_8));
+        Fault fault = faults.poll();
+        sleep(fault != null ? fault.delay : delay);
+        if(fault != null && fault.drop) {
+            // closing the exchange before the headers are sent closes the connection
+            exchange.close();
+            return;
+        }
+        if(fault != null && fault.status > 0) {
+            if(fault.retryAfter != null) exchange.getResponseHeaders().set("Retry-After", fault.retryAfter);
+            respond(exchange, fault.status, "{\"error\":\"server_error\"}");
+            return;
+        }
+
+        String body;
+        int status;
+        if("client_credentials".equals(form.get("grant_type"))) {
+            int n = issued.incrementAndGet();
+            status = 200;
+            body = "{\"access_token\":\"access-" + n + "\",\"token_type\":\"bearer\",\"expires_in\":3600}";
+        } else if(validRefreshTokens.remove(form.get("refresh_token"))) {
+            int n = issued.incrementAndGet();
+            String refreshToken = "refresh-" + n;
+            validRefreshTokens.add(refreshToken);
+            status = 200;
+            body = "{\"access_token\":\"access-" + n + "\",\"refresh_token\":\"" + refreshToken
+                    + "\",\"token_type\":\"bearer\",\"expires_in\":3600}";
+        } else {
+            status = 400;
+            body = "{\"error\":\"invalid_grant\"}";
+        }
+        respond(exchange, status, body);
+    }
+
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try(OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    private static Map<String, String> parseForm(String form) {
+        Map<String, String> params = new HashMap<>();
+        for(String p : form.split("&")) {
+            String[] kv = p.split("=", 2);
+            if(kv.length == 2) {
+                params.put(URLDecoder.decode(kv[0], StandardCharsets.UTF_8),
+                        URLDecoder.decode(kv[1], StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+
+    /**
+     * A failure the endpoint answers a request with.
+     */
+    static final class Fault {
+
+        private final int status;
+
+        private final String retryAfter;
+
+        private final long delay;
+
+        private final boolean drop;
+
+        private Fault(int status, String retryAfter, long delay, boolean drop) {
+            this.status = status;
+            this.retryAfter = retryAfter;
+            this.delay = delay;
+            this.drop = drop;
+        }
+
+
+        static Fault status(int status) {
+            return new Fault(status, null, 0, false);
+        }
+
+
+        static Fault tooManyRequests(String retryAfter) {
+            return new Fault(429, retryAfter, 0, false);
+        }
+
+
+        /**
+         * The request is answered as usual after the delay.
+         */
+        static Fault slow(long delay) {
+            return new Fault(0, null, delay, false);
+        }
+
+
+        /**
+         * The connection is closed without a response.
+         */
+        static Fault drop() {
+            return new Fault(0, null, 0, true);
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding of a typical token with each of the built-in codecs.
+ * The encoded size is printed on setup.
+ *
+ * @author Andrey Kazakov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenCodecBenchmark {
+
+    @Param({"binary", "json", "properties"})
+    public String codecName;
+
+    private final Token token = new Token.Builder("ya29.a0AfH6SMBx3kYw2lQ9pC7uVnRr-Example-Access-Token")
+            .refreshToken("1//0gExampleRefreshToken")
+            .scope("https://www.googleapis.com/auth/drive.readonly openid")
+            .expiresIn(3599)
+            .creationTimestamp(System.currentTimeMillis())
+            .parameter("id_token", "eyJhbGciOiJSUzI1NiJ9.eyJzdWIiOiIxMjMifQ.c2ln")
+            .build();
+
+    private TokenCodec codec;
+
+    private ByteBuffer encoded;
+
+
+    @Setup
+    public void setUp() {
+        codec = TokenCodecs.forName(codecName);
+        encoded = codec.encode(token);
+        System.out.println(codecName + ": " + encoded.remaining() + " bytes per token");
+    }
+
+
+    @Benchmark
+    public ByteBuffer encode() {
+        return codec.encode(token);
+    }
+
+
+    @Benchmark
+    public Token decode() {
+        return codec.decode(encoded.duplicate());
+    }
+
+}
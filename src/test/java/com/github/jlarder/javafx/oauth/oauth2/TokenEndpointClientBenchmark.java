@@ -0,0 +1,137 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of a refresh request over HTTPS to a local token endpoint with
+ * both transports, one caller at a time and eight at once. The JDK stub
+ * server speaks HTTP/1.1 only, so keep-alive is measured but not HTTP/2.
+ * Its responses are sent without delay, otherwise delayed acknowledgements
+ * dominate the numbers.
+ *
+ * @author Andrey Kazakov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+public class TokenEndpointClientBenchmark {
+
+    private static final byte[] RESPONSE = ("{\"access_token\":\"ya29.a0AfH6SMBx3\",\"expires_in\":3599,"
+            + "\"token_type\":\"Bearer\",\"scope\":\"https://www.googleapis.com/auth/youtube.readonly\"}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static final Map<String, String> PARAMS = Map.of("grant_type", "refresh_token",
+            "refresh_token", "1//0gdKq", "client_id", "client", "client_secret", "secret");
+
+    @Param({"httpClient", "restTemplate"})
+    public String transport;
+
+    private Path dir;
+
+    private HttpsServer server;
+
+    private ExecutorService serverExecutor;
+
+    private TokenEndpointClient client;
+
+    private String endpoint;
+
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("token-endpoint-benchmark");
+        SSLContext tls = SelfSignedTls.create(dir);
+        SSLContext.setDefault(tls);
+        HttpsURLConnection.setDefaultSSLSocketFactory(tls.getSocketFactory());
+
+        server = HttpsServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(tls));
+        server.createContext("/token", TokenEndpointClientBenchmark::respond);
+        serverExecutor = Executors.newFixedThreadPool(16);
+        server.setExecutor(serverExecutor);
+        server.start();
+        endpoint = "https://127.0.0.1:" + server.getAddress().getPort() + "/token";
+
+        client = transport.equals("httpClient") ? 
+                new HttpClientTokenEndpointClient() : new RestTemplateTokenEndpointClient();
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        BenchmarkFiles.delete(dir);
+    }
+
+
+    @Benchmark
+    public Token sequential() {
+        return client.requestAccessToken(endpoint, PARAMS);
+    }
+
+
+    @Benchmark
+    @Threads(8)
+    public Token concurrent() {
+        return client.requestAccessToken(endpoint, PARAMS);
+    }
+
+
+    private static void respond(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, RESPONSE.length);
+        try(OutputStream out = exchange.getResponseBody()) {
+            out.write(RESPONSE);
+        }
+    }
+
+}
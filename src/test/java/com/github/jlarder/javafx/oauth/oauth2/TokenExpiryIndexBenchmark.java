@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Insert, remove and range query latency of an index holding 100k tokens.
+ *
+ * @author Andrey Kazakov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenExpiryIndexBenchmark {
+
+    private static final int TOKENS = 100_000;
+
+    private TokenExpiryIndex index;
+
+    private TokenKey[] keys;
+
+    private long now;
+
+    private int next;
+
+
+    @Setup
+    public void setUp() {
+        index = new TokenExpiryIndex();
+        keys = new TokenKey[TOKENS];
+        now = System.currentTimeMillis();
+        for(int i = 0; i < TOKENS; i++) {
+            keys[i] = TokenKey.of("provider" + (i % 10), "account" + i);
+            index.update(keys[i], expiry(i));
+        }
+    }
+
+
+    @TearDown
+    public void tearDown() {
+        index.close();
+    }
+
+
+    /** Moves a token to a new expiry instant, as a refresh does. */
+    @Benchmark
+    public void update() {
+        int i = next();
+        index.update(keys[i], expiry(i + next));
+    }
+
+
+    /** Removes a token and adds it back. */
+    @Benchmark
+    public void removeAndInsert() {
+        int i = next();
+        index.remove(keys[i]);
+        index.update(keys[i], expiry(i));
+    }
+
+
+    @Benchmark
+    public List<TokenKey> expiringWithinOneMinute() {
+        return index.getExpiringBefore(now + 60_000);
+    }
+
+
+    private int next() {
+        next = (next + 7919) % TOKENS;
+        return next;
+    }
+
+
+    /** Spreads the tokens over a day. */
+    private long expiry(int i) {
+        return now + (i * 863L) % 86_400_000L;
+    }
+
+}
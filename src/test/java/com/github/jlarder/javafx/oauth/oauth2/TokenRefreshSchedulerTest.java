@@ -0,0 +1,137 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author Andrey Kazakov
+ */
+public class TokenRefreshSchedulerTest {
+
+    private final TokenRefreshScheduler scheduler = new TokenRefreshScheduler(0, 0);
+
+
+    @AfterEach
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+
+    @Test
+    public void schedulingTheSameTokenAgainKeepsOneTask() {
+        TokenKey key = TokenKey.of("google");
+        Token token = validToken("refresh", 3600);
+        for(int i = 0; i < 10000; i++) assertTrue(scheduler.schedule(key, token, () -> {}));
+        assertEquals(1, scheduler.getQueuedTaskCount());
+    }
+
+
+    @Test
+    public void replacedTasksLeaveTheQueue() {
+        TokenKey key = TokenKey.of("google");
+        long now = System.currentTimeMillis();
+        for(int i = 0; i < 10000; i++) {
+            Token token = new Token.Builder("access-" + i).refreshToken("refresh")
+                    .expiresIn(3600).creationTimestamp(now + i).build();
+            scheduler.schedule(key, token, () -> {});
+        }
+        assertEquals(1, scheduler.getQueuedTaskCount());
+        scheduler.cancel(key);
+        assertEquals(0, scheduler.getQueuedTaskCount());
+        assertFalse(scheduler.isScheduled(key));
+    }
+
+
+    @Test
+    public void tokensWithoutRefreshTokenAreNotScheduled() {
+        TokenKey key = TokenKey.of("google");
+        scheduler.schedule(key, validToken("refresh", 3600), () -> {});
+        assertFalse(scheduler.schedule(key, new Token.Builder("access").expiresIn(3600)
+                .creationTimestamp(System.currentTimeMillis()).build(), () -> {}));
+        assertFalse(scheduler.isScheduled(key));
+        assertEquals(0, scheduler.getQueuedTaskCount());
+    }
+
+
+    @Test
+    public void hungRefreshDoesNotHoldUpOtherProviders() throws InterruptedException {
+        ExecutorService refreshExecutor = Executors.newCachedThreadPool();
+        CountDownLatch hung = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger refreshed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(3);
+        try {
+            scheduler.schedule(TokenKey.of("hung"), validToken("refresh", 1), () -> {
+                hung.countDown();
+                await(release);
+            }, refreshExecutor);
+            assertTrue(hung.await(10, TimeUnit.SECONDS));
+            for(String provider : new String[] {"google", "facebook", "vkontakte"}) {
+                scheduler.schedule(TokenKey.of(provider), validToken("refresh", 1), () -> {
+                    refreshed.incrementAndGet();
+                    done.countDown();
+                }, refreshExecutor);
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(3, refreshed.get());
+        } finally {
+            release.countDown();
+            refreshExecutor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void cacheHitsDoNotGrowTheQueue() throws Exception {
+        TokenKey key = TokenKey.of("google");
+        InMemoryTokenRepository repository = new InMemoryTokenRepository();
+        repository.saveToken(key, validToken("refresh", 3600));
+        OAuth2Service service = ServiceFixture.newService(repository);
+        service.setRefreshScheduler(scheduler);
+        OAuth2Properties props = ServiceFixture.properties("http://127.0.0.1:9/token");
+        for(int i = 0; i < 1000; i++) service.getTokenAsync(key, props).get(10, TimeUnit.SECONDS);
+        assertTrue(scheduler.isScheduled(key));
+        assertEquals(1, scheduler.getQueuedTaskCount());
+    }
+
+
+    private static Token validToken(String refreshToken, int expiresIn) {
+        return new Token.Builder("access").refreshToken(refreshToken).expiresIn(expiresIn)
+                .creationTimestamp(System.currentTimeMillis()).build();
+    }
+
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * A repository written against the provider-name methods only.
+ *
+ * @author Andrey Kazakov
+ */
+public class TokenRepositoryTest {
+
+    private final Map<String, Token> tokens = new HashMap<>();
+
+    private final TokenRepository repository = new TokenRepository() {
+        @Override
+        public void saveToken(String provider, Token token) {
+            tokens.put(provider, token);
+        }
+
+        @Override
+        public Token getToken(String provider) {
+            Token token = tokens.get(provider);
+            if(token == null) throw new TokenNotFoundException(TokenKey.of(provider), provider + " not found");
+            return token;
+        }
+
+        @Override
+        public void removeToken(String provider) {
+            tokens.remove(provider);
+        }
+    };
+
+
+    @Test
+    public void defaultAccountKeysReachTheProviderMethods() {
+        repository.saveToken(TokenKey.of("google"), new Token("a"));
+
+        assertEquals("a", tokens.get("google").getAccessToken());
+        assertEquals("a", repository.getToken(TokenKey.of("google")).getAccessToken());
+        assertEquals(Set.of(TokenKey.of("google")), repository.getKeys("google"));
+        assertEquals(Set.of(), repository.getKeys("facebook"));
+
+        repository.removeToken(TokenKey.of("google"));
+        assertEquals(Map.of(), tokens);
+    }
+
+
+    @Test
+    public void otherAccountsAreRejected() {
+        assertThrows(UnsupportedOperationException.class,
+                () -> repository.saveToken(TokenKey.of("google", "alice"), new Token("a")));
+        assertThrows(UnsupportedOperationException.class,
+                () -> repository.getToken(TokenKey.of("google", null, Set.of("drive"))));
+    }
+
+}
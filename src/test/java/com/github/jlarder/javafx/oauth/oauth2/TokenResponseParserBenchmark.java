@@ -0,0 +1,97 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Streaming parse of token responses against the former ObjectMapper map 
+ * round trip. Run with {@code -prof gc} to compare allocations.
+ *
+ * @author Andrey Kazakov
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenResponseParserBenchmark {
+
+    private static final Map<String, String> RESPONSES = Map.of(
+            "google", "{\"access_token\":\"ya29.a0AfH6SMBx3kYw2lQ9pC7uVnRr-Example-Access-Token\","
+                    + "\"expires_in\":3599,\"refresh_token\":\"1//0gExampleRefreshToken\","
+                    + "\"scope\":\"https://www.googleapis.com/auth/drive.readonly openid\","
+                    + "\"token_type\":\"Bearer\",\"id_token\":\"eyJhbGciOiJSUzI1NiJ9.eyJzdWIiOiIxMjMifQ.c2ln\"}",
+            "vk", "{\"access_token\":\"533bacf01e11f55b536a565b57531ac114461ae8736d6506a3\","
+                    + "\"expires_in\":43200,\"user_id\":66748,\"email\":\"user@example.com\"}",
+            "facebook", "{\"access_token\":\"EAAGm0PX4ZCpsBAExampleToken\",\"token_type\":\"bearer\","
+                    + "\"expires_in\":5183944,\"auth_type\":\"rerequest\"}");
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = 
+            new TypeReference<Map<String, Object>>() {};
+
+    @Param({"google", "vk", "facebook"})
+    public String provider;
+
+    private final TokenResponseParser parser = new TokenResponseParser();
+
+    private byte[] body;
+
+
+    @Setup
+    public void setUp() {
+        body = RESPONSES.get(provider).getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    @Benchmark
+    public Token streaming() {
+        return parser.parseToken(new ByteArrayInputStream(body), body.length);
+    }
+
+
+    @Benchmark
+    public Token objectMapper() throws IOException {
+        Map<String, Object> map = OBJECT_MAPPER.readValue(body, MAP_TYPE);
+        Map<String, String> parameters = new HashMap<>();
+        map.forEach((name, value) -> {
+            if(value != null) parameters.put(name, value.toString());
+        });
+        return Token.fromMap(parameters, System.currentTimeMillis());
+    }
+
+}
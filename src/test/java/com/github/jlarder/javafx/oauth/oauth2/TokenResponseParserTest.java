@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ *
+ * @author Andrey Kazakov
+ */
+public class TokenResponseParserTest {
+
+    private final TokenResponseParser parser = new TokenResponseParser();
+
+
+    @Test
+    public void parsesTokenResponseIntoToken() {
+        Token token = parser.parseToken(body("{\"access_token\":\"a\",\"refresh_token\":\"r\","
+                + "\"expires_in\":3600,\"scope\":\"read\"}"), -1);
+
+        assertEquals("a", token.getAccessToken());
+        assertEquals("r", token.getRefreshToken());
+        assertEquals(Integer.valueOf(3600), token.getExpiresIn());
+        assertEquals("read", token.get("scope"));
+    }
+
+
+    @Test
+    public void errorResponseBecomesTokenError() {
+        TokenErrorException ex = assertThrows(TokenErrorException.class, () -> parser.parseToken(
+                body("{\"error\":\"invalid_grant\",\"error_description\":\"used\"}"), -1));
+
+        assertEquals(TokenError.INVALID_GRANT, ex.getError().getError());
+        assertEquals("used", ex.getError().getErrorDescription());
+    }
+
+
+    @Test
+    public void responseWithoutTokenOrErrorIsCommonError() {
+        TokenErrorException ex = assertThrows(TokenErrorException.class,
+                () -> parser.parseToken(body("{\"token_type\":\"bearer\"}"), -1));
+
+        assertEquals(TokenError.COMMON_ERROR, ex.getError().getError());
+    }
+
+
+    @Test
+    public void onlyRfcErrorFieldsGoToTheError() {
+        Token token = parser.parseToken(body("{\"access_token\":\"a\",\"error_uri_extra\":\"x\"}"), -1);
+        assertEquals("x", token.get("error_uri_extra"));
+
+        TokenErrorException ex = assertThrows(TokenErrorException.class, () -> parser.parseToken(
+                body("{\"error\":\"invalid_grant\",\"error_uri\":\"https://e\",\"errors\":\"1\"}"), -1));
+        assertEquals("https://e", ex.getError().getErrorUri());
+        assertNull(ex.getError().get("errors"));
+    }
+
+
+    private static InputStream body(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *
+ * @author Andrey Kazakov
+ */
+public class TokenTest {
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void deprecatedSettersStillChangeTheToken() {
+        Token token = new Token("a");
+        token.setRefreshToken("r");
+        token.setExpiresIn(60);
+        token.setCreationTimestamp(1000L);
+        token.set("id_token", "i");
+        token.setAll(Map.of("scope", "read"));
+        token.update(new Token.Builder("b").refreshToken("r2").build());
+
+        assertEquals("b", token.getAccessToken());
+        assertEquals("r2", token.getRefreshToken());
+        assertEquals(Integer.valueOf(60), token.getExpiresIn());
+        assertEquals(Long.valueOf(61000L), token.getExpirationTime());
+        assertEquals("i", token.get("id_token"));
+        assertEquals("read", token.getScope());
+    }
+
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void settersDoNotAffectDerivedTokens() {
+        Token token = new Token.Builder("a").refreshToken("r").build();
+        Token merged = token.merge(new Token("b"));
+        token.setRefreshToken("r2");
+
+        assertEquals("r", merged.getRefreshToken());
+    }
+
+
+    @Test
+    public void getAllReturnsSnapshot() {
+        Token token = new Token("a");
+        Map<String, String> parameters = token.getAll();
+        parameters.put("scope", "read");
+
+        assertNull(token.getScope());
+        assertEquals(Map.of("access_token", "a"), token.getAll());
+    }
+
+
+    @Test
+    public void negativeLifetimeMeansExpired() {
+        long now = System.currentTimeMillis();
+        Token token = Token.fromMap(Map.of(Token.ACCESS_TOKEN, "a", Token.EXPIRES_IN, "-1"), now);
+
+        assertEquals(Integer.valueOf(-1), token.getExpiresIn());
+        assertTrue(token.isExpired());
+        assertFalse(new Token.Builder("a").expiresIn(0).creationTimestamp(now).build().isExpired());
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2020 Andrey Kazakov.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.jlarder.javafx.oauth.oauth2;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Saves tokens in a loop until it is killed, see {@link AtomicFileWriterTest}.
+ * Arguments: the token directory and whether group commit is used.
+ *
+ * @author Andrey Kazakov
+ */
+public class TokenWriterProcess {
+
+    public static void main(String[] args) throws InterruptedException {
+        FileTokenRepository repository = new FileTokenRepository();
+        repository.setLocation(args[0]);
+        repository.setGroupCommit(Boolean.parseBoolean(args[1]));
+        AtomicLong sequence = new AtomicLong();
+        for(int t = 0; t < 4; t++) {
+            Thread writer = new Thread(() -> {
+                while(true) {
+                    long i = sequence.incrementAndGet();
+                    repository.saveToken(TokenKey.of("p" + (i % 8)), 
+                            new Token.Builder("t" + i).refreshToken("r" + i).expiresIn(3600).build());
+                }
+            });
+            writer.setDaemon(true);
+            writer.start();
+        }
+        while(sequence.get() < 8) Thread.sleep(1);
+        System.out.println("ready");
+        Thread.sleep(Long.MAX_VALUE);
+    }
+
+}